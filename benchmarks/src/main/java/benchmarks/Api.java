@@ -0,0 +1,231 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+
+/**
+ * Class that gives the benchmarks access to the inference classes
+ * The inference classes are in the unnamed package, which cannot be imported from a named package, and JMH needs
+ * its benchmarks in a named package. The classes are looked up once and called through constant method handles,
+ * which the JIT inlines like direct calls. Network and factor objects are passed around as Object.
+ * @author 220031271
+ */
+final class Api {
+
+    private static final Class<?> BAYESIAN_NETWORK = load("BayesianNetwork");
+    private static final Class<?> FACTOR = load("Factor");
+    private static final Class<?> INFERENCE = load("Inference");
+    private static final Class<?> NETWORK_GENERATOR = load("NetworkGenerator");
+    private static final Class<?> TOPOLOGY = load("NetworkGenerator$Topology");
+
+    private static final MethodHandle READ_BN = findStatic(load("BNParser"), "readBNFromFile",
+                                                           BAYESIAN_NETWORK, File.class);
+    private static final MethodHandle VARIABLE_COUNT = findVirtual(BAYESIAN_NETWORK, "getVariableCount",
+                                                                   int.class);
+    private static final MethodHandle VARIABLE_ID = findVirtual(BAYESIAN_NETWORK, "getVariableId",
+                                                                int.class, String.class);
+    private static final MethodHandle CHILD_IDS = findVirtual(BAYESIAN_NETWORK, "getChildIds",
+                                                              int[].class, int.class);
+    private static final MethodHandle FROM_VARIABLE = findStatic(FACTOR, "fromVariable", FACTOR,
+                                                                 BAYESIAN_NETWORK, int.class);
+    private static final MethodHandle JOIN_FACTOR = findVirtual(FACTOR, "joinFactor", FACTOR, FACTOR,
+                                                                BAYESIAN_NETWORK);
+    private static final MethodHandle SUM_FACTOR = findVirtual(FACTOR, "sumFactor", FACTOR, String.class,
+                                                               BAYESIAN_NETWORK);
+    private static final MethodHandle ASSIGN = findVirtual(FACTOR, "assign", void.class, String.class, String.class,
+                                                           BAYESIAN_NETWORK);
+    private static final MethodHandle NEW_INFERENCE = findConstructor(INFERENCE);
+    private static final MethodHandle FIND_PROBABILITY = findVirtual(INFERENCE, "findProbability", double.class,
+                                                                     BAYESIAN_NETWORK, String.class, String.class,
+                                                                     ArrayList.class, String[].class);
+
+    private static final MethodHandle NEW_GENERATOR = findConstructor(NETWORK_GENERATOR, long.class);
+    private static final MethodHandle SET_NODE_COUNT = findVirtual(NETWORK_GENERATOR, "setNodeCount", void.class,
+                                                                   int.class);
+    private static final MethodHandle SET_TOPOLOGY = findVirtual(NETWORK_GENERATOR, "setTopology", void.class,
+                                                                 TOPOLOGY);
+    private static final MethodHandle SET_MAX_IN_DEGREE = findVirtual(NETWORK_GENERATOR, "setMaxInDegree",
+                                                                      void.class, int.class);
+    private static final MethodHandle SET_CARDINALITY = findVirtual(NETWORK_GENERATOR, "setCardinality", void.class,
+                                                                    int.class, int.class);
+    private static final MethodHandle WRITE_XML_BIF = findVirtual(NETWORK_GENERATOR, "writeXmlBif", void.class,
+                                                                  File.class);
+
+    private Api() {
+    }
+
+    /**
+     * method to write a synthetic network with NetworkGenerator
+     * @param topology name of the topology
+     * @param nodeCount number of variables
+     * @param maxInDegree maximum number of parents
+     * @param cardinality no of outcomes of every variable
+     * @param seed seed of the generator
+     * @param file output file
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static void writeNetwork(String topology, int nodeCount, int maxInDegree, int cardinality, long seed,
+                             File file) {
+        try {
+            Object generator = (Object) NEW_GENERATOR.invokeExact(seed);
+            SET_NODE_COUNT.invokeExact(generator, nodeCount);
+            SET_TOPOLOGY.invokeExact(generator, (Object) Enum.valueOf((Class) TOPOLOGY, topology));
+            SET_MAX_IN_DEGREE.invokeExact(generator, maxInDegree);
+            SET_CARDINALITY.invokeExact(generator, cardinality, cardinality);
+            WRITE_XML_BIF.invokeExact(generator, file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object readBNFromFile(File file) {
+        try {
+            return (Object) READ_BN.invokeExact(file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int getVariableCount(Object bn) {
+        try {
+            return (int) VARIABLE_COUNT.invokeExact(bn);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int getVariableId(Object bn, String name) {
+        try {
+            return (int) VARIABLE_ID.invokeExact(bn, name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int[] getChildIds(Object bn, int id) {
+        try {
+            return (int[]) CHILD_IDS.invokeExact(bn, id);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object fromVariable(Object bn, int id) {
+        try {
+            return (Object) FROM_VARIABLE.invokeExact(bn, id);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object joinFactor(Object factor, Object other, Object bn) {
+        try {
+            return (Object) JOIN_FACTOR.invokeExact(factor, other, bn);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object sumFactor(Object factor, String nuisanceVar, Object bn) {
+        try {
+            return (Object) SUM_FACTOR.invokeExact(factor, nuisanceVar, bn);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void assign(Object factor, String variable, String value, Object bn) {
+        try {
+            ASSIGN.invokeExact(factor, variable, value, bn);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newInference() {
+        try {
+            return (Object) NEW_INFERENCE.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static double findProbability(Object inference, Object bn, String variable, String value,
+                                  ArrayList<String[]> evidence) {
+        try {
+            return (double) FIND_PROBABILITY.invokeExact(inference, bn, variable, value, evidence, (String[]) null);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Inference class not on the class path: " + name, e);
+        }
+    }
+
+    private static MethodHandle findStatic(Class<?> owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return erase(MethodHandles.publicLookup().findStatic(owner, name, MethodType.methodType(returnType,
+                                                                                                  params)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing method " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle findVirtual(Class<?> owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return erase(MethodHandles.publicLookup().findVirtual(owner, name, MethodType.methodType(returnType,
+                                                                                                   params)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing method " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> owner, Class<?>... params) {
+        try {
+            return erase(MethodHandles.publicLookup().findConstructor(owner, MethodType.methodType(void.class,
+                                                                                                  params)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing constructor of " + owner.getName(), e);
+        }
+    }
+
+    /**
+     * method to replace the inference classes in the type of a handle with Object, so it can be called exactly
+     * @param handle method handle
+     * @return handle with the same primitive and JDK types and Object for the inference classes
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isInferenceClass(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isInferenceClass(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isInferenceClass(Class<?> c) {
+        return !c.isPrimitive() && !c.isArray() && c.getPackageName().isEmpty();
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the factor operations used by variable elimination
+ * The factors are the probability tables of the variable with the most children and of one of its children,
+ * which is the first join when that variable is eliminated.
+ * @author 220031271
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FactorBenchmark {
+
+    private Object bn;
+    private int variableId;
+    private String variable;
+    private Object parentFactor;    //probability table of the variable
+    private Object childFactor;     //probability table of its child
+    private Object joined;          //join of the two tables
+
+    @Setup(Level.Trial)
+    public void setUp(NetworkState network) {
+        bn = network.bn;
+        int n = Api.getVariableCount(bn);
+        variableId = 0;
+        for (int v = 1; v < n; v++) {
+            if (Api.getChildIds(bn, v).length > Api.getChildIds(bn, variableId).length) {
+                variableId = v;
+            }
+        }
+        variable = "V" + variableId;
+        int[] children = Api.getChildIds(bn, variableId);
+        parentFactor = Api.fromVariable(bn, variableId);
+        childFactor = Api.fromVariable(bn, children.length > 0 ? children[0] : variableId);
+        joined = Api.joinFactor(parentFactor, childFactor, bn);
+    }
+
+    @Benchmark
+    public Object joinFactor() {
+        return Api.joinFactor(parentFactor, childFactor, bn);
+    }
+
+    @Benchmark
+    public Object sumFactor() {
+        return Api.sumFactor(joined, variable, bn);
+    }
+
+    /**
+     * assign mutates the factor, so every call assigns a fresh copy of the probability table
+     */
+    @Benchmark
+    public Object assign() {
+        Object factor = Api.fromVariable(bn, variableId);
+        Api.assign(factor, variable, Networks.outcome(0), bn);
+        return factor;
+    }
+
+    /**
+     * cost of the copy included in the assign benchmark
+     */
+    @Benchmark
+    public Object fromVariable() {
+        return Api.fromVariable(bn, variableId);
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end benchmarks of Inference.findProbability
+ * The warm benchmark reuses one Inference object, so its plan cache answers every call after the first, and on
+ * networks large enough for the factor cache the repeated query is answered from the cached final factor. The cold
+ * benchmark uses a new Inference object for every call and includes pruning, ordering and plan compilation.
+ * @author 220031271
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InferenceBenchmark {
+
+    private Object inference;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        inference = Api.newInference();
+    }
+
+    @Benchmark
+    public double findProbabilityWarm(NetworkState network, QueryState query) {
+        return Api.findProbability(inference, network.bn, query.variable, query.value, query.evidence);
+    }
+
+    @Benchmark
+    public double findProbabilityCold(NetworkState network, QueryState query) {
+        return Api.findProbability(Api.newInference(), network.bn, query.variable, query.value, query.evidence);
+    }
+}
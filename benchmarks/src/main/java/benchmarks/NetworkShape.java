@@ -0,0 +1,22 @@
+package benchmarks;
+
+/**
+ * Shapes of the benchmark networks and the NetworkGenerator topology used for each
+ * @author 220031271
+ */
+public enum NetworkShape {
+    CHAIN("CHAIN"),         //V(i-1) -> Vi
+    POLYTREE("POLYTREE"),   //random tree with random edge directions, no undirected cycles
+    GRID("GRID"),           //square grid, parents are the left and upper neighbours
+    DENSE("RANDOM");        //up to three random parents among the earlier variables
+
+    private final String topology;
+
+    NetworkShape(String topology) {
+        this.topology = topology;
+    }
+
+    public String getTopology() {
+        return topology;
+    }
+}
@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark network, shared by all the threads of a trial
+ * @author 220031271
+ */
+@State(Scope.Benchmark)
+public class NetworkState {
+
+    static final long SEED = 42;
+
+    @Param({"CHAIN", "POLYTREE", "GRID", "DENSE"})
+    public NetworkShape shape;
+
+    @Param({"2", "4"})
+    public int cardinality;
+
+    @Param({"16"})
+    public int size;
+
+    File file;      //XMLBIF file of the network
+    Object bn;      //parsed network
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path path = Networks.write(shape, size, cardinality, SEED);
+        file = path.toFile();
+        bn = Api.readBNFromFile(file);
+    }
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Class that writes the benchmark networks as XMLBIF files with NetworkGenerator
+ * Every variable has the same number of outcomes. The same shape, size, cardinality and seed always give the
+ * same file.
+ * @author 220031271
+ */
+final class Networks {
+
+    private static final int MAX_IN_DEGREE = 3;
+
+    private Networks() {
+    }
+
+    /**
+     * method to write a network as an XMLBIF file
+     * @param shape shape of the network
+     * @param size number of variables
+     * @param cardinality number of outcomes of every variable
+     * @param seed seed of the structure and the probability tables
+     * @return path of the temporary file, deleted on exit
+     * @throws IOException if the file cannot be created
+     */
+    static Path write(NetworkShape shape, int size, int cardinality, long seed) throws IOException {
+        Path file = Files.createTempFile("bn-" + shape.name().toLowerCase() + "-", ".xml");
+        file.toFile().deleteOnExit();
+        Api.writeNetwork(shape.getTopology(), size, MAX_IN_DEGREE, cardinality, seed, file.toFile());
+        return file;
+    }
+
+    /**
+     * method to get the name of an outcome, as written by NetworkGenerator
+     * @param o index of the outcome
+     * @return name of the outcome
+     */
+    static String outcome(int o) {
+        return o == 0 ? "T" : o == 1 ? "F" : "o" + o;
+    }
+}
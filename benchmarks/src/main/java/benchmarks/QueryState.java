@@ -0,0 +1,43 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Query on the benchmark network: P(last variable = T | evidence) with evidence on random other variables
+ * @author 220031271
+ */
+@State(Scope.Benchmark)
+public class QueryState {
+
+    @Param({"0", "2", "4"})
+    public int evidenceCount;
+
+    String variable;
+    String value;
+    ArrayList<String[]> evidence;
+
+    @Setup(Level.Trial)
+    public void setUp(NetworkState network) {
+        int n = Api.getVariableCount(network.bn);
+        variable = "V" + (n - 1);
+        value = Networks.outcome(0);
+        Random random = new Random(NetworkState.SEED);
+        evidence = new ArrayList<>();
+        ArrayList<Integer> used = new ArrayList<>();
+        used.add(n - 1);
+        while (evidence.size() < Math.min(evidenceCount, n - 1)) {
+            int v = random.nextInt(n);
+            if (!used.contains(v)) {
+                used.add(v);
+                evidence.add(new String[]{"V" + v, Networks.outcome(random.nextInt(network.cardinality))});
+            }
+        }
+    }
+}
@@ -1,7 +1,17 @@
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 
 /********************
  * Starter Code
@@ -11,42 +21,58 @@ import java.io.File;
  * 
  *         run with
  *         java A2main <Pn> <NID>
+ *         java A2main BATCH <NID> [queries file]
+ *         java A2main ORDERING <NID>
+ *         java A2main GENERATE <NID> <nodes> [topology] [in-degree] [cardinality] [treewidth] [seed]
+ *         java A2main COMPILE <NID> <network file>
+ *         java A2main SAMPLE <NID> <samples> <output file> [seed]
+ *         java A2main SERVE <port> <NID> [NID ...]
  * 
  */
 
 public class A2main {
-	private static final String MSG = "Format: java A4main <Pn> <NID>";
+	private static final String MSG = "Format: java A4main <Pn> <NID>\n        java A2main BATCH <NID> [queries file]"
+			+ "\n        java A2main ORDERING <NID>"
+			+ "\n        java A2main GENERATE <NID> <nodes> [topology] [in-degree] [cardinality] [treewidth] [seed]"
+			+ "\n        java A2main COMPILE <NID> <network file>"
+			+ "\n        java A2main SAMPLE <NID> <samples> <output file> [seed]"
+			+ "\n        java A2main SERVE <port> <NID> [NID ...]";
 
 	public static void main(String[] args) {
 
 		BayesianNetwork bn = null;
 		try {						
 
+					// write a synthetic network instead of reading one
+					if (args.length > 0 && args[0].equals("GENERATE")) {
+						generate(args);
+						return;
+					}
+
+					// answer queries over HTTP until the process is stopped
+					if (args.length > 0 && args[0].equals("SERVE")) {
+						serve(args);
+						return;
+					}
+
 			        // Validate arguments
-					if (args.length != 2) {
+					boolean batch = args.length > 0 && args[0].equals("BATCH");
+					boolean compile = args.length > 0 && args[0].equals("COMPILE");
+					boolean sample = args.length > 0 && args[0].equals("SAMPLE");
+					if (compile ? args.length != 3 : sample ? args.length != 4 && args.length != 5
+							: args.length != 2 && !(batch && args.length == 3)) {
 						System.out.println(MSG);
 						System.exit(-1);
 					}
-			
-					// Get XML file			
-					String bnFilePath = args[1];
-					File bnFile = new File(bnFilePath);
-					if(!bnFile.exists()) {
-						System.out.println("Error: Invalid file name.");
+					if (sample && Long.parseLong(args[2]) <= 0) {
+						System.out.println("Error: The number of samples must be positive.");
 						System.exit(-1);
 					}
 			
-					// Parse XML file to get the Bayes net
-					bn = BNParser.readBNFromFile(bnFile);
-				if(bn.getGraph().checkCycle()){
-					System.out.println("Error: The given graph is not a Directed Acyclic Graph.\n");
-						System.exit(-1);
-				}
-				ArrayList<String> invalidVar = bn.validateProbabilities();
-				if(!invalidVar.isEmpty()){
-					System.out.println("Error: The probability distribution in the given graph is not valid for the following variables: "+invalidVar);
-						System.exit(-1);
-				}		
+					// Get XML file			
+					File bnFile = new File(args[1]);
+					ParseStatistics parseStatistics = new ParseStatistics();
+					bn = loadNetwork(bnFile, parseStatistics);
 
 		Scanner sc = new Scanner(System.in);
 		Inference inference = new Inference();
@@ -92,6 +118,66 @@ public class A2main {
 				printResult(result);
 			}
 				break;
+
+			case "BATCH": {
+				// stream queries from the file or stdin, the network is loaded only once
+				BufferedReader in = args.length == 3
+						? new BufferedReader(new FileReader(args[2]))
+						: new BufferedReader(new InputStreamReader(System.in));
+				PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+				LatencyRecorder recorder = runBatch(bn, inference, in, out);
+				out.flush();
+				in.close();
+				System.err.println(parseStatistics.report());
+				System.err.println(recorder.report());
+			}
+				break;
+
+			case "COMPILE": {
+				// write the network as a binary network file that can be mapped at startup
+				NetworkFile.write(bn.getCompiled(), NetworkFile.isNetworkFile(bnFile) ? null : bnFile, new File(args[2]));
+				System.err.println(parseStatistics.report());
+			}
+				break;
+
+			case "SAMPLE": {
+				// write joint samples of all the variables, as CSV when the output file ends with .csv
+				ForwardSampler sampler = new ForwardSampler(bn);
+				if (args.length == 5) {
+					sampler.setSeed(Long.parseLong(args[4]));
+				}
+				long count = Long.parseLong(args[2]);
+				long start = System.nanoTime();
+				sampler.sample(count, new File(args[3]),
+						args[3].endsWith(".csv") ? ForwardSampler.Format.CSV : ForwardSampler.Format.BINARY);
+				double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+				System.err.println(parseStatistics.report());
+				System.err.println(String.format("samples=%d elapsed=%.3fs throughput=%.1f samples/s", count,
+						elapsedSeconds, count / elapsedSeconds));
+			}
+				break;
+
+			case "ORDERING": {
+				// report the induced width and largest factor of each ordering strategy when every variable is eliminated
+				CompiledNetwork net = bn.getCompiled();
+				int n = net.getVariableCount();
+				int[][] families = new int[n][];
+				for (int v = 0; v < n; v++) {
+					int[] parents = net.parents(v);
+					families[v] = Arrays.copyOf(parents, parents.length + 1);
+					families[v][parents.length] = v;
+				}
+				BitSet all = new BitSet(n);
+				all.set(0, n);
+				for (EliminationOrder.Strategy strategy : EliminationOrder.Strategy.values()) {
+					int[] order = strategy == EliminationOrder.Strategy.REVERSE_TOPOLOGICAL
+							? Inference.orderNuisanceVariables(net, all, null)
+							: EliminationOrder.compute(strategy, families, net.getCardinalities(), all,
+									EliminationOrder.DEFAULT_TIME_BUDGET_MILLIS, 0).getOrder();
+					System.out.println(strategy + ": " + EliminationOrder.evaluate(order, families, net.getCardinalities()));
+				}
+			}
+				break;
 		}
 		sc.close();
 	} catch (Exception e) {
@@ -100,6 +186,152 @@ public class A2main {
 	}
 	}
 
+	/**
+	 * method to answer a stream of queries, one per line, in the format
+	 * Var:Val | E1:v1 E2:v2 [order]
+	 * where the evidence and the comma separated order of elimination are optional.
+	 * One result is written per line, a query that cannot be answered writes an error line instead.
+	 * @param bn Bayesian Network object
+	 * @param inference inference object shared by all the queries
+	 * @param in reader of the queries
+	 * @param out writer of the results
+	 * @return latencies of the answered queries
+	 */
+	static LatencyRecorder runBatch(BayesianNetwork bn, Inference inference, BufferedReader in, PrintWriter out)
+			throws IOException {
+		LatencyRecorder recorder = new LatencyRecorder();
+		DecimalFormat dd = new DecimalFormat("#0.00000");
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				String result = answerQuery(bn, inference, line, dd);
+				recorder.record(System.nanoTime() - start);
+				out.println(result);
+			} catch (RuntimeException e) {
+				recorder.recordError();
+				out.println("Error: " + e.getMessage());
+			}
+		}
+		return recorder;
+	}
+
+	/**
+	 * method to answer one query in the batch format, a query variable without a value gives its whole posterior
+	 * @param bn Bayesian Network object
+	 * @param inference inference object shared by all the queries
+	 * @param line query in the format Var[:Val] | E1:v1 E2:v2 [order]
+	 * @param dd format of the probabilities
+	 * @return the probability, or Val:p for every outcome of the variable separated by spaces
+	 */
+	static String answerQuery(BayesianNetwork bn, Inference inference, String line, DecimalFormat dd) {
+		String[] parts = line.split("\\|", 2);
+		String[] query = parts[0].trim().split(":");
+		ArrayList<String[]> evidence = new ArrayList<String[]>();
+		String[] order = null;
+		if (parts.length == 2) {
+			for (String token : parts[1].trim().split("\\s+")) {
+				if (token.isEmpty()) {
+					continue;
+				}
+				if (token.contains(":")) {
+					evidence.add(token.split(":"));
+				} else {
+					order = token.split(",");
+				}
+			}
+		}
+		if (query.length == 1 && !query[0].isEmpty()) {
+			Posterior posterior = inference.findPosterior(bn, query, evidence, order);
+			List<String> outcomes = bn.getCompiled().getOutcomes(bn.getVariableId(query[0]));
+			double[] distribution = posterior.getDistribution();
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < distribution.length; i++) {
+				sb.append(i == 0 ? "" : " ").append(outcomes.get(i)).append(':').append(dd.format(distribution[i]));
+			}
+			return sb.toString();
+		}
+		if (query.length != 2) {
+			throw new IllegalArgumentException("Please provide valid query: <Variable:Value>");
+		}
+		return dd.format(inference.findProbability(bn, query[0], query[1], evidence, order));
+	}
+
+	/**
+	 * method to read a network from an XML file or a compiled network file, the process exits if it is not valid
+	 * @param bnFile XML or compiled network file
+	 * @param parseStatistics statistics the load is recorded in
+	 * @return Bayesian Network object
+	 * @throws IOException if the file cannot be read
+	 */
+	private static BayesianNetwork loadNetwork(File bnFile, ParseStatistics parseStatistics) throws IOException {
+		if(!bnFile.exists()) {
+			System.out.println("Error: Invalid file name.");
+			System.exit(-1);
+		}
+		if (NetworkFile.isNetworkFile(bnFile)) {
+			// map a compiled network file, it was checked for cycles and valid probabilities when it was compiled
+			long start = System.nanoTime();
+			CompiledNetwork net = NetworkFile.load(bnFile);
+			long tableEntries = 0;
+			for (int id = 0; id < net.getVariableCount(); id++) {
+				tableEntries += net.getCpt(id).remaining();
+			}
+			parseStatistics.record(bnFile.length(), net.getVariableCount(), tableEntries, System.nanoTime() - start);
+			return new BayesianNetwork(net);
+		}
+		// Parse XML file to get the Bayes net
+		BayesianNetwork bn = BNParser.readBNFromFile(bnFile, parseStatistics);
+		if(bn.getGraph().checkCycle()){
+			System.out.println("Error: The given graph is not a Directed Acyclic Graph.\n");
+			System.exit(-1);
+		}
+		ArrayList<String> invalidVar = bn.validateProbabilities();
+		if(!invalidVar.isEmpty()){
+			System.out.println("Error: The probability distribution in the given graph is not valid for the following variables: "+invalidVar);
+			System.exit(-1);
+		}
+		return bn;
+	}
+
+	/**
+	 * method to load the networks and answer queries over HTTP on the loopback address until the process is stopped,
+	 * each network is queried by its file name without the extension
+	 * @param args SERVE, port (0 for any free port), then the network files
+	 * @throws IOException if a network cannot be read or the port cannot be bound
+	 */
+	private static void serve(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println(MSG);
+			System.exit(-1);
+		}
+		ParseStatistics parseStatistics = new ParseStatistics();
+		QueryServer server = new QueryServer(Integer.parseInt(args[1]), new Inference(),
+				Integer.getInteger("bayesnet.server.capacity", QueryServer.DEFAULT_CAPACITY));
+		for (int i = 2; i < args.length; i++) {
+			File bnFile = new File(args[i]);
+			String name = bnFile.getName();
+			server.addNetwork(name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name,
+					loadNetwork(bnFile, parseStatistics));
+		}
+		// answer the admitted requests when the process is interrupted or terminated
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				server.shutdown(10000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		server.start();
+		System.err.println(parseStatistics.report());
+		System.err.println("Listening on http://127.0.0.1:" + server.getPort() + "/ with "
+				+ (server.isVirtualThreads() ? "virtual threads" : "platform threads"));
+	}
+
 	// method to obtain the evidence from the user
 	private static ArrayList<String[]> getEvidence(Scanner sc) {
 
@@ -155,6 +387,35 @@ public class A2main {
 
 	}
 
+	/**
+	 * method to write a synthetic network as XMLBIF
+	 * @param args GENERATE, output file, number of variables, then optionally the topology, the maximum in-degree,
+	 *             the cardinality (k or min-max), the target treewidth and the seed
+	 * @throws IOException if the file cannot be written
+	 */
+	private static void generate(String[] args) throws IOException {
+		if (args.length < 3 || args.length > 8) {
+			System.out.println(MSG);
+			System.exit(-1);
+		}
+		NetworkGenerator generator = new NetworkGenerator(args.length > 7 ? Long.parseLong(args[7]) : 0);
+		generator.setNodeCount(Integer.parseInt(args[2]));
+		if (args.length > 3) {
+			generator.setTopology(NetworkGenerator.Topology.valueOf(args[3].toUpperCase()));
+		}
+		if (args.length > 4) {
+			generator.setMaxInDegree(Integer.parseInt(args[4]));
+		}
+		if (args.length > 5) {
+			String[] range = args[5].split("-");
+			generator.setCardinality(Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+		}
+		if (args.length > 6) {
+			generator.setTreewidth(Integer.parseInt(args[6]));
+		}
+		generator.writeXmlBif(new File(args[1]));
+	}
+
 	// method to format and print the result
 	private static void printResult(double result) {
 
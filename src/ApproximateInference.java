@@ -0,0 +1,693 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Class that answers queries approximately by sampling, for networks whose exact elimination does not fit in memory
+ * Likelihood weighting samples the variables in topological order (the order of Graph.topologicalSort) with the
+ * evidence fixed, and weights each sample by the probability of the evidence given its parents. Gibbs sampling runs
+ * one Markov chain per worker and resamples every variable from its Markov blanket. Only the requisite variables of
+ * the query (Bayes-ball) are sampled, and the probability tables are read in place with the strides of their parents.
+ * Each worker draws from its own split of one SplittableRandom and adds its totals to shared DoubleAdder
+ * accumulators once per batch, so the workers never lock and never share a random stream.
+ * Sampling stops at the sample budget, the time budget or the target precision, whichever comes first. While the
+ * workers run, a listener can be given the running estimate and its confidence interval.
+ * @author 220031271
+ */
+public class ApproximateInference {
+
+    public enum Method {
+        LIKELIHOOD_WEIGHTING,
+        GIBBS
+    }
+
+    private static final int WEIGHTING_BATCH = 1024;     //samples a worker draws between two updates of the totals
+    private static final int INITIAL_STATE_TRIES = 100;  //forward samples tried to start a chain from a possible state
+
+    private volatile Method method = Method.LIKELIHOOD_WEIGHTING;
+    private volatile long sampleBudget = 1_000_000;
+    private volatile long timeBudgetMillis = 1000;
+    private volatile double targetHalfWidth;             //0 to sample until one of the budgets is used up
+    private volatile double confidenceLevel = 0.95;
+    private volatile int threads = Runtime.getRuntime().availableProcessors();
+    private volatile long seed = System.nanoTime();
+    private volatile int burnIn = 100;                   //sweeps of each chain that are not counted
+    private volatile int batchLength = 100;              //sweeps of a chain in one batch mean
+    private volatile Consumer<Estimate> listener;
+    private volatile long progressIntervalMillis = 100;
+
+    /**
+     * Class that stores an estimate of the posterior of the query variable
+     * The interval of each value is the estimate plus or minus the half width, clipped to [0, 1]. For likelihood
+     * weighting the half width comes from the variance of the ratio of the weighted counts, for Gibbs sampling
+     * from the variance of the batch means, so it accounts for the correlation of the samples of a chain.
+     */
+    public static final class Estimate {
+
+        private final Method method;
+        private final double[] probabilities;
+        private final double[] halfWidths;
+        private final double confidenceLevel;
+        private final long samples;
+        private final long elapsedNanos;
+
+        Estimate(Method method, double[] probabilities, double[] halfWidths, double confidenceLevel, long samples,
+                 long elapsedNanos) {
+            this.method = method;
+            this.probabilities = probabilities;
+            this.halfWidths = halfWidths;
+            this.confidenceLevel = confidenceLevel;
+            this.samples = samples;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * Get the estimated probability of a value of the query variable
+         * @param value outcome index
+         * @return estimate, NaN if no sample was consistent with the evidence
+         */
+        public double getProbability(int value) {
+            return probabilities[value];
+        }
+
+        public double[] getProbabilities() {
+            return probabilities.clone();
+        }
+
+        public double getHalfWidth(int value) {
+            return halfWidths[value];
+        }
+
+        public double getLower(int value) {
+            return Math.max(0, probabilities[value] - halfWidths[value]);
+        }
+
+        public double getUpper(int value) {
+            return Math.min(1, probabilities[value] + halfWidths[value]);
+        }
+
+        /**
+         * method to get the widest half width of the values of the query variable
+         * @return largest half width, NaN if there is no interval yet
+         */
+        public double getMaxHalfWidth() {
+            double max = 0;
+            for (double halfWidth : halfWidths) {
+                if (!(halfWidth <= max)) {
+                    max = halfWidth;
+                }
+            }
+            return max;
+        }
+
+        public double getConfidenceLevel() {
+            return confidenceLevel;
+        }
+
+        /**
+         * Get the number of samples the estimate is based on
+         * @return weighted samples for likelihood weighting, counted sweeps for Gibbs sampling
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%s samples=%d elapsed=%.3fs", method, samples, elapsedNanos / 1e9));
+            for (int k = 0; k < probabilities.length; k++) {
+                sb.append(String.format(" [%d] %.5f (%.5f-%.5f)", k, probabilities[k], getLower(k), getUpper(k)));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * method to estimate the probability of a value of the query variable
+     * @param bn bayesian network object
+     * @param variable query variable
+     * @param value value of the query variable
+     * @param evidence list of evidences (null for no evidence)
+     * @return estimated probability
+     */
+    public double findProbability(BayesianNetwork bn, String variable, String value, ArrayList<String[]> evidence) {
+        int queryVar = Inference.variableId(bn, variable);
+        int queryValue = Inference.outcomeIndex(bn, queryVar, value);
+        return estimate(bn, variable, evidence).getProbability(queryValue);
+    }
+
+    /**
+     * method to estimate the posterior of the query variable
+     * @param bn bayesian network object
+     * @param variable query variable
+     * @param evidence list of evidences (null for no evidence)
+     * @return estimate of every value of the query variable
+     */
+    public Estimate estimate(BayesianNetwork bn, String variable, ArrayList<String[]> evidence) {
+        int queryVar = Inference.variableId(bn, variable);
+        int evidenceCount = evidence == null ? 0 : evidence.size();
+        int[] evidenceVars = new int[evidenceCount];
+        int[] evidenceValues = new int[evidenceCount];
+        for (int i = 0; i < evidenceCount; i++) {
+            String[] e = evidence.get(i);
+            evidenceVars[i] = Inference.variableId(bn, e[0]);
+            evidenceValues[i] = Inference.outcomeIndex(bn, evidenceVars[i], e[1]);
+        }
+        return estimate(bn, queryVar, evidenceVars, evidenceValues);
+    }
+
+    /**
+     * method to estimate the posterior of a query given as variable ids
+     * the calling thread waits for the workers and hands the running estimate to the listener
+     * @param bn bayesian network object
+     * @param queryVar id of the query variable
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables (the first one is used for repeated variables)
+     * @return estimate of every value of the query variable
+     */
+    public Estimate estimate(BayesianNetwork bn, int queryVar, int[] evidenceVars, int[] evidenceValues) {
+        Run run = new Run(bn.getCompiled(), queryVar, evidenceVars, evidenceValues, method);
+        int workers = Math.max(1, threads);
+        long budget = sampleBudget;
+        double z = normalQuantile(0.5 + confidenceLevel / 2);
+        long deadline = run.start + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+
+        // every worker gets an even share of the sample budget and its own random stream
+        SplittableRandom root = new SplittableRandom(seed);
+        CountDownLatch done = new CountDownLatch(workers);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        for (int w = 0; w < workers; w++) {
+            SplittableRandom rng = root.split();
+            long share = budget / workers + (w < budget % workers ? 1 : 0);
+            Thread worker = new Thread(() -> {
+                try {
+                    if (run.method == Method.GIBBS) {
+                        run.sampleGibbs(rng, share, burnIn, batchLength);
+                    } else {
+                        run.sampleWeighted(rng, share);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    run.stop = true;
+                } finally {
+                    done.countDown();
+                }
+            }, "sampler-" + w);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        // report the running estimate until the workers are done or a budget or the target precision is reached
+        try {
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                long wait = Math.min(TimeUnit.MILLISECONDS.toNanos(progressIntervalMillis), Math.max(0, remaining));
+                if (done.await(wait, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+                Estimate current = run.estimate(z, confidenceLevel);
+                Consumer<Estimate> progress = listener;
+                if (progress != null) {
+                    progress.accept(current);
+                }
+                if (remaining <= 0 || current.getMaxHalfWidth() <= targetHalfWidth) {
+                    run.stop = true;
+                    done.await();
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            run.stop = true;
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return run.estimate(z, confidenceLevel);
+    }
+
+    /**
+     * Class that stores the sampling tables and the shared totals of one query
+     */
+    private static final class Run {
+
+        private final Method method;
+        private final int queryVar;
+        private final int[] cardinalities;
+        private final int[] initialState;    //evidence values, the other variables are sampled
+        private final int[] sampled;         //requisite variables that are not evidence, in topological order
+        private final int[] weighted;        //requisite evidence variables, their tables weight the samples
+        private final int[][] parents;
+        private final int[][] rowStrides;    //offset of one step of each parent in the table of the variable
+        private final double[][] cpts;
+        private final int[][] blanketChildren;  //requisite children of each sampled variable
+        private final int[][] childStrides;     //offset of one step of the variable in the table of each child
+
+        private final long start = System.nanoTime();
+        private volatile boolean stop;
+        private final LongAdder samples = new LongAdder();
+        private final DoubleAdder[] sums;     //weight (or batch mean) of each value of the query variable
+        private final DoubleAdder[] squares;  //squared weight (or batch mean) of each value
+        private final LongAdder batches = new LongAdder();
+
+        Run(CompiledNetwork net, int queryVar, int[] evidenceVars, int[] evidenceValues, Method method) {
+            int n = net.getVariableCount();
+            this.method = method;
+            this.queryVar = queryVar;
+            this.cardinalities = net.cardinalities();
+            this.initialState = new int[n];
+            BitSet evidence = new BitSet(n);
+            for (int i = evidenceVars.length - 1; i >= 0; i--) {
+                evidence.set(evidenceVars[i]);
+                initialState[evidenceVars[i]] = evidenceValues[i];
+            }
+
+            // sample only the variables whose tables are requisite, in topological order
+            BitSet requisite = Inference.requisiteVariables(net, new int[] {queryVar}, evidenceVars);
+            int[] sampledVars = new int[requisite.cardinality()];
+            int[] weightedVars = new int[requisite.cardinality()];
+            int sampledCount = 0;
+            int weightedCount = 0;
+            for (int id : net.topologicalOrder()) {
+                if (requisite.get(id)) {
+                    if (evidence.get(id)) {
+                        weightedVars[weightedCount++] = id;
+                    } else {
+                        sampledVars[sampledCount++] = id;
+                    }
+                }
+            }
+            this.sampled = Arrays.copyOf(sampledVars, sampledCount);
+            this.weighted = Arrays.copyOf(weightedVars, weightedCount);
+
+            // the table of a variable holds one row per parent configuration, the last parent changing fastest
+            this.parents = new int[n][];
+            this.rowStrides = new int[n][];
+            this.cpts = new double[n][];
+            for (int id = requisite.nextSetBit(0); id >= 0; id = requisite.nextSetBit(id + 1)) {
+                parents[id] = net.parents(id);
+                rowStrides[id] = new int[parents[id].length];
+                int stride = cardinalities[id];
+                for (int j = parents[id].length - 1; j >= 0; j--) {
+                    rowStrides[id][j] = stride;
+                    stride *= cardinalities[parents[id][j]];
+                }
+                cpts[id] = net.cpt(id);
+            }
+
+            // the Markov blanket of a sampled variable is made of its parents, its requisite children and their
+            // parents, the tables of the other children do not depend on the query
+            this.blanketChildren = new int[n][];
+            this.childStrides = new int[n][];
+            if (method == Method.GIBBS) {
+                for (int id : sampled) {
+                    int[] children = new int[net.children(id).length];
+                    int[] strides = new int[children.length];
+                    int count = 0;
+                    for (int child : net.children(id)) {
+                        if (requisite.get(child)) {
+                            int j = 0;
+                            while (parents[child][j] != id) {
+                                j++;
+                            }
+                            children[count] = child;
+                            strides[count++] = rowStrides[child][j];
+                        }
+                    }
+                    blanketChildren[id] = Arrays.copyOf(children, count);
+                    childStrides[id] = Arrays.copyOf(strides, count);
+                }
+            }
+
+            int card = cardinalities[queryVar];
+            this.sums = new DoubleAdder[card];
+            this.squares = new DoubleAdder[card];
+            for (int k = 0; k < card; k++) {
+                sums[k] = new DoubleAdder();
+                squares[k] = new DoubleAdder();
+            }
+        }
+
+        /**
+         * method to get the offset of the row of a variable's table for the current values of its parents
+         * @param id id of the variable
+         * @param state current value of every variable
+         * @return offset of the row
+         */
+        private int row(int id, int[] state) {
+            int[] parentIds = parents[id];
+            int[] strides = rowStrides[id];
+            int offset = 0;
+            for (int j = 0; j < parentIds.length; j++) {
+                offset += state[parentIds[j]] * strides[j];
+            }
+            return offset;
+        }
+
+        /**
+         * method to draw a value from a row of a table
+         * @param table probability table
+         * @param offset offset of the row
+         * @param card no of outcomes of the variable
+         * @param u uniform number in [0, total of the row)
+         * @return drawn outcome index
+         */
+        private static int draw(double[] table, int offset, int card, double u) {
+            int last = 0;
+            for (int k = 0; k < card; k++) {
+                double p = table[offset + k];
+                if (u < p) {
+                    return k;
+                }
+                u -= p;
+                if (p > 0) {
+                    last = k;
+                }
+            }
+            //rounding left u just above the total, take the last value that is possible
+            return last;
+        }
+
+        /**
+         * method to draw one forward sample with the evidence fixed
+         * @param rng random stream of the worker
+         * @param state values of the variables, the sampled variables are overwritten
+         * @return weight of the sample, the probability of the evidence given its parents
+         */
+        private double forwardSample(SplittableRandom rng, int[] state) {
+            for (int id : sampled) {
+                state[id] = draw(cpts[id], row(id, state), cardinalities[id], rng.nextDouble());
+            }
+            double weight = 1;
+            for (int id : weighted) {
+                weight *= cpts[id][row(id, state) + state[id]];
+            }
+            return weight;
+        }
+
+        /**
+         * method to draw likelihood weighted samples until the share of the budget is drawn or the run is stopped
+         * @param rng random stream of the worker
+         * @param share number of samples of the worker
+         */
+        void sampleWeighted(SplittableRandom rng, long share) {
+            int card = cardinalities[queryVar];
+            int[] state = initialState.clone();
+            double[] weights = new double[card];
+            double[] squaredWeights = new double[card];
+            long drawn = 0;
+            while (drawn < share && !stop) {
+                int batch = (int) Math.min(WEIGHTING_BATCH, share - drawn);
+                for (int i = 0; i < batch; i++) {
+                    double weight = forwardSample(rng, state);
+                    weights[state[queryVar]] += weight;
+                    squaredWeights[state[queryVar]] += weight * weight;
+                }
+                drawn += batch;
+                for (int k = 0; k < card; k++) {
+                    sums[k].add(weights[k]);
+                    squares[k].add(squaredWeights[k]);
+                    weights[k] = 0;
+                    squaredWeights[k] = 0;
+                }
+                samples.add(batch);
+            }
+        }
+
+        /**
+         * method to run one Gibbs chain until the share of the budget is counted or the run is stopped
+         * the chain starts from a forward sample that is consistent with the evidence when one is found. Tables with
+         * zeros can split the states into parts the chain cannot move between, the estimate is then biased
+         * towards the part the chain started in.
+         * @param rng random stream of the worker
+         * @param share number of sweeps counted by the worker
+         * @param burnIn sweeps run before counting
+         * @param batchLength sweeps in one batch mean
+         */
+        void sampleGibbs(SplittableRandom rng, long share, int burnIn, int batchLength) {
+            int card = cardinalities[queryVar];
+            int[] state = initialState.clone();
+            for (int i = 0; i < INITIAL_STATE_TRIES && forwardSample(rng, state) == 0; i++) {
+                //try another start
+            }
+            int maxCard = 1;
+            int maxChildren = 0;
+            for (int id : sampled) {
+                maxCard = Math.max(maxCard, cardinalities[id]);
+                maxChildren = Math.max(maxChildren, blanketChildren[id].length);
+            }
+            double[] conditional = new double[maxCard];
+            int[] childCells = new int[maxChildren];
+            for (int i = 0; i < burnIn && !stop; i++) {
+                sweep(rng, state, conditional, childCells);
+            }
+
+            long[] counts = new long[card];
+            long counted = 0;
+            while (counted + batchLength <= share && !stop) {
+                for (int i = 0; i < batchLength; i++) {
+                    sweep(rng, state, conditional, childCells);
+                    counts[state[queryVar]]++;
+                }
+                counted += batchLength;
+                for (int k = 0; k < card; k++) {
+                    double mean = counts[k] / (double) batchLength;
+                    sums[k].add(mean);
+                    squares[k].add(mean * mean);
+                    counts[k] = 0;
+                }
+                batches.increment();
+                samples.add(batchLength);
+            }
+        }
+
+        /**
+         * method to resample every sampled variable once from its distribution given its Markov blanket
+         * @param rng random stream of the worker
+         * @param state values of the variables
+         * @param conditional buffer for the distribution of one variable
+         * @param childCells buffer for the cells of the tables of the children
+         */
+        private void sweep(SplittableRandom rng, int[] state, double[] conditional, int[] childCells) {
+            for (int id : sampled) {
+                int card = cardinalities[id];
+                int offset = row(id, state);
+                int[] children = blanketChildren[id];
+                int[] strides = childStrides[id];
+                for (int c = 0; c < children.length; c++) {
+                    //cell of the child's table with the variable set to 0, each value k is k strides further
+                    childCells[c] = row(children[c], state) - state[id] * strides[c] + state[children[c]];
+                }
+                double total = 0;
+                for (int k = 0; k < card; k++) {
+                    double p = cpts[id][offset + k];
+                    for (int c = 0; c < children.length && p > 0; c++) {
+                        p *= cpts[children[c]][childCells[c] + k * strides[c]];
+                    }
+                    conditional[k] = p;
+                    total += p;
+                }
+                //a variable whose blanket gives every value probability 0 keeps its value
+                if (total > 0) {
+                    state[id] = draw(conditional, 0, card, rng.nextDouble() * total);
+                }
+            }
+        }
+
+        /**
+         * method to compute the running estimate from the totals added so far
+         * @param z quantile of the standard normal distribution for the confidence level
+         * @param confidenceLevel confidence level of the intervals
+         * @return running estimate
+         */
+        Estimate estimate(double z, double confidenceLevel) {
+            int card = sums.length;
+            double[] probabilities = new double[card];
+            double[] halfWidths = new double[card];
+            double[] sum = new double[card];
+            double[] square = new double[card];
+            double total = 0;
+            double totalSquare = 0;
+            for (int k = 0; k < card; k++) {
+                sum[k] = sums[k].sum();
+                square[k] = squares[k].sum();
+                total += sum[k];
+                totalSquare += square[k];
+            }
+            if (method == Method.GIBBS) {
+                // batch means are close to independent, their spread gives the variance of the estimate
+                long count = batches.sum();
+                for (int k = 0; k < card; k++) {
+                    probabilities[k] = sum[k] / count;
+                    double variance = (square[k] - count * probabilities[k] * probabilities[k]) / (count - 1);
+                    halfWidths[k] = count < 2 ? Double.NaN : z * Math.sqrt(Math.max(0, variance) / count);
+                }
+            } else {
+                // variance of the ratio estimator sum(w * [x = k]) / sum(w) by the delta method
+                for (int k = 0; k < card; k++) {
+                    double p = sum[k] / total;
+                    double variance = (square[k] * (1 - 2 * p) + p * p * totalSquare) / (total * total);
+                    probabilities[k] = p;
+                    halfWidths[k] = z * Math.sqrt(Math.max(0, variance));
+                }
+            }
+            return new Estimate(method, probabilities, halfWidths, confidenceLevel, samples.sum(),
+                                System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * method to compute a quantile of the standard normal distribution (Acklam's rational approximation, relative
+     * error below 1.2e-9)
+     * @param p probability between 0 and 1
+     * @return value below which the standard normal distribution has probability p
+     */
+    static double normalQuantile(double p) {
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                            1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                            6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                            -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                            3.754408661907416e+00};
+        double low = 0.02425;
+        if (p < low) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                   / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - low) {
+            return -normalQuantile(1 - p);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+               / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public void setMethod(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * method to set the largest number of samples of a query
+     * @param sampleBudget number of samples (likelihood weighting) or counted sweeps (Gibbs sampling)
+     */
+    public void setSampleBudget(long sampleBudget) {
+        if (sampleBudget <= 0) {
+            throw new IllegalArgumentException("Sample budget must be positive: " + sampleBudget);
+        }
+        this.sampleBudget = sampleBudget;
+    }
+
+    public long getSampleBudget() {
+        return sampleBudget;
+    }
+
+    /**
+     * method to set the longest time a query samples for
+     * @param timeBudgetMillis time budget in milliseconds
+     */
+    public void setTimeBudget(long timeBudgetMillis) {
+        if (timeBudgetMillis <= 0) {
+            throw new IllegalArgumentException("Time budget must be positive: " + timeBudgetMillis);
+        }
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    public long getTimeBudget() {
+        return timeBudgetMillis;
+    }
+
+    /**
+     * method to stop sampling once every interval of the running estimate is narrow enough
+     * the precision is checked each time the running estimate is reported
+     * @param targetHalfWidth largest half width of the intervals, 0 to use the budgets only
+     */
+    public void setTargetHalfWidth(double targetHalfWidth) {
+        if (!(targetHalfWidth >= 0)) {
+            throw new IllegalArgumentException("Target half width must not be negative: " + targetHalfWidth);
+        }
+        this.targetHalfWidth = targetHalfWidth;
+    }
+
+    /**
+     * method to set the confidence level of the intervals
+     * @param confidenceLevel level between 0 and 1 (e.g., 0.95)
+     */
+    public void setConfidenceLevel(double confidenceLevel) {
+        if (!(confidenceLevel > 0 && confidenceLevel < 1)) {
+            throw new IllegalArgumentException("Confidence level must be between 0 and 1: " + confidenceLevel);
+        }
+        this.confidenceLevel = confidenceLevel;
+    }
+
+    /**
+     * method to set the number of workers, each Gibbs worker runs its own chain
+     * @param threads number of worker threads
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * method to set the seed of the random streams
+     * with a seed, the same number of threads and a sample budget that is reached before the time budget, every
+     * worker draws the same samples each time, the estimate only differs by the rounding of the order in which the
+     * workers add their totals
+     * @param seed seed of the root random stream
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * method to set the sweeps of each Gibbs chain that are discarded and the sweeps averaged in one batch mean
+     * @param burnIn sweeps run before counting
+     * @param batchLength sweeps in one batch mean
+     */
+    public void setGibbsSweeps(int burnIn, int batchLength) {
+        if (burnIn < 0 || batchLength <= 0) {
+            throw new IllegalArgumentException("Invalid burn in " + burnIn + " or batch length " + batchLength);
+        }
+        this.burnIn = burnIn;
+        this.batchLength = batchLength;
+    }
+
+    /**
+     * method to receive the running estimate while a query samples
+     * @param listener called on the thread that asked the query, null for no reports
+     * @param intervalMillis time between two reports in milliseconds
+     */
+    public void setProgressListener(Consumer<Estimate> listener, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Report interval must be positive: " + intervalMillis);
+        }
+        this.listener = listener;
+        this.progressIntervalMillis = intervalMillis;
+    }
+}
@@ -1,106 +1,317 @@
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
- * This class parse XML file and generate the Bayesian Network 
+ * This class parse XML file and generate the Bayesian Network
+ * The file is read with a streaming (StAX) parser, so no document tree is built. The numbers of each TABLE are
+ * decoded straight from the character buffers of the parser into a double array, separated by any whitespace.
  * @author 220031271
  */
 public class BNParser {
 
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
+    //powers of ten that are exact doubles, used by the fast path of the number decoder
+    private static final double[] EXACT_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * definition of a variable, kept until all the variables are known
+     */
+    private static class Definition {
+        String variable;
+        ArrayList<String> parents = new ArrayList<>();
+        double[] table;
+    }
+
     /**
-     * This method parse XML file and generate the Bayesian Network 
+     * This method parse XML file and generate the Bayesian Network
      *
      * @param xmlFile XML File.
      * @return BayesianNetwork object generated from the XML file.
      */
     public static BayesianNetwork readBNFromFile(File xmlFile) {
+        return readBNFromFile(xmlFile, null);
+    }
 
-        BayesianNetwork bayesianNetwork = new BayesianNetwork();
+    /**
+     * This method parse XML file and generate the Bayesian Network, and records the parse throughput
+     *
+     * @param xmlFile XML File.
+     * @param statistics statistics to fill in, null if not needed
+     * @return BayesianNetwork object generated from the XML file.
+     */
+    public static BayesianNetwork readBNFromFile(File xmlFile, ParseStatistics statistics) {
 
-        try {
+        BayesianNetwork bayesianNetwork = null;
 
-            // Parse the XML file
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-            Document xmlFileDoc = documentBuilder.parse(xmlFile);
-            xmlFileDoc.getDocumentElement().normalize();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFile), INPUT_BUFFER_SIZE)) {
+            long start = System.nanoTime();
+            bayesianNetwork = parse(in);
+            if (statistics != null) {
+                long tableEntries = 0;
+                for (int id = 0; id < bayesianNetwork.getVariableCount(); id++) {
+                    tableEntries += bayesianNetwork.getCompiled().cpt(id).length;
+                }
+                statistics.record(xmlFile.length(), bayesianNetwork.getVariableCount(), tableEntries,
+                                  System.nanoTime() - start);
+            }
 
-            // Get variables and the probability definitions.
-            NodeList xmlFileVariables = xmlFileDoc.getElementsByTagName("VARIABLE");
-            NodeList xmlFileDefinitions = xmlFileDoc.getElementsByTagName("DEFINITION");
+        } catch (Exception e) {
+            System.out.println("Exception while reading the file");
+            System.exit(-1);
+        }
 
-            //Initialize graph 
-            Graph graph = new Graph(xmlFileVariables.getLength());
+        return bayesianNetwork;
 
-            // iterate and retrieve variable name and outcomes from the file
-            for (int i = 0; i < xmlFileVariables.getLength(); i++) {
-                Node currNode = xmlFileVariables.item(i);
+    }
 
-                if (currNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element element = (Element) currNode;
+    /**
+     * This method parse an XMLBIF stream and generate the Bayesian Network
+     *
+     * @param in XML input stream, not closed.
+     * @return BayesianNetwork object generated from the stream.
+     * @throws XMLStreamException if the XML is not well formed or a table holds something other than numbers
+     */
+    public static BayesianNetwork parse(InputStream in) throws XMLStreamException {
 
-                    // Get variable name
-                    String varName = element.getElementsByTagName("NAME").item(0).getTextContent();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
 
-                    // Get variable outcomes
+        BayesianNetwork bayesianNetwork = new BayesianNetwork();
+        ArrayList<Definition> definitions = new ArrayList<>();
+        int variableCount = 0;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String element = reader.getLocalName();
+                if (element.equals("VARIABLE")) {
+                    // Create variable object with its name and outcomes and add to the Bayesian Network
+                    String varName = null;
                     ArrayList<String> varOutcomes = new ArrayList<>();
-                    NodeList outcomes = element.getElementsByTagName("OUTCOME");
-                    for (int j = 0; j < outcomes.getLength(); j++) {
-                        varOutcomes.add(outcomes.item(j).getTextContent());
+                    while (nextChild(reader)) {
+                        String child = reader.getLocalName();
+                        if (child.equals("NAME")) {
+                            varName = reader.getElementText().trim();
+                        } else if (child.equals("OUTCOME")) {
+                            varOutcomes.add(reader.getElementText().trim());
+                        } else {
+                            skipElement(reader);
+                        }
                     }
-
-                    // Create variable object and add to the Bayesian Network 
-                    bayesianNetwork.addNode(varName, varOutcomes, i);
+                    bayesianNetwork.addNode(varName, varOutcomes, variableCount++);
+                } else if (element.equals("DEFINITION")) {
+                    // Get the variable, its parents and the probability table
+                    Definition def = new Definition();
+                    while (nextChild(reader)) {
+                        String child = reader.getLocalName();
+                        if (child.equals("FOR")) {
+                            def.variable = reader.getElementText().trim();
+                        } else if (child.equals("GIVEN")) {
+                            def.parents.add(reader.getElementText().trim());
+                        } else if (child.equals("TABLE")) {
+                            def.table = readTable(reader);
+                        } else {
+                            skipElement(reader);
+                        }
+                    }
+                    definitions.add(def);
                 }
             }
+        } finally {
+            reader.close();
+        }
 
-            // iterate and retrieve parent variables and probability defenitions from the file
-            for (int i = 0; i < xmlFileDefinitions.getLength(); i++){
-
-                Node def = xmlFileDefinitions.item(i);
-
-                if (def.getNodeType() == Node.ELEMENT_NODE) {
-
-                    Element defElement = (Element) def;
-
-                    String varString = defElement.getElementsByTagName("FOR").item(0).getTextContent();
-                    BNVariable variable = bayesianNetwork.getVariable(varString);
+        //Initialize graph, the definitions are resolved once all the variables are known
+        Graph graph = new Graph(variableCount);
+        for (Definition def : definitions) {
+            BNVariable variable = bayesianNetwork.getVariable(def.variable);
+            variable.setProbabilityValues(def.table);
+            for (String parentStr : def.parents) {
+                variable.addParent(parentStr);
+                BNVariable currGivenVar = bayesianNetwork.getVariable(parentStr);
+                graph.addEdge(currGivenVar.getIndex(), variable.getIndex());
+            }
+        }
+        bayesianNetwork.setGraph(graph);
+        bayesianNetwork.compile();
 
-                    String probTableStr = defElement.getElementsByTagName("TABLE").item(0).getTextContent();
-                    ArrayList<String> probTable = new ArrayList<>(Arrays.asList(probTableStr.split(" ")));
-                    variable.setProbTable(probTable);
+        return bayesianNetwork;
+    }
 
-                    // Get parent variables
-                    NodeList parentList = defElement.getElementsByTagName("GIVEN");                    
+    /**
+     * method to move to the next child element of the current element
+     * @param reader XML reader positioned inside the element
+     * @return true if the reader is on the start of a child, false at the end of the element
+     * @throws XMLStreamException if the XML is not well formed
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
 
-                    for (int j = 0; j < parentList.getLength(); j++) {
+    /**
+     * method to skip the current element with all its children
+     * @param reader XML reader positioned on the start of the element
+     * @throws XMLStreamException if the XML is not well formed
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
 
-                        String parentStr = parentList.item(j).getTextContent();
-                        variable.addParent(parentStr);
-                        BNVariable currGivenVar = bayesianNetwork.getVariable(parentStr);
-                        int givenVarIndex = currGivenVar.getIndex();
-                        graph.addEdge(givenVarIndex, i);
+    /**
+     * method to decode the numbers of a TABLE element
+     * the text can arrive in several chunks and a number can be split between two chunks, so the characters of
+     * the current number are collected in a small buffer until whitespace or the end of the element
+     * @param reader XML reader positioned on the start of the TABLE element
+     * @return numbers of the table
+     * @throws XMLStreamException if the table holds something other than numbers
+     */
+    private static double[] readTable(XMLStreamReader reader) throws XMLStreamException {
+        double[] values = new double[16];
+        int count = 0;
+        char[] token = new char[32];
+        int tokenLength = 0;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event != XMLStreamConstants.CHARACTERS && event != XMLStreamConstants.CDATA
+                && event != XMLStreamConstants.SPACE) {
+                continue;
+            }
+            char[] text = reader.getTextCharacters();
+            int end = reader.getTextStart() + reader.getTextLength();
+            for (int i = reader.getTextStart(); i < end; i++) {
+                char c = text[i];
+                if (Character.isWhitespace(c)) {
+                    if (tokenLength > 0) {
+                        if (count == values.length) {
+                            values = Arrays.copyOf(values, count * 2);
+                        }
+                        values[count++] = parseNumber(token, tokenLength);
+                        tokenLength = 0;
                     }
-
+                } else {
+                    if (tokenLength == token.length) {
+                        token = Arrays.copyOf(token, tokenLength * 2);
+                    }
+                    token[tokenLength++] = c;
                 }
-
             }
-            bayesianNetwork.setGraph(graph);
+        }
+        if (tokenLength > 0) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count + 1);
+            }
+            values[count++] = parseNumber(token, tokenLength);
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
 
-        } catch (Exception e) { 
-            System.out.println("Exception while reading the file");
-            System.exit(-1);
+    /**
+     * method to decode a number
+     * numbers with at most 15 significant digits whose decimal scale (exponent minus the digits after the point)
+     * is within the exact powers of ten are decoded without allocation, as an exact integer multiplied or divided by
+     * an exact power of ten. One correctly rounded operation gives the same double as Double.parseDouble. Other
+     * numbers are passed to Double.parseDouble.
+     * @param chars characters of the number
+     * @param length number of characters
+     * @return decoded number
+     * @throws XMLStreamException if the characters are not a number
+     */
+    static double parseNumber(char[] chars, int length) throws XMLStreamException {
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        boolean sawDigit = false;
+        int i = 0;
+        boolean negative = chars[0] == '-';
+        if (negative || chars[0] == '+') {
+            i++;
+        }
+        boolean fast = true;
+        for (; i < length && fast; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (point) {
+                    fractionDigits++;
+                }
+                fast = digits <= 15;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
         }
 
-        return bayesianNetwork;
+        // optional exponent
+        int exponent = 0;
+        if (fast && sawDigit && i < length && (chars[i] == 'e' || chars[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < length && chars[i] == '-';
+            if (i < length && (chars[i] == '-' || chars[i] == '+')) {
+                i++;
+            }
+            fast = i < length;
+            for (; i < length && fast; i++) {
+                char c = chars[i];
+                fast = c >= '0' && c <= '9' && exponent < 1000;
+                exponent = exponent * 10 + (c - '0');
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
 
-    } 
+        int scale = exponent - fractionDigits;
+        if (fast && sawDigit && i == length && Math.abs(scale) < EXACT_POWERS_OF_TEN.length) {
+            double value = scale >= 0 ? mantissa * EXACT_POWERS_OF_TEN[scale]
+                                      : mantissa / EXACT_POWERS_OF_TEN[-scale];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(chars, 0, length));
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid number in TABLE: " + new String(chars, 0, length));
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -1,3 +1,4 @@
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 
 /**
@@ -10,17 +11,39 @@ public class BNVariable {
     private String name; // variable name
     private ArrayList<String> outcomes; // variable outcomes
     private ArrayList<String> probTable; // list of probability distribution in string
-    private ArrayList<Double> probabilities; // list of probability distributions    
+    private double[] probabilityValues; // probability distributions, parents first and the variable changing fastest
     private int index; // index of the variable
     private ArrayList<String> parents; // list of parents
 
 
+    /**
+     * method to get the probability distributions as a list
+     * @return boxed copy of the probability values, null if not set
+     */
     public ArrayList<Double> getProbabilities() {
+        if (probabilityValues == null) {
+            return null;
+        }
+        ArrayList<Double> probabilities = new ArrayList<>(probabilityValues.length);
+        for (double value : probabilityValues) {
+            probabilities.add(value);
+        }
         return probabilities;
     }
 
     public void setProbabilities(ArrayList<Double> probabilities) {
-        this.probabilities = probabilities;
+        this.probabilityValues = new double[probabilities.size()];
+        for (int i = 0; i < probabilityValues.length; i++) {
+            probabilityValues[i] = probabilities.get(i);
+        }
+    }
+
+    public double[] getProbabilityValues() {
+        return probabilityValues;
+    }
+
+    public void setProbabilityValues(double[] probabilityValues) {
+        this.probabilityValues = probabilityValues;
     }
 
     public BNVariable(String name, ArrayList<String> outcomes, int index) {
@@ -39,9 +62,7 @@ public class BNVariable {
         this.outcomes = outcomes;
         this.index = index;
         this.parents = parents;
-        this.probTable = probTable;
-        this.probabilities = new ArrayList<>();
-        this.probTable.stream().forEach(str -> this.probabilities.add(Double.parseDouble(str)));
+        setProbTable(probTable);
     } 
 
     /**
@@ -57,25 +78,32 @@ public class BNVariable {
      * @param isValid true if valid or false if invalid
      */
     public boolean validateProbabilty(){
-        boolean isValid = true;
+        return validateProbabilities(DoubleBuffer.wrap(this.probabilityValues), this.getNoOfOutcomes());
+    }
+
+    /**
+     * method to validate a probability table without a variable object, e.g. a table of a compiled network
+     * @param values probability table, parents first and the variable changing fastest
+     * @param noOfOutcomes no of outcomes of the variable
+     * @return true if valid or false if invalid
+     */
+    static boolean validateProbabilities(DoubleBuffer values, int noOfOutcomes){
         // each set of outcomes for a given parent value appears adjacent to each other. Getting each set of probabilities and validating
-        for(int i=0; i<=this.probabilities.size()-this.getNoOfOutcomes(); i=i+this.getNoOfOutcomes()){
-            Double sum = 0.0;
-            for(int j=0; j<this.getNoOfOutcomes(); j++){
+        for(int i=0; i<=values.limit()-noOfOutcomes; i=i+noOfOutcomes){
+            double sum = 0.0;
+            for(int j=0; j<noOfOutcomes; j++){
                 //return false if value is not within 0 to 1
-                if(!(this.probabilities.get(i+j) >= 0 && this.probabilities.get(i+j) <= 1)){
-                    isValid = false;
-                    break;
+                if(!(values.get(i+j) >= 0 && values.get(i+j) <= 1)){
+                    return false;
                 } 
-                sum+=this.probabilities.get(i+j);
+                sum+=values.get(i+j);
             }  
             //return false if sum is not 1
             if(sum!=1){
-                isValid = false;
-                break;
+                return false;
             }       
         }
-        return isValid;
+        return true;
     }
 
    // Getters and setters methods
@@ -127,8 +155,10 @@ public class BNVariable {
     
     public void setProbTable(ArrayList<String> probTable) {
         this.probTable = probTable;
-        this.probabilities = new ArrayList<>();
-        probTable.stream().forEach(str -> probabilities.add(Double.parseDouble(str)));
+        this.probabilityValues = new double[probTable.size()];
+        for (int i = 0; i < probabilityValues.length; i++) {
+            probabilityValues[i] = Double.parseDouble(probTable.get(i));
+        }
     }
 
     public int getNoOfOutcomes(){
@@ -1,3 +1,4 @@
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -12,10 +13,76 @@ public class BayesianNetwork {
     private final HashMap<String, BNVariable> nodeList; 
     private Graph graph;
 
+    //variables indexed by the dense variable id (index of the variable) and the immutable snapshot used for
+    //inference, both built by compile()
+    private volatile BNVariable[] variablesById;
+    private volatile CompiledNetwork compiled;
+
     public BayesianNetwork() {
         nodeList = new HashMap<>();
     }
+
+    /**
+     * constructor for a network loaded as a compiled snapshot (e.g. from a network file)
+     * the variable objects are only created if they are asked for, queries run on the snapshot directly
+     * @param compiled compiled network
+     */
+    public BayesianNetwork(CompiledNetwork compiled) {
+        nodeList = new HashMap<>();
+        this.compiled = compiled;
+        int[][] parents = new int[compiled.getVariableCount()][];
+        for (int id = 0; id < parents.length; id++) {
+            parents[id] = compiled.parents(id);
+        }
+        this.graph = Graph.fromParents(parents);
+    }
+
+    /**
+     * method to create all the variable objects of a network that was loaded as a compiled snapshot, the ones
+     * already created by loadVariable are kept
+     */
+    private synchronized void loadVariables() {
+        CompiledNetwork snapshot = compiled;
+        if (variablesById != null || snapshot == null) {
+            return;
+        }
+        BNVariable[] byId = new BNVariable[snapshot.getVariableCount()];
+        for (int id = 0; id < byId.length; id++) {
+            byId[id] = loadVariable(snapshot, id);
+        }
+        this.variablesById = byId;
+    }
+
+    /**
+     * method to get one variable object of a network that was loaded as a compiled snapshot, only its own
+     * probability table is copied out of the snapshot
+     * @param snapshot compiled network
+     * @param id id of the variable
+     * @return variable object
+     */
+    private synchronized BNVariable loadVariable(CompiledNetwork snapshot, int id) {
+        String name = snapshot.getVariableName(id);
+        BNVariable var = nodeList.get(name);
+        if (var == null) {
+            var = new BNVariable(name, new ArrayList<>(snapshot.getOutcomes(id)), id);
+            for (int parent : snapshot.parents(id)) {
+                var.addParent(snapshot.getVariableName(parent));
+            }
+            var.setProbabilityValues(snapshot.cpt(id).clone());
+            nodeList.put(name, var);
+        }
+        return var;
+    }
     
+    /**
+     * Get a variable object only if it was already created
+     * @param name name of the variable
+     * @return variable object, null if not created
+     */
+    private synchronized BNVariable getLoadedVariable(String name) {
+        return nodeList.get(name);
+    }
+
     public Graph getGraph() {
         return graph;
     }
@@ -33,7 +100,9 @@ public class BayesianNetwork {
      * @param index index of the variable
      */
     public void addNode(String name, ArrayList<String> outcomes, int index) {
+        loadVariables();
         this.nodeList.put(name, new BNVariable(name, outcomes, index));
+        this.compiled = null;
     } 
 
     
@@ -47,7 +116,9 @@ public class BayesianNetwork {
      */
     public void addNode(String name, ArrayList<String> outcomes, int index, ArrayList<String> parents,
                             ArrayList<String> probTable) {
+        loadVariables();
         this.nodeList.put(name, new BNVariable(name, outcomes, index, parents, probTable));
+        this.compiled = null;
     } 
 
     /**
@@ -56,6 +127,11 @@ public class BayesianNetwork {
      * @return variable object, null if not exist
      */
     public BNVariable getVariable(String name) {
+        CompiledNetwork snapshot = compiled;
+        if (variablesById == null && snapshot != null) {
+            int id = snapshot.getVariableId(name);
+            return id < 0 ? null : loadVariable(snapshot, id);
+        }
         return nodeList.get(name);
     } 
 
@@ -64,6 +140,14 @@ public class BayesianNetwork {
      * @return Hash set of variable names
      */
     public HashSet<String> getVariableNames() {
+        CompiledNetwork snapshot = compiled;
+        if (variablesById == null && snapshot != null) {
+            HashSet<String> names = new HashSet<>();
+            for (int id = 0; id < snapshot.getVariableCount(); id++) {
+                names.add(snapshot.getVariableName(id));
+            }
+            return names;
+        }
         return new HashSet<>(nodeList.keySet());
     } 
 
@@ -72,6 +156,7 @@ public class BayesianNetwork {
      * @return Hash set of variable objects
      */
     public HashSet<BNVariable> getVariables() {
+        loadVariables();
         return new HashSet<>(nodeList.values());
     }
 
@@ -81,12 +166,131 @@ public class BayesianNetwork {
      * @return variable object, null if not exist
      */
     public BNVariable getVariableByIndex(int index) {
+        CompiledNetwork snapshot = getCompiled();
+        if (index < 0 || index >= snapshot.getVariableCount()) {
+            return null;
+        }
+        BNVariable[] byId = variablesById;
+        return byId != null ? byId[index] : loadVariable(snapshot, index);
+    }
+
+    /**
+     * method to compile the network into an immutable snapshot indexed by the dense variable id
+     * variable indexes must be 0..n-1, parents and probability tables must be set before calling this method.
+     * The network has to be compiled again after it is changed through the variable objects.
+     */
+    public synchronized void compile() {
+        loadVariables();
+        CompiledNetwork snapshot = new CompiledNetwork(this);
+        BNVariable[] byId = new BNVariable[snapshot.getVariableCount()];
         for (BNVariable var : nodeList.values()) {
-            if(index == var.getIndex()){
-                return var;
+            byId[var.getIndex()] = var;
+        }
+        this.variablesById = byId;
+        this.compiled = snapshot;
+    }
+
+    /**
+     * method to get the immutable snapshot of the network used for inference, the network is compiled if needed
+     * @return compiled network
+     */
+    public CompiledNetwork getCompiled() {
+        CompiledNetwork snapshot = compiled;
+        if (snapshot == null) {
+            synchronized (this) {
+                if (compiled == null) {
+                    compile();
+                }
+                snapshot = compiled;
             }
-        } 
-        return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * method to get the number of variables in the network
+     * @return number of variables
+     */
+    public int getVariableCount() {
+        CompiledNetwork snapshot = compiled;
+        return snapshot != null ? snapshot.getVariableCount() : nodeList.size();
+    }
+
+    /**
+     * Get the dense id of a variable
+     * @param name name of the variable
+     * @return id of the variable, -1 if not exist
+     */
+    public int getVariableId(String name) {
+        CompiledNetwork snapshot = compiled;
+        if (snapshot != null) {
+            return snapshot.getVariableId(name);
+        }
+        BNVariable var = nodeList.get(name);
+        return var == null ? -1 : var.getIndex();
+    }
+
+    /**
+     * Get the name of a variable by id
+     * @param id id of the variable
+     * @return name of the variable
+     */
+    public String getVariableName(int id) {
+        return getCompiled().getVariableName(id);
+    }
+
+    /**
+     * Get no of outcomes of a variable by id
+     * @param id id of the variable
+     * @return no of outcomes
+     */
+    public int getCardinality(int id) {
+        return getCompiled().getCardinality(id);
+    }
+
+    /**
+     * Get no of outcomes of all the variables
+     * @return cardinalities indexed by id
+     */
+    public int[] getCardinalities() {
+        return getCompiled().getCardinalities();
+    }
+
+    /**
+     * Get ids of the parents of a variable, in the order of the probability table
+     * @param id id of the variable
+     * @return parent ids
+     */
+    public int[] getParentIds(int id) {
+        return getCompiled().getParentIds(id);
+    }
+
+    /**
+     * Get ids of the children of a variable
+     * @param id id of the variable
+     * @return child ids
+     */
+    public int[] getChildIds(int id) {
+        return getCompiled().getChildIds(id);
+    }
+
+    /**
+     * Get the probability table of a variable by id
+     * @param id id of the variable
+     * @return read-only view of the probability table
+     */
+    public DoubleBuffer getCpt(int id) {
+        return getCompiled().getCpt(id);
+    }
+
+    /**
+     * Get index of an outcome of a variable by id
+     * @param id id of the variable
+     * @param value outcome
+     * @return index of the outcome, -1 if not exist
+     */
+    public int getOutcomeIndex(int id, String value) {
+        return getCompiled().getOutcomeIndex(id, value);
     }
 
     /**
@@ -95,6 +299,19 @@ public class BayesianNetwork {
      */
     public ArrayList<String> validateProbabilities(){
         ArrayList<String> invalidVariables = new ArrayList<>();
+        CompiledNetwork snapshot = compiled;
+        if (variablesById == null && snapshot != null) {
+            //validate the tables of the snapshot in place, or the variable object if one was created
+            for (int id = 0; id < snapshot.getVariableCount(); id++) {
+                BNVariable var = getLoadedVariable(snapshot.getVariableName(id));
+                boolean valid = var != null ? var.validateProbabilty()
+                                : BNVariable.validateProbabilities(snapshot.getCpt(id), snapshot.getCardinality(id));
+                if (!valid) {
+                    invalidVariables.add(snapshot.getVariableName(id));
+                }
+            }
+            return invalidVariables;
+        }
         for (BNVariable var : nodeList.values()) {
             if(!var.validateProbabilty()){
                 invalidVariables.add(var.getName());
@@ -0,0 +1,302 @@
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class that stores an immutable snapshot of a Bayesian Network indexed by the dense variable id
+ * The snapshot copies the names, outcomes, parents and probability tables when it is created, so later changes to
+ * the network do not affect it. Nothing in the snapshot changes after construction and the probability tables are
+ * only handed out as read-only views, so one snapshot can be shared by any number of threads without locks.
+ * A snapshot loaded from a network file (NetworkFile) keeps its probability tables in the memory mapped file.
+ * getCpt then reads the mapping without copying, and a table is only copied to the heap the first time the
+ * inference kernels (which work on double arrays) use it.
+ * @author 220031271
+ */
+public final class CompiledNetwork {
+
+    private final String[] names;
+    private final HashMap<String, Integer> ids;
+    private final String[][] outcomes;
+    private final int[] cardinalities;
+    private final int[][] parents;
+    private final int[][] children;
+    private final double[][] cpts;                          //tables on the heap, null for a mapped snapshot
+    private final DoubleBuffer[] mappedCpts;                //tables in the mapped file, null for a heap snapshot
+    private final AtomicReferenceArray<double[]> copiedCpts;  //heap copies of the mapped tables used so far
+    private final AtomicReferenceArray<double[]> logCpts;     //natural logs of the tables used in log space so far
+    private final int[] topologicalOrder;
+
+    /**
+     * constructor to take a snapshot of a network
+     * variable indexes must be 0..n-1, parents and probability tables must be set
+     * @param bn Bayesian Network object
+     */
+    public CompiledNetwork(BayesianNetwork bn) {
+        int n = bn.getVariableNames().size();
+        BNVariable[] byId = new BNVariable[n];
+        for (BNVariable var : bn.getVariables()) {
+            int id = var.getIndex();
+            if (id < 0 || id >= n || byId[id] != null) {
+                throw new IllegalStateException("Variable indexes are not dense: " + var.getName() + " has index " + id);
+            }
+            byId[id] = var;
+        }
+
+        this.names = new String[n];
+        this.ids = new HashMap<>();
+        this.outcomes = new String[n][];
+        this.cardinalities = new int[n];
+        this.parents = new int[n][];
+        this.cpts = new double[n][];
+        this.mappedCpts = null;
+        this.copiedCpts = null;
+        this.logCpts = new AtomicReferenceArray<>(n);
+        for (int id = 0; id < n; id++) {
+            BNVariable var = byId[id];
+            names[id] = var.getName();
+            ids.put(var.getName(), id);
+            outcomes[id] = var.getOutcomes().toArray(new String[0]);
+            cardinalities[id] = outcomes[id].length;
+        }
+        for (int id = 0; id < n; id++) {
+            BNVariable var = byId[id];
+            ArrayList<String> parentNames = var.getParents();
+            parents[id] = new int[parentNames.size()];
+            for (int j = 0; j < parents[id].length; j++) {
+                parents[id][j] = ids.get(parentNames.get(j));
+            }
+            double[] probabilities = var.getProbabilityValues();
+            cpts[id] = probabilities == null ? new double[0] : probabilities.clone();
+        }
+        this.children = children(parents);
+        this.topologicalOrder = topologicalSort(children);
+    }
+
+    /**
+     * constructor for a snapshot whose probability tables are in a mapped network file
+     * @param names name of each variable
+     * @param outcomes outcomes of each variable
+     * @param parents parent ids of each variable, in the order of the probability table
+     * @param mappedCpts read-only views of the probability tables
+     */
+    CompiledNetwork(String[] names, String[][] outcomes, int[][] parents, DoubleBuffer[] mappedCpts) {
+        int n = names.length;
+        this.names = names;
+        this.ids = new HashMap<>(n * 2);
+        this.outcomes = outcomes;
+        this.cardinalities = new int[n];
+        this.parents = parents;
+        this.cpts = null;
+        this.mappedCpts = mappedCpts;
+        this.copiedCpts = new AtomicReferenceArray<>(n);
+        this.logCpts = new AtomicReferenceArray<>(n);
+        for (int id = 0; id < n; id++) {
+            ids.put(names[id], id);
+            cardinalities[id] = outcomes[id].length;
+        }
+        this.children = children(parents);
+        this.topologicalOrder = topologicalSort(children);
+    }
+
+    /**
+     * method to collect the children of every variable from the parent lists
+     * @param parents parent ids of each variable
+     * @return child ids of each variable, in increasing id order
+     */
+    private static int[][] children(int[][] parents) {
+        int n = parents.length;
+        int[] childCount = new int[n];
+        for (int[] parentList : parents) {
+            for (int parent : parentList) {
+                childCount[parent]++;
+            }
+        }
+        int[][] children = new int[n][];
+        for (int id = 0; id < n; id++) {
+            children[id] = new int[childCount[id]];
+            childCount[id] = 0;
+        }
+        for (int id = 0; id < n; id++) {
+            for (int parent : parents[id]) {
+                children[parent][childCount[parent]++] = id;
+            }
+        }
+        return children;
+    }
+
+    /**
+     * method to sort the variables in topological order
+     * roots are visited in id order and children in increasing id order, the same order as Graph.topologicalSort
+     * @param children child ids of each variable
+     * @return ids in topological order (variables on a cycle are left out)
+     */
+    private static int[] topologicalSort(int[][] children) {
+        int n = children.length;
+        int[] in = new int[n];
+        for (int[] childList : children) {
+            for (int child : childList) {
+                in[child]++;
+            }
+        }
+        Queue<Integer> q = new LinkedList<>();
+        for (int i = 0; i < n; i++) {
+            if (in[i] == 0) {
+                q.offer(i);
+            }
+        }
+        int[] sorted = new int[n];
+        int count = 0;
+        while (!q.isEmpty()) {
+            int node = q.poll();
+            sorted[count++] = node;
+            for (int child : children[node]) {
+                if (--in[child] == 0) {
+                    q.offer(child);
+                }
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * method to get the number of variables in the network
+     * @return number of variables
+     */
+    public int getVariableCount() {
+        return names.length;
+    }
+
+    /**
+     * Get the id of a variable
+     * @param name name of the variable
+     * @return id of the variable, -1 if not exist
+     */
+    public int getVariableId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String getVariableName(int id) {
+        return names[id];
+    }
+
+    public int getCardinality(int id) {
+        return cardinalities[id];
+    }
+
+    /**
+     * Get the outcomes of a variable
+     * @param id id of the variable
+     * @return read-only list of outcomes
+     */
+    public List<String> getOutcomes(int id) {
+        return Collections.unmodifiableList(Arrays.asList(outcomes[id]));
+    }
+
+    /**
+     * Get index of an outcome of a variable
+     * @param id id of the variable
+     * @param value outcome
+     * @return index of the outcome, -1 if not exist
+     */
+    public int getOutcomeIndex(int id, String value) {
+        String[] values = outcomes[id];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int[] getCardinalities() {
+        return cardinalities.clone();
+    }
+
+    public int[] getParentIds(int id) {
+        return parents[id].clone();
+    }
+
+    public int[] getChildIds(int id) {
+        return children[id].clone();
+    }
+
+    public int[] getTopologicalOrder() {
+        return topologicalOrder.clone();
+    }
+
+    /**
+     * Get the probability table of a variable
+     * @param id id of the variable
+     * @return read-only view of the table, parents first and the variable changing fastest
+     */
+    public DoubleBuffer getCpt(int id) {
+        if (cpts == null) {
+            return mappedCpts[id].duplicate();
+        }
+        return DoubleBuffer.wrap(cpts[id]).asReadOnlyBuffer();
+    }
+
+    /**
+     * method to check if the probability tables are read from a mapped network file
+     * @return true if the snapshot was loaded from a network file
+     */
+    public boolean isMapped() {
+        return cpts == null;
+    }
+
+    //accessors for the inference classes, the arrays are shared and must not be modified
+
+    int[] cardinalities() {
+        return cardinalities;
+    }
+
+    int[] parents(int id) {
+        return parents[id];
+    }
+
+    int[] children(int id) {
+        return children[id];
+    }
+
+    int[] topologicalOrder() {
+        return topologicalOrder;
+    }
+
+    double[] cpt(int id) {
+        if (cpts != null) {
+            return cpts[id];
+        }
+        double[] table = copiedCpts.get(id);
+        if (table == null) {
+            table = new double[mappedCpts[id].remaining()];
+            mappedCpts[id].duplicate().get(table);
+            if (!copiedCpts.compareAndSet(id, null, table)) {
+                table = copiedCpts.get(id);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * method to get the natural logs of a probability table, computed once when first used
+     * @param id id of the variable
+     * @return log of every value of the table (-Infinity for zeros)
+     */
+    double[] logCpt(int id) {
+        double[] table = logCpts.get(id);
+        if (table == null) {
+            table = Factor.toLog(cpt(id));
+            if (!logCpts.compareAndSet(id, null, table)) {
+                table = logCpts.get(id);
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Class that stores the predicted cost of a compiled query plan, computed from the scopes and cardinalities only
+ * so that an order whose tables cannot fit in memory is found before anything is allocated
+ * Every step of a plan joins its inputs into one table and sums one variable out of it. A cell of the joined table
+ * costs one multiplication per input after the first and one addition, and the output of every step is kept in its
+ * own buffer for the whole run, so the memory of a plan is the sum of its reduced tables and step outputs, and of
+ * their logs in log space. Sizes
+ * are doubles, as in EliminationOrder, so that they do not overflow for bad orders.
+ * @author 220031271
+ */
+public class CostEstimate {
+
+    static final double MAX_ARRAY_CELLS = Integer.MAX_VALUE - 8;   //largest array the JVM can allocate
+
+    private final double[] outputCells;     //cells of the output of each step
+    private final double[] joinedCells;     //cells of the joined table of each step
+    private final double tableCells;        //cells of the probability tables reduced to the evidence
+    private final double operations;        //multiplications and additions of all the steps
+    private final double largestFactorCells;
+
+    /**
+     * constructor
+     * @param outputCells cells of the output of each step
+     * @param joinedCells cells of the joined table of each step
+     * @param inputs no of joined factors of each step
+     * @param tableCells cells of the buffers of the reduced probability tables
+     */
+    CostEstimate(double[] outputCells, double[] joinedCells, int[] inputs, double tableCells) {
+        this.outputCells = outputCells;
+        this.joinedCells = joinedCells;
+        this.tableCells = tableCells;
+        double ops = 0;
+        double largest = 0;
+        for (int s = 0; s < outputCells.length; s++) {
+            ops += joinedCells[s] * Math.max(1, inputs[s]);
+            largest = Math.max(largest, outputCells[s]);
+        }
+        this.operations = ops;
+        this.largestFactorCells = largest;
+    }
+
+    /**
+     * method to check if the plan can run within a memory budget
+     * @param budgetBytes memory budget in bytes
+     * @param logSpace true if the plan runs in log space
+     * @return true if every table can be allocated and the buffers fit in the budget
+     */
+    public boolean fits(long budgetBytes, boolean logSpace) {
+        return isAllocatable() && getBytes(logSpace) <= budgetBytes;
+    }
+
+    /**
+     * Check that no table of the plan is larger than the largest Java array
+     * @return true if every buffer can be allocated
+     */
+    public boolean isAllocatable() {
+        return largestFactorCells <= MAX_ARRAY_CELLS;
+    }
+
+    /**
+     * Get the predicted memory of the buffers of one execution of the plan
+     * @param logSpace true if the plan runs in log space, a reduced table or a step output may then also keep its
+     *                 logs
+     * @return bytes
+     */
+    public double getBytes(boolean logSpace) {
+        double cells = tableCells;
+        for (double c : outputCells) {
+            cells += c;
+        }
+        return 8 * (logSpace ? 2 * cells : cells);
+    }
+
+    /**
+     * Get the predicted size of the output of each step
+     * @return cells, in the order of the steps
+     */
+    public double[] getOutputCells() {
+        return outputCells.clone();
+    }
+
+    /**
+     * Get the predicted size of the joined table of each step, before the variable is summed out
+     * @return cells, in the order of the steps
+     */
+    public double[] getJoinedCells() {
+        return joinedCells.clone();
+    }
+
+    public double getLargestFactorCells() {
+        return largestFactorCells;
+    }
+
+    /**
+     * Get the predicted number of multiplications and additions
+     * @return operations of all the steps
+     */
+    public double getOperations() {
+        return operations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("steps=%d largest factor=%.0f cells memory=%.1f MB operations=%.3g",
+                             outputCells.length, largestFactorCells, getBytes(false) / (1 << 20), operations);
+    }
+}
@@ -0,0 +1,369 @@
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Class that computes elimination orders with greedy heuristics on the interaction graph of a set of factors
+ * (two variables are connected when they appear in the same factor), and reports the induced width and the
+ * predicted size of the largest factor of an order.
+ * @author 220031271
+ */
+public class EliminationOrder {
+
+    /**
+     * heuristics to choose the next variable to eliminate
+     */
+    public enum Strategy {
+        REVERSE_TOPOLOGICAL,    //reverse of the topological order of the network
+        MIN_DEGREE,             //fewest neighbours
+        MIN_FILL,               //fewest edges added between the neighbours
+        WEIGHTED_MIN_FILL,      //smallest sum of the products of the cardinalities of the added edges
+        RANDOMIZED              //min fill with random tie breaking, restarted until the runs stop improving
+    }
+
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 100;  //time budget of the randomized strategy
+    private static final int MAX_STALE_RUNS = 32;     //randomized runs without a better order before stopping
+
+    /**
+     * binary min heap of the variables left to eliminate, ordered by their score and then by a tie breaking key,
+     * which keeps the position of every variable so that its score can be changed in place
+     */
+    private static final class VariableHeap {
+        private final double[] score;
+        private final int[] key;
+        private final int[] heap;
+        private final int[] position;
+        private int size;
+
+        VariableHeap(double[] score, int[] key, BitSet variables) {
+            this.score = score;
+            this.key = key;
+            this.heap = new int[variables.cardinality()];
+            this.position = new int[score.length];
+            for (int v = variables.nextSetBit(0); v >= 0; v = variables.nextSetBit(v + 1)) {
+                heap[size] = v;
+                position[v] = size++;
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        /**
+         * Check if another variable has the score of the variable at the top
+         * @return true if the top is chosen by its tie breaking key
+         */
+        boolean hasTie() {
+            //an equal score deeper in the heap implies an equal score at a child of the root
+            return size > 1 && score[heap[1]] == score[heap[0]] || size > 2 && score[heap[2]] == score[heap[0]];
+        }
+
+        /**
+         * method to remove the variable with the lowest score
+         * @return the variable
+         */
+        int poll() {
+            int top = heap[0];
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        /**
+         * method to change the score of a variable in the heap
+         * @param v variable
+         * @param newScore its new score
+         */
+        void update(int v, double newScore) {
+            double old = score[v];
+            score[v] = newScore;
+            if (newScore < old) {
+                siftUp(position[v]);
+            } else if (newScore > old) {
+                siftDown(position[v]);
+            }
+        }
+
+        private boolean less(int a, int b) {
+            return score[a] < score[b] || score[a] == score[b] && key[a] < key[b];
+        }
+
+        private void siftUp(int i) {
+            int v = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!less(v, heap[parent])) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                position[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = v;
+            position[v] = i;
+        }
+
+        private void siftDown(int i) {
+            int v = heap[i];
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!less(heap[child], v)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = v;
+            position[v] = i;
+        }
+    }
+
+    private final int[] order;                  //ids of the variables in the order of elimination
+    private final int inducedWidth;             //largest number of neighbours of a variable when it is eliminated
+    private final double largestFactorSize;     //size of the largest joined factor
+    private final double totalSize;             //sum of the sizes of the joined factors
+    private final int ties;                     //steps where several variables had the best score
+
+    private EliminationOrder(int[] order, int inducedWidth, double largestFactorSize, double totalSize, int ties) {
+        this.order = order;
+        this.inducedWidth = inducedWidth;
+        this.largestFactorSize = largestFactorSize;
+        this.totalSize = totalSize;
+        this.ties = ties;
+    }
+
+    /**
+     * method to compute an elimination order with a greedy heuristic
+     * @param strategy heuristic (REVERSE_TOPOLOGICAL is not a greedy heuristic, use evaluate for it)
+     * @param scopes scopes of the factors
+     * @param cards cardinalities of all the variables, indexed by id
+     * @param eliminate variables to eliminate
+     * @param timeBudgetMillis time budget of the randomized search
+     * @param seed seed of the randomized search
+     * @return order with its width and size
+     */
+    public static EliminationOrder compute(Strategy strategy, int[][] scopes, int[] cards, BitSet eliminate,
+                                           long timeBudgetMillis, long seed) {
+        if (strategy == Strategy.REVERSE_TOPOLOGICAL) {
+            throw new IllegalArgumentException("Reverse topological order is not a greedy heuristic");
+        }
+        BitSet[] graph = interactionGraph(scopes, cards.length);
+        if (strategy != Strategy.RANDOMIZED) {
+            return greedy(strategy, graph, cards, eliminate, null);
+        }
+
+        //keep the best order found within the budget, the first run is the plain min fill order. A run without
+        //ties makes no random choice, so every restart would give the same order, and the search also stops when
+        //the restarts no longer improve the order
+        long deadline = System.nanoTime() + timeBudgetMillis * 1000000L;
+        Random random = new Random(seed);
+        EliminationOrder best = greedy(Strategy.MIN_FILL, graph, cards, eliminate, null);
+        int staleRuns = best.ties == 0 ? MAX_STALE_RUNS : 0;
+        while (staleRuns < MAX_STALE_RUNS && System.nanoTime() < deadline) {
+            EliminationOrder candidate = greedy(Strategy.MIN_FILL, graph, cards, eliminate, random);
+            if (candidate.isBetterThan(best)) {
+                best = candidate;
+                staleRuns = 0;
+            } else {
+                staleRuns++;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * method to compute the width and size of a given order
+     * @param order ids of the variables in the order of elimination
+     * @param scopes scopes of the factors
+     * @param cards cardinalities of all the variables, indexed by id
+     * @return order with its width and size
+     */
+    public static EliminationOrder evaluate(int[] order, int[][] scopes, int[] cards) {
+        BitSet[] adj = interactionGraph(scopes, cards.length);
+        int width = 0;
+        double largest = 1;
+        double total = 0;
+        for (int v : order) {
+            double size = cards[v];
+            for (int u = adj[v].nextSetBit(0); u >= 0; u = adj[v].nextSetBit(u + 1)) {
+                size *= cards[u];
+            }
+            width = Math.max(width, adj[v].cardinality());
+            largest = Math.max(largest, size);
+            total += size;
+            eliminate(adj, v);
+        }
+        return new EliminationOrder(order.clone(), width, largest, total, 0);
+    }
+
+    /**
+     * method to run one greedy elimination
+     * @param strategy heuristic
+     * @param graph interaction graph of the factors, it is not changed
+     * @param cards cardinalities of all the variables, indexed by id
+     * @param eliminate variables to eliminate
+     * @param random source of random tie breaking, null to break ties by the lowest id
+     * @return order with its width and size
+     */
+    private static EliminationOrder greedy(Strategy strategy, BitSet[] graph, int[] cards, BitSet eliminate,
+                                           Random random) {
+        int n = cards.length;
+        BitSet[] adj = new BitSet[n];
+        for (int v = 0; v < n; v++) {
+            //a variable outside the scopes that is not eliminated is never changed, so its set is shared
+            adj[v] = graph[v].isEmpty() && !eliminate.get(v) ? graph[v] : (BitSet) graph[v].clone();
+        }
+        BitSet remaining = (BitSet) eliminate.clone();
+        double[] score = new double[n];
+        int[] key = new int[n];
+        for (int v = remaining.nextSetBit(0); v >= 0; v = remaining.nextSetBit(v + 1)) {
+            score[v] = score(strategy, adj, cards, v);
+            key[v] = random == null ? v : random.nextInt();
+        }
+        VariableHeap heap = new VariableHeap(score, key, remaining);
+
+        int[] order = new int[remaining.cardinality()];
+        int width = 0;
+        double largest = 1;
+        double total = 0;
+        int ties = 0;
+        BitSet neighbours = new BitSet();
+        BitSet dirty = new BitSet();
+        for (int step = 0; step < order.length; step++) {
+            //pick the variable with the lowest score, ties go to the lowest key
+            if (heap.hasTie()) {
+                ties++;
+            }
+            int best = heap.poll();
+
+            double size = cards[best];
+            for (int u = adj[best].nextSetBit(0); u >= 0; u = adj[best].nextSetBit(u + 1)) {
+                size *= cards[u];
+            }
+            width = Math.max(width, adj[best].cardinality());
+            largest = Math.max(largest, size);
+            total += size;
+            order[step] = best;
+            remaining.clear(best);
+
+            //only the scores of the neighbours and their neighbours can change
+            neighbours.clear();
+            neighbours.or(adj[best]);
+            eliminate(adj, best);
+            dirty.clear();
+            dirty.or(neighbours);
+            for (int u = neighbours.nextSetBit(0); u >= 0; u = neighbours.nextSetBit(u + 1)) {
+                dirty.or(adj[u]);
+            }
+            dirty.and(remaining);
+            for (int u = dirty.nextSetBit(0); u >= 0; u = dirty.nextSetBit(u + 1)) {
+                heap.update(u, score(strategy, adj, cards, u));
+            }
+        }
+        return new EliminationOrder(order, width, largest, total, ties);
+    }
+
+    /**
+     * method to score a variable for the greedy heuristics, lower is better
+     * @param strategy heuristic
+     * @param adj adjacency sets of the interaction graph
+     * @param cards cardinalities of the variables
+     * @param v variable
+     * @return score of the variable
+     */
+    private static double score(Strategy strategy, BitSet[] adj, int[] cards, int v) {
+        if (strategy == Strategy.MIN_DEGREE) {
+            return adj[v].cardinality();
+        }
+        double fill = 0;
+        for (int a = adj[v].nextSetBit(0); a >= 0; a = adj[v].nextSetBit(a + 1)) {
+            for (int b = adj[v].nextSetBit(a + 1); b >= 0; b = adj[v].nextSetBit(b + 1)) {
+                if (!adj[a].get(b)) {
+                    fill += strategy == Strategy.WEIGHTED_MIN_FILL ? (double) cards[a] * cards[b] : 1;
+                }
+            }
+        }
+        return fill;
+    }
+
+    /**
+     * method to build the interaction graph of a set of factors
+     * @param scopes scopes of the factors
+     * @param n number of variables
+     * @return adjacency set of each variable
+     */
+    static BitSet[] interactionGraph(int[][] scopes, int n) {
+        //the sets grow with the ids they hold, so the variables outside the scopes cost almost nothing
+        BitSet[] adj = new BitSet[n];
+        for (int v = 0; v < n; v++) {
+            adj[v] = new BitSet();
+        }
+        for (int[] scope : scopes) {
+            for (int a : scope) {
+                for (int b : scope) {
+                    if (a != b) {
+                        adj[a].set(b);
+                    }
+                }
+            }
+        }
+        return adj;
+    }
+
+    /**
+     * method to remove a variable from the graph and connect its neighbours
+     * @param adj adjacency sets
+     * @param v variable to eliminate
+     */
+    static void eliminate(BitSet[] adj, int v) {
+        for (int u = adj[v].nextSetBit(0); u >= 0; u = adj[v].nextSetBit(u + 1)) {
+            adj[u].or(adj[v]);
+            adj[u].clear(u);
+            adj[u].clear(v);
+        }
+        adj[v].clear();
+    }
+
+    /**
+     * method to compare two orders by the largest factor, then by the total size
+     * @param other order to compare with
+     * @return true if this order is better
+     */
+    public boolean isBetterThan(EliminationOrder other) {
+        if (largestFactorSize != other.largestFactorSize) {
+            return largestFactorSize < other.largestFactorSize;
+        }
+        return totalSize < other.totalSize;
+    }
+
+    // getters methods
+
+    public int[] getOrder() {
+        return order.clone();
+    }
+
+    public int getInducedWidth() {
+        return inducedWidth;
+    }
+
+    public double getLargestFactorSize() {
+        return largestFactorSize;
+    }
+
+    public double getTotalSize() {
+        return totalSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("induced width=%d largest factor=%.0f total size=%.0f", inducedWidth,
+                             largestFactorSize, totalSize);
+    }
+}
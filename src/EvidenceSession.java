@@ -0,0 +1,349 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Class that keeps the messages of a junction tree between evidence updates, for evidence that arrives one
+ * observation at a time
+ * Every message of the tree (up from a clique to its parent, down from the parent to the clique) is kept with a
+ * valid flag. Setting, changing or retracting one evidence variable only changes the potential of its home clique,
+ * which invalidates the up messages on the path from that clique to the root and the down messages of the cliques
+ * that are not on that path. Messages are recomputed lazily when a query needs them, so an update followed by a
+ * query only recomputes the messages between the changed clique and the queried one.
+ * An up message invalid implies the up messages of its ancestors are invalid, and a down message invalid implies
+ * the down messages of its descendants are invalid, so the invalidation stops at messages that are already invalid
+ * and costs no more than the recomputation.
+ * Messages are normalised and the log of each normaliser is kept, so the probability of the evidence does not
+ * underflow. A session is not thread safe.
+ * @author 220031271
+ */
+public class EvidenceSession {
+
+    private final JunctionTree tree;
+    private final CompiledNetwork net;
+    private final int[] evidence;           //outcome index of each evidence variable, -1 if not observed
+    private final int[][] homeVariables;    //variables whose home is each clique
+    private final Factor[] entered;         //potential of each clique with its evidence, null if not computed
+    private final Factor[] up;              //message from each clique to its parent
+    private final Factor[] down;            //message from the parent of each clique to the clique
+    private final double[] upScales;        //log of the factor each up message was divided by
+    private final double[] downScales;      //log of the factor each down message was divided by
+    private final boolean[] upValid;
+    private final boolean[] downValid;
+    private final int[] stack;
+    private long messagesComputed;
+
+    /**
+     * constructor
+     * @param tree compiled junction tree
+     */
+    EvidenceSession(JunctionTree tree) {
+        this.tree = tree;
+        this.net = tree.getNetwork();
+        int c = tree.getCliqueCount();
+        this.evidence = new int[net.getVariableCount()];
+        Arrays.fill(evidence, -1);
+        int[] count = new int[c];
+        for (int v = 0; v < evidence.length; v++) {
+            count[tree.getHomeClique(v)]++;
+        }
+        this.homeVariables = new int[c][];
+        for (int i = 0; i < c; i++) {
+            homeVariables[i] = new int[count[i]];
+            count[i] = 0;
+        }
+        for (int v = 0; v < evidence.length; v++) {
+            int home = tree.getHomeClique(v);
+            homeVariables[home][count[home]++] = v;
+        }
+        this.entered = new Factor[c];
+        this.up = new Factor[c];
+        this.down = new Factor[c];
+        this.upScales = new double[c];
+        this.downScales = new double[c];
+        this.upValid = new boolean[c];
+        this.downValid = new boolean[c];
+        this.stack = new int[c];
+    }
+
+    /**
+     * method to observe or change the value of an evidence variable
+     * @param var id of the variable
+     * @param value outcome index
+     */
+    public void setEvidence(int var, int value) {
+        if (value < 0 || value >= net.getCardinality(var)) {
+            throw new IllegalArgumentException("Outcome index " + value + " out of range for "
+                                               + net.getVariableName(var));
+        }
+        if (evidence[var] != value) {
+            evidence[var] = value;
+            invalidate(tree.getHomeClique(var));
+        }
+    }
+
+    /**
+     * method to observe or change the value of an evidence variable given by name
+     * @param variable name of the variable
+     * @param value name of the outcome
+     */
+    public void setEvidence(String variable, String value) {
+        int var = variableId(variable);
+        int index = net.getOutcomeIndex(var, value);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown value " + value + " for variable " + variable);
+        }
+        setEvidence(var, index);
+    }
+
+    /**
+     * method to retract the evidence of a variable, nothing changes if the variable is not observed
+     * @param var id of the variable
+     */
+    public void retractEvidence(int var) {
+        if (evidence[var] >= 0) {
+            evidence[var] = -1;
+            invalidate(tree.getHomeClique(var));
+        }
+    }
+
+    public void retractEvidence(String variable) {
+        retractEvidence(variableId(variable));
+    }
+
+    /**
+     * method to retract all the evidence
+     */
+    public void clearEvidence() {
+        for (int v = 0; v < evidence.length; v++) {
+            retractEvidence(v);
+        }
+    }
+
+    /**
+     * method to get the posterior of a variable given the current evidence
+     * @param var id of the variable
+     * @return normalised distribution over the outcomes, NaN if the evidence is impossible
+     */
+    public double[] getPosterior(int var) {
+        Factor marginal = belief(tree.getHomeClique(var)).sumOutAllExcept(new int[] {var});
+        marginal.normalise();
+        return marginal.getValues();
+    }
+
+    public double[] getPosterior(String variable) {
+        return getPosterior(variableId(variable));
+    }
+
+    /**
+     * method to get the probability of the current evidence, from the belief of the root clique
+     * @return natural log of P(e), -Infinity if the evidence is impossible
+     */
+    public double getLogEvidenceProbability() {
+        Factor belief = belief(0);
+        double total = 0.0;
+        for (double value : belief.getValues()) {
+            total += value;
+        }
+        double logScale = 0.0;
+        for (int child : tree.getChildren(0)) {
+            logScale += upScales[child];
+        }
+        return Math.log(total) + logScale;
+    }
+
+    public double getEvidenceProbability() {
+        return Math.exp(getLogEvidenceProbability());
+    }
+
+    /**
+     * method to invalidate the messages that depend on the potential of a clique
+     * @param home clique whose evidence changed
+     */
+    private void invalidate(int home) {
+        entered[home] = null;
+
+        // up messages from the clique to the root
+        for (int i = home; tree.getParent(i) >= 0 && upValid[i]; i = tree.getParent(i)) {
+            upValid[i] = false;
+        }
+
+        // down messages of every clique that is not on the path, the subtrees hanging off the path
+        int previous = -1;
+        for (int i = home; i >= 0; previous = i, i = tree.getParent(i)) {
+            for (int child : tree.getChildren(i)) {
+                if (child != previous) {
+                    invalidateDown(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * method to invalidate the down messages of a subtree, the subtrees already invalid are skipped
+     * @param root root clique of the subtree
+     */
+    private void invalidateDown(int root) {
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int i = stack[--top];
+            if (downValid[i]) {
+                downValid[i] = false;
+                for (int child : tree.getChildren(i)) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * method to get the belief of a clique, every message it needs is recomputed if it is not valid
+     * @param i clique
+     * @return joint of the clique variables and the evidence, divided by the scales of its messages
+     */
+    private Factor belief(int i) {
+        entered(i);
+        if (tree.getParent(i) >= 0) {
+            ensureDown(i);
+        }
+        for (int child : tree.getChildren(i)) {
+            ensureUp(child);
+        }
+        return tree.belief(i, entered, up, down);
+    }
+
+    /**
+     * method to get the potential of a clique with its evidence
+     * @param i clique
+     * @return potential multiplied by the indicator factor of each evidence variable whose home is the clique
+     */
+    private Factor entered(int i) {
+        if (entered[i] == null) {
+            Factor potential = tree.getPotential(i);
+            for (int var : homeVariables[i]) {
+                if (evidence[var] >= 0) {
+                    double[] indicator = new double[net.getCardinality(var)];
+                    indicator[evidence[var]] = 1.0;
+                    potential = potential.join(new Factor(new int[] {var}, new int[] {indicator.length},
+                                                          indicator));
+                }
+            }
+            entered[i] = potential;
+        }
+        return entered[i];
+    }
+
+    /**
+     * method to recompute the up message of a clique and the invalid up messages of its subtree
+     * @param root clique
+     */
+    private void ensureUp(int root) {
+        if (upValid[root]) {
+            return;
+        }
+        // post-order walk of the invalid part of the subtree, a clique is computed once its children are valid
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int i = stack[top - 1];
+            boolean ready = true;
+            for (int child : tree.getChildren(i)) {
+                if (!upValid[child]) {
+                    stack[top++] = child;
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            top--;
+            entered(i);
+            up[i] = tree.message(i, tree.getParent(i), entered, up, down);
+            double logScale = normalise(up[i]);
+            for (int child : tree.getChildren(i)) {
+                logScale += upScales[child];
+            }
+            upScales[i] = logScale;
+            upValid[i] = true;
+            messagesComputed++;
+        }
+    }
+
+    /**
+     * method to recompute the down message of a clique and the invalid down messages of its ancestors
+     * @param i clique that is not the root
+     */
+    private void ensureDown(int i) {
+        ArrayList<Integer> path = new ArrayList<>();
+        for (int j = i; tree.getParent(j) >= 0 && !downValid[j]; j = tree.getParent(j)) {
+            path.add(j);
+        }
+        for (int k = path.size() - 1; k >= 0; k--) {
+            int j = path.get(k);
+            int p = tree.getParent(j);
+            entered(p);
+            double logScale = tree.getParent(p) >= 0 ? downScales[p] : 0.0;
+            for (int sibling : tree.getChildren(p)) {
+                if (sibling != j) {
+                    ensureUp(sibling);
+                    logScale += upScales[sibling];
+                }
+            }
+            down[j] = tree.message(p, j, entered, up, down);
+            downScales[j] = logScale + normalise(down[j]);
+            downValid[j] = true;
+            messagesComputed++;
+        }
+    }
+
+    /**
+     * method to divide a message by its total
+     * @param message message, changed in place
+     * @return natural log of the total, 0 if the total is 0 (the message is left as it is)
+     */
+    private static double normalise(Factor message) {
+        double[] values = message.getValues();
+        double total = 0.0;
+        for (double value : values) {
+            total += value;
+        }
+        if (!(total > 0)) {
+            return 0.0;
+        }
+        for (int k = 0; k < values.length; k++) {
+            values[k] /= total;
+        }
+        return Math.log(total);
+    }
+
+    private int variableId(String variable) {
+        int var = net.getVariableId(variable);
+        if (var < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+        return var;
+    }
+
+    // getters methods
+
+    public JunctionTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Get the observed outcome of a variable
+     * @param var id of the variable
+     * @return outcome index, -1 if the variable is not evidence
+     */
+    public int getEvidence(int var) {
+        return evidence[var];
+    }
+
+    /**
+     * Get the number of messages computed since the session was opened
+     * @return number of up and down messages computed
+     */
+    public long getMessagesComputed() {
+        return messagesComputed;
+    }
+}
@@ -1,15 +1,293 @@
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Class that perform factor operations
+ * Values are stored in a primitive array in row-major order (last variable changes fastest).
+ * The scope is an array of dense variable ids; cardinalities and strides of the variables are computed
+ * once, and the join, sum, assign and normalise operations walk the tables with incremental index
+ * counters instead of building an assignment for every cell.
+ * Output tables above the parallel threshold are split across the common fork/join pool.
+ * When one of two joined factors is mostly zeros, the join is driven by its nonzero cells. The nonzero cells of a
+ * factor are counted once, the first time it is joined, and the count is kept until its values are replaced.
+ * A factor can also hold the natural logs of its values (log space), where long products cannot underflow: the
+ * join adds the logs and the sum is a log-sum-exp shifted by the largest term.
+ * The name based methods are kept as a compatibility layer on top of the id based ones.
  * @author 220031271
  */
 public class Factor {
-    
-    private ArrayList<String> factorVariableNames;  //variables involved in the factor
-    ArrayList<Double> factorValues;                 //probabilities stored as a list
+
+    private static final int MIN_PARALLEL_GRAIN = 1 << 12;     //smallest range of cells given to one task
+    private static volatile int parallelThreshold = 1 << 17;   //output size from which the kernels run in parallel
+    private static volatile double densityThreshold = 0.25;    //density below which a table drives the sparse kernel
+
+    static final int RESCALE_FAILED = Integer.MIN_VALUE;      //returned by rescale when a value would underflow
+
+    private int[] scope;                            //ids of the variables involved in the factor
+    private double[] values;                        //probabilities stored as a primitive array
+    private int[] cardinalities;                    //no of outcomes of each variable in the factor
+    private int[] strides;                          //stride of each variable in the value array
+    private boolean logSpace;                       //true if the values are natural logs of the probabilities
+    private int nonZeros = -1;                      //no of nonzero values, -1 until the factor is first joined
+    private ArrayList<String> factorVariableNames;  //variable names, only kept for the name based methods
+
+    public Factor() {
+    }
+
+    /**
+     * constructor to create a factor over variable ids
+     * @param scope ids of the variables involved in the factor
+     * @param cardinalities no of outcomes of each variable, in the same order as the scope
+     * @param values probabilities in row-major order
+     */
+    public Factor(int[] scope, int[] cardinalities, double[] values) {
+        this.scope = scope;
+        this.values = values;
+        setLayout(cardinalities);
+    }
+
+    /**
+     * method to create the factor of a variable from its probability table
+     * @param bn Bayesian Network object
+     * @param id id of the variable
+     * @return factor over the parents of the variable followed by the variable
+     */
+    public static Factor fromVariable(BayesianNetwork bn, int id) {
+        return fromVariable(bn.getCompiled(), id);
+    }
+
+    /**
+     * method to create the factor of a variable from the probability table of a compiled network
+     * the factor gets its own copy of the table, so the compiled network stays read-only
+     * @param net compiled network
+     * @param id id of the variable
+     * @return factor over the parents of the variable followed by the variable
+     */
+    public static Factor fromVariable(CompiledNetwork net, int id) {
+        int[] parents = net.parents(id);
+        int[] scope = new int[parents.length + 1];
+        int[] cards = new int[scope.length];
+        for (int i = 0; i < parents.length; i++) {
+            scope[i] = parents[i];
+            cards[i] = net.getCardinality(parents[i]);
+        }
+        scope[parents.length] = id;
+        cards[parents.length] = net.getCardinality(id);
+        return new Factor(scope, cards, net.cpt(id).clone());
+    }
+
+    /**
+     * method to get the position of a variable in the scope of the factor
+     * @param var id of the variable
+     * @return position of the variable, -1 if the variable is not in the factor
+     */
+    public int indexOf(int var) {
+        for (int i = 0; i < scope.length; i++) {
+            if (scope[i] == var) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * method to check whether a variable is in the scope of the factor
+     * @param var id of the variable
+     * @return true if the variable is in the factor
+     */
+    public boolean contains(int var) {
+        return indexOf(var) >= 0;
+    }
+
+    /**
+     * method to restrict the factor to one value of a variable
+     * @param var id of the variable to which assignment is to be done
+     * @param valueIndex index of the assigned outcome
+     * @return new factor without the assigned variable
+     */
+    public Factor assignValue(int var, int valueIndex) {
+        int pos = indexOf(var);
+        double[] assignedValues = assignValues(this.values, this.cardinalities[pos], this.strides[pos], valueIndex);
+        return new Factor(removeAt(this.scope, pos), removeAt(this.cardinalities, pos), assignedValues)
+                   .inSpace(this.logSpace);
+    }
+
+    /**
+     * method to perform join operation on factor
+     * the scope of the result is the scope of this factor followed by the new variables of the other factor
+     * @param f factor with which join operation should be performed
+     * @return joined factor
+     */
+    public Factor join(Factor f) {
+        if (this.logSpace || f.logSpace) {
+            return this.toLogSpace().join(f.toLogSpace(), -1);
+        }
+        //the sparser factor drives the join when its density is low enough
+        double density1 = (double) this.nonZeros() / this.values.length;
+        double density2 = (double) f.nonZeros() / f.values.length;
+        int driver = density1 <= density2 ? 0 : 1;
+        return join(f, isSparse(Math.min(density1, density2)) ? driver : -1);
+    }
+
+    /**
+     * method to perform join operation on factor with the dense or the sparse kernel
+     * @param f factor with which join operation should be performed
+     * @param driver 0 if this factor drives the sparse kernel, 1 if the other factor does, -1 for the dense kernel
+     * @return joined factor
+     */
+    Factor join(Factor f, int driver) {
+        int[] joinedScope = new int[this.scope.length + f.scope.length];
+        int n = this.scope.length;
+        System.arraycopy(this.scope, 0, joinedScope, 0, n);
+        for (int var : f.scope) {
+            if (!this.contains(var)) {
+                joinedScope[n++] = var;
+            }
+        }
+
+        //cardinalities of the joined factor and the stride of each joined variable in both the factors
+        //(stride is 0 when the variable is not part of the factor)
+        int[] scopeOut = Arrays.copyOf(joinedScope, n);
+        int[] joinedCards = new int[n];
+        int[] stridesInF1 = new int[n];
+        int[] stridesInF2 = new int[n];
+        for (int d = 0; d < n; d++) {
+            int var = joinedScope[d];
+            int i1 = this.indexOf(var);
+            int i2 = f.indexOf(var);
+            joinedCards[d] = i1 >= 0 ? this.cardinalities[i1] : f.cardinalities[i2];
+            stridesInF1[d] = i1 >= 0 ? this.strides[i1] : 0;
+            stridesInF2[d] = i2 >= 0 ? f.strides[i2] : 0;
+        }
+
+        double[] joinedValues = new double[tableSize(joinedCards)];
+        if (this.logSpace) {
+            logJoinSumKernel(new double[][] {this.values, f.values}, new int[][] {stridesInF1, stridesInF2},
+                             new int[2], 1, joinedCards, joinedValues);
+        } else if (driver < 0) {
+            productKernel(this.values, stridesInF1, f.values, stridesInF2, joinedCards, joinedValues);
+        } else {
+            sparseJoinSumKernel(driver, new double[][] {this.values, f.values},
+                                new int[][] {stridesInF1, stridesInF2}, new int[2], 1, joinedCards, joinedValues);
+        }
+        return new Factor(scopeOut, joinedCards, joinedValues).inSpace(this.logSpace);
+    }
+
+    /**
+     * method to perform sum operation on factor
+     * @param var id of the nuisance variable on which the sum operation is performed
+     * @return new factor without the nuisance variable
+     */
+    public Factor sumOut(int var) {
+        int pos = indexOf(var);
+        int[] newCards = removeAt(this.cardinalities, pos);
+        int[] stridesInThis = removeAt(this.strides, pos);
+
+        //size of new factor value array will be reduced to (initial size / no of outcomes in nuisance variable)
+        double[] eliminatedValues = new double[this.values.length / this.cardinalities[pos]];
+        if (this.logSpace) {
+            logJoinSumKernel(new double[][] {this.values}, new int[][] {stridesInThis}, new int[] {this.strides[pos]},
+                             this.cardinalities[pos], newCards, eliminatedValues);
+        } else {
+            sumKernel(this.values, stridesInThis, this.cardinalities[pos], this.strides[pos], newCards,
+                      eliminatedValues);
+        }
+        return new Factor(removeAt(this.scope, pos), newCards, eliminatedValues).inSpace(this.logSpace);
+    }
+
+    /**
+     * method to perform max operation on factor (max-product elimination)
+     * @param var id of the variable on which the max operation is performed
+     * @return new factor without the variable, holding the largest value over its outcomes
+     */
+    public Factor maxOut(int var) {
+        return maxOut(var, null);
+    }
+
+    /**
+     * method to perform max operation on factor and record the outcome that gives each maximum
+     * @param var id of the variable on which the max operation is performed
+     * @param argmax receives the first outcome index with the largest value for every cell of the result, null if
+     *               not needed
+     * @return new factor without the variable
+     */
+    Factor maxOut(int var, int[] argmax) {
+        int pos = indexOf(var);
+        int[] newCards = removeAt(this.cardinalities, pos);
+        double[] maxValues = new double[this.values.length / this.cardinalities[pos]];
+        joinMaxKernel(new double[][] {this.values}, new int[][] {removeAt(this.strides, pos)},
+                      new int[] {this.strides[pos]}, this.cardinalities[pos], newCards, maxValues, argmax,
+                      this.logSpace);
+        return new Factor(removeAt(this.scope, pos), newCards, maxValues).inSpace(this.logSpace);
+    }
+
+    /**
+     * method to sum out every variable that is not in the given set
+     * @param keep ids of the variables to keep
+     * @return new factor over the kept variables of this factor, in the order of this factor
+     */
+    public Factor sumOutAllExcept(int[] keep) {
+        int n = 0;
+        int[] keptScope = new int[scope.length];
+        int[] keptCards = new int[scope.length];
+        for (int i = 0; i < scope.length; i++) {
+            for (int var : keep) {
+                if (var == scope[i]) {
+                    keptScope[n] = scope[i];
+                    keptCards[n] = cardinalities[i];
+                    n++;
+                    break;
+                }
+            }
+        }
+        Factor marginal = new Factor(Arrays.copyOf(keptScope, n), Arrays.copyOf(keptCards, n), null)
+                          .inSpace(this.logSpace);
+
+        //stride of each variable of this factor in the output (0 for the summed variables)
+        int[] stridesInOut = new int[scope.length];
+        for (int i = 0; i < scope.length; i++) {
+            int pos = marginal.indexOf(scope[i]);
+            stridesInOut[i] = pos >= 0 ? marginal.strides[pos] : 0;
+        }
+        marginal.values = new double[tableSize(marginal.cardinalities)];
+        if (this.logSpace) {
+            logProjectKernel(this.values, this.cardinalities, stridesInOut, marginal.values);
+        } else {
+            projectKernel(this.values, this.cardinalities, stridesInOut, marginal.values);
+        }
+        return marginal;
+    }
+
+    /**
+     * method to perform normalisation on factor
+     */
+    public void normalise(){
+        if (this.logSpace) {
+            //subtract the log of the total, the values stay in log space
+            double logTotal = logSumExp(this.values, 0, this.values.length);
+            double[] normalisedValues = new double[this.values.length];
+            for (int i = 0; i < this.values.length; i++) {
+                normalisedValues[i] = this.values[i] - logTotal;
+            }
+            this.values = normalisedValues;
+            return;
+        }
+        double totalSumAlpha = 0.0;
+
+        //find the total sum by adding all values
+        for (double val : this.values) {
+            totalSumAlpha += val;
+        }
+
+        //divide each value in the array with the total sum
+        double[] normalisedValues = new double[this.values.length];
+        for (int i = 0; i < this.values.length; i++) {
+            normalisedValues[i] = this.values[i] / totalSumAlpha;
+        }
+        this.values = normalisedValues;
+    }
 
      /**
      * method to perform assign operation on factor
@@ -18,25 +296,16 @@ public class Factor {
      * @param bn Bayesian Network object
      */
     public void assign(String variable, String value, BayesianNetwork bn){
-        // get stride value of the variable
-        int stride = getStride(variable, bn);
-        //get index of the value in outcomes list of the variable
-        int valueIndex  = bn.getVariable(variable).getOutcomeIndex(value);
-        //get no of outcomes
-        int outcomeCount = bn.getVariable(variable).getNoOfOutcomes();
-        //initialize new value list
-        ArrayList<Double> assignedValues = new ArrayList<Double>();
-        for(int i=0;; i++){
-            int startIndex = stride * ((outcomeCount * i) + valueIndex); //get the initial index in the stride
-            if(this.getFactorValues().size()<=startIndex)
-                break;
-            for(int j=0;j<stride;j++){
-                assignedValues.add(this.getFactorValues().get(startIndex + j)); //get the values in the same step(stride)
-            }
-
+        resolveScope(bn);
+        int var = bn.getVariableId(variable);
+        Factor assigned = assignValue(var, bn.getOutcomeIndex(var, value));
+        this.scope = assigned.scope;
+        this.values = assigned.values;
+        this.nonZeros = -1;
+        setLayout(assigned.cardinalities);
+        if (this.factorVariableNames != null) {
+            this.factorVariableNames.remove(variable); //remove assigned variable name from the factor
         }
-        this.factorValues = assignedValues; //assign new values to the new factor
-        this.factorVariableNames.remove(variable); //remove assigned variable name from the new factor
     }
 
 
@@ -48,214 +317,1015 @@ public class Factor {
      * @return return joined factor
      */
     public Factor joinFactor(Factor f, BayesianNetwork bn){
+        this.resolveScope(bn);
+        f.resolveScope(bn);
+        return join(f).withNames(bn);
+    }
+
+    /**
+     * method to perform sum operation on factor
+     * @param nuisanceVar nuisance variable on which the sum operation is performed
+     * @param bn Bayesian Network object
+     * @return return sum factor
+     */
+    public Factor sumFactor(String nuisanceVar, BayesianNetwork bn){
+        resolveScope(bn);
+        return sumOut(bn.getVariableId(nuisanceVar)).withNames(bn);
+    }
+
+    /**
+     * kernel to multiply two tables into the output table
+     * an index counter over the output variables is incremented like an odometer, and the positions in
+     * both input tables are moved along with it using the stride of each output variable in the input
+     * @param v1 values of the first factor
+     * @param s1 stride of each output variable in the first factor (0 if absent)
+     * @param v2 values of the second factor
+     * @param s2 stride of each output variable in the second factor (0 if absent)
+     * @param cards cardinalities of the output variables
+     * @param out output values
+     */
+    static void productKernel(double[] v1, int[] s1, double[] v2, int[] s2, int[] cards, double[] out) {
+        forRange(out.length, (from, to) -> productKernel(v1, s1, v2, s2, cards, out, from, to));
+    }
 
-        Factor joinedFactor = new Factor();
-        
-        ArrayList<String> f1Var = this.getFactorVariableNames(); //variables of first factor
-        ArrayList<String> f2Var = f.getFactorVariableNames();    //variables of second factor  
-        ArrayList<String> joinedVar = new ArrayList<>();        //variables in the result
-        joinedVar.addAll(f1Var);
-        for (String f2V : f2Var) {
-            if(!joinedVar.contains(f2V)){
-                joinedVar.add(f2V);
+    /**
+     * kernel to multiply two tables into a range of cells of the output table
+     * @see #productKernel(double[], int[], double[], int[], int[], double[])
+     * @param from first output cell
+     * @param to end of the range (exclusive)
+     */
+    static void productKernel(double[] v1, int[] s1, double[] v2, int[] s2, int[] cards, double[] out,
+                              int from, int to) {
+        int n = cards.length;
+        int[] counter = startCounter(from, cards);
+        int i1 = position(counter, s1);
+        int i2 = position(counter, s2);
+        for (int i = from; i < to; i++) {
+            out[i] = v1[i1] * v2[i2];
+            //increment the counter starting from the last (fastest changing) variable
+            for (int d = n - 1; d >= 0; d--) {
+                i1 += s1[d];
+                i2 += s2[d];
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                i1 -= s1[d] * cards[d];
+                i2 -= s2[d] * cards[d];
+                counter[d] = 0;
             }
         }
+    }
 
-        joinedFactor.setFactorVariableNames(joinedVar); //set variable names in the new factor
+    /**
+     * kernel to sum out one variable of a table
+     * for every output cell, the values for each outcome of the summed variable are added in outcome order
+     * @param in values of the factor
+     * @param sIn stride of each output variable in the factor
+     * @param sumCard no of outcomes of the summed variable
+     * @param sumStride stride of the summed variable in the factor
+     * @param cards cardinalities of the output variables
+     * @param out output values
+     */
+    static void sumKernel(double[] in, int[] sIn, int sumCard, int sumStride, int[] cards, double[] out) {
+        forRange(out.length, (from, to) -> sumKernel(in, sIn, sumCard, sumStride, cards, out, from, to));
+    }
 
-        //get size of new probability values of the joined factor
-        int sizeOfJoinedFactorValueArray = 1;
-        if(!joinedVar.isEmpty()){
-            String firstVarInJoinedFactor = joinedVar.get(0);
-            BNVariable firstBnVar = bn.getVariable(firstVarInJoinedFactor);
-            int noOfOutComesForFirstVar = firstBnVar.getNoOfOutcomes();
-            int strideOfFirstVarInJoinedFactor = joinedFactor.getStride(firstVarInJoinedFactor, bn);
-            sizeOfJoinedFactorValueArray = strideOfFirstVarInJoinedFactor * noOfOutComesForFirstVar;
+    /**
+     * kernel to sum out one variable of a table into a range of cells of the output table
+     * @see #sumKernel(double[], int[], int, int, int[], double[])
+     * @param from first output cell
+     * @param to end of the range (exclusive)
+     */
+    static void sumKernel(double[] in, int[] sIn, int sumCard, int sumStride, int[] cards, double[] out,
+                          int from, int to) {
+        int n = cards.length;
+        int[] counter = startCounter(from, cards);
+        int base = position(counter, sIn);
+        for (int i = from; i < to; i++) {
+            double sum = 0.0;
+            for (int j = 0, k = base; j < sumCard; j++, k += sumStride) {
+                sum += in[k];
+            }
+            out[i] = sum;
+            for (int d = n - 1; d >= 0; d--) {
+                base += sIn[d];
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                base -= sIn[d] * cards[d];
+                counter[d] = 0;
+            }
         }
+    }
 
-        //create and initialize new value list with 0
-        ArrayList<Double> joinedFactorValues = new ArrayList<>(Collections.nCopies(sizeOfJoinedFactorValueArray, 0.0));
-        joinedFactor.setFactorValues(joinedFactorValues);
+    /**
+     * kernel to add every cell of a table into the cell of the output that matches the kept variables
+     * @param in values of the factor
+     * @param cards cardinalities of the variables of the factor
+     * @param sOut stride of each variable of the factor in the output (0 if summed)
+     * @param out output values, must be zero
+     */
+    static void projectKernel(double[] in, int[] cards, int[] sOut, double[] out) {
+        int n = cards.length;
+        int[] counter = new int[n];
+        int index = 0;
+        for (int i = 0; i < in.length; i++) {
+            out[index] += in[i];
+            for (int d = n - 1; d >= 0; d--) {
+                index += sOut[d];
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                index -= sOut[d] * cards[d];
+                counter[d] = 0;
+            }
+        }
+    }
 
-        HashMap<String,Integer> f1Assignment = new HashMap<String, Integer>();
-        HashMap<String,Integer> f2Assignment = new HashMap<String, Integer>();
+    /**
+     * kernel to join any number of tables and sum out one variable in a single pass
+     * the joined table is never stored: for every output cell the products are computed for each outcome of
+     * the summed variable (multiplying the inputs from left to right) and added in outcome order, so the result
+     * is the same as joining the tables pairwise and then summing out the variable
+     * @param in values of the input factors
+     * @param strides stride of each output variable in each input factor (0 if absent)
+     * @param sumStrides stride of the summed variable in each input factor (0 if absent)
+     * @param sumCard no of outcomes of the summed variable (1 to only join)
+     * @param cards cardinalities of the output variables
+     * @param out output values
+     */
+    static void joinSumKernel(double[][] in, int[][] strides, int[] sumStrides, int sumCard, int[] cards,
+                              double[] out) {
+        forRange(out.length, (from, to) -> joinSumKernel(in, strides, sumStrides, sumCard, cards, out, from, to));
+    }
 
-        for(int i=0; i< joinedFactorValues.size();i++){
-            //get assignment for each row index in the new value list
-            HashMap<String,Integer> assignment = joinedFactor.getAssignmentForIndex(i, bn);
+    /**
+     * kernel to join tables and sum out one variable into a range of cells of the output table
+     * @see #joinSumKernel(double[][], int[][], int[], int, int[], double[])
+     * @param from first output cell
+     * @param to end of the range (exclusive)
+     */
+    static void joinSumKernel(double[][] in, int[][] strides, int[] sumStrides, int sumCard, int[] cards,
+                              double[] out, int from, int to) {
+        int k = in.length;
+        int n = cards.length;
+        int[] counter = startCounter(from, cards);
+        int[] base = new int[k];
+        for (int f = 0; f < k; f++) {
+            base[f] = position(counter, strides[f]);
+        }
+        for (int i = from; i < to; i++) {
+            double sum = 0.0;
+            for (int j = 0; j < sumCard; j++) {
+                double product = in[0][base[0] + j * sumStrides[0]];
+                for (int f = 1; f < k; f++) {
+                    product *= in[f][base[f] + j * sumStrides[f]];
+                }
+                sum += product;
+            }
+            out[i] = sum;
+            for (int d = n - 1; d >= 0; d--) {
+                for (int f = 0; f < k; f++) {
+                    base[f] += strides[f][d];
+                }
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                for (int f = 0; f < k; f++) {
+                    base[f] -= strides[f][d] * cards[d];
+                }
+                counter[d] = 0;
+            }
+        }
+    }
 
-            //split the assignment and get corresponding value to be multiplied in both the factors
-            for (String f1Variable : f1Var) {
-                f1Assignment.put(f1Variable, assignment.get(f1Variable));
+    /**
+     * kernel to join tables and sum out one variable like joinSumKernel, and report the products that underflow
+     * the inputs must be at most 1, so a product can only shrink as it is multiplied from left to right. A product
+     * below Double.MIN_NORMAL has lost precision unless it is 0 because one of its factors is 0, so such a
+     * product sets the underflow flag. The output is the same as the one of joinSumKernel.
+     * @see #joinSumKernel(double[][], int[][], int[], int, int[], double[])
+     * @param underflow flag set to true if a product underflows
+     */
+    static void checkedJoinSumKernel(double[][] in, int[][] strides, int[] sumStrides, int sumCard, int[] cards,
+                                     double[] out, boolean[] underflow) {
+        forRange(out.length, (from, to) -> {
+            if (checkedJoinSumKernel(in, strides, sumStrides, sumCard, cards, out, from, to)) {
+                underflow[0] = true;
             }
-            int indexInFirstFactor = this.getIndexForAssignment(f1Assignment, bn);
-            Double factorValue1 = this.getFactorValues().get(indexInFirstFactor);
+        });
+    }
 
+    /**
+     * kernel to join tables and sum out one variable into a range of cells of the output table, and report the
+     * products that underflow
+     * @see #checkedJoinSumKernel(double[][], int[][], int[], int, int[], double[], boolean[])
+     * @param from first output cell
+     * @param to end of the range (exclusive)
+     * @return true if a product underflows
+     */
+    static boolean checkedJoinSumKernel(double[][] in, int[][] strides, int[] sumStrides, int sumCard, int[] cards,
+                                        double[] out, int from, int to) {
+        int k = in.length;
+        int n = cards.length;
+        int[] counter = startCounter(from, cards);
+        int[] base = new int[k];
+        for (int f = 0; f < k; f++) {
+            base[f] = position(counter, strides[f]);
+        }
+        boolean underflow = false;
+        for (int i = from; i < to; i++) {
+            double sum = 0.0;
+            for (int j = 0; j < sumCard; j++) {
+                double product = in[0][base[0] + j * sumStrides[0]];
+                for (int f = 1; f < k; f++) {
+                    product *= in[f][base[f] + j * sumStrides[f]];
+                }
+                if (product < Double.MIN_NORMAL && !underflow) {
+                    //a product of 0 is exact when one of its factors is 0
+                    boolean exactZero = false;
+                    for (int f = 0; f < k && product == 0.0; f++) {
+                        exactZero |= in[f][base[f] + j * sumStrides[f]] == 0.0;
+                    }
+                    underflow = !exactZero;
+                }
+                sum += product;
+            }
+            out[i] = sum;
+            for (int d = n - 1; d >= 0; d--) {
+                for (int f = 0; f < k; f++) {
+                    base[f] += strides[f][d];
+                }
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                for (int f = 0; f < k; f++) {
+                    base[f] -= strides[f][d] * cards[d];
+                }
+                counter[d] = 0;
+            }
+        }
+        return underflow;
+    }
+
+    /**
+     * kernel to join tables and sum out one variable, driven by the nonzero cells of one of the tables
+     * the driving table is walked cell by cell like an odometer over its own variables. For every nonzero cell, the
+     * output variables that are not in that table (and the summed variable when it is not in that table either) are
+     * walked in turn and the products are added to the output, so no product is computed for a zero cell.
+     * Each output cell receives its products in outcome order of the summed variable, and the skipped products are
+     * zero, so the output is the same as the one of joinSumKernel.
+     * The output cells are accumulated, so the kernel runs sequentially.
+     * @param driver position of the driving table in the inputs
+     * @param in values of the input factors
+     * @param strides stride of each output variable in each input factor (0 if absent)
+     * @param sumStrides stride of the summed variable in each input factor (0 if absent)
+     * @param sumCard no of outcomes of the summed variable (1 to only join)
+     * @param cards cardinalities of the output variables
+     * @param out output values
+     */
+    static void sparseJoinSumKernel(int driver, double[][] in, int[][] strides, int[] sumStrides, int sumCard,
+                                    int[] cards, double[] out) {
+        int k = in.length;
+        int n = cards.length;
+        double[] driving = in[driver];
+        int[] outStrides = new int[n];
+        int stride = 1;
+        for (int d = n - 1; d >= 0; d--) {
+            outStrides[d] = stride;
+            stride *= cards[d];
+        }
 
-            for (String f2Variable : f2Var) {
-                f2Assignment.put(f2Variable, assignment.get(f2Variable));
+        //variables of the driver in its own order (largest stride first) and the output variables it does not hold,
+        //each with its cardinality, its stride in the output and its stride in every input
+        int held = sumStrides[driver] != 0 ? 1 : 0;
+        int free = 0;
+        for (int d = 0; d < n; d++) {
+            if (strides[driver][d] != 0) {
+                held++;
+            } else {
+                free++;
+            }
+        }
+        int[] heldCards = new int[held];
+        int[] heldOut = new int[held];
+        int[] heldStride = new int[held];
+        int[][] heldIn = new int[held][];
+        int[] freeCards = new int[free];
+        int[] freeOut = new int[free];
+        int[][] freeIn = new int[free][];
+        int h = 0;
+        int g = 0;
+        for (int d = -1; d < n; d++) {
+            int s = d < 0 ? sumStrides[driver] : strides[driver][d];
+            int[] in2 = new int[k];
+            for (int f = 0; f < k; f++) {
+                in2[f] = d < 0 ? sumStrides[f] : strides[f][d];
+            }
+            if (s == 0) {
+                if (d >= 0) {
+                    freeCards[g] = cards[d];
+                    freeOut[g] = outStrides[d];
+                    freeIn[g++] = in2;
+                }
+                continue;
+            }
+            //insertion by decreasing stride in the driver
+            int i = h++;
+            while (i > 0 && heldStride[i - 1] < s) {
+                heldCards[i] = heldCards[i - 1];
+                heldOut[i] = heldOut[i - 1];
+                heldStride[i] = heldStride[i - 1];
+                heldIn[i] = heldIn[i - 1];
+                i--;
             }
-            int indexInSecondFactor = f.getIndexForAssignment(f2Assignment, bn);
-            Double factorValue2 = f.getFactorValues().get(indexInSecondFactor);
+            heldCards[i] = d < 0 ? sumCard : cards[d];
+            heldOut[i] = d < 0 ? 0 : outStrides[d];
+            heldStride[i] = s;
+            heldIn[i] = in2;
+        }
+        //the summed variable is walked with the free variables when the driver does not hold it
+        int outcomes = sumStrides[driver] != 0 ? 1 : sumCard;
+        int[] sumIn = sumStrides[driver] != 0 ? new int[k] : sumStrides;
 
-            //add the product in the new map
-            joinedFactorValues.set(i, factorValue1*factorValue2);
+        Arrays.fill(out, 0.0);
+        int[] base = new int[k];
+        int[] offset = new int[k];
+        int[] heldCounter = new int[held];
+        int[] freeCounter = new int[free];
+        int outBase = 0;
+        for (int cell = 0; cell < driving.length; cell++) {
+            if (driving[cell] != 0.0) {
+                int outOffset = 0;
+                while (true) {
+                    int o = outBase + outOffset;
+                    double sum = out[o];
+                    for (int j = 0; j < outcomes; j++) {
+                        double product = in[0][base[0] + offset[0] + j * sumIn[0]];
+                        for (int f = 1; f < k; f++) {
+                            product *= in[f][base[f] + offset[f] + j * sumIn[f]];
+                        }
+                        sum += product;
+                    }
+                    out[o] = sum;
+                    //increment the counter of the free variables starting from the last (fastest changing) one
+                    int i = free - 1;
+                    for (; i >= 0; i--) {
+                        outOffset += freeOut[i];
+                        for (int f = 0; f < k; f++) {
+                            offset[f] += freeIn[i][f];
+                        }
+                        if (++freeCounter[i] < freeCards[i]) {
+                            break;
+                        }
+                        outOffset -= freeOut[i] * freeCards[i];
+                        for (int f = 0; f < k; f++) {
+                            offset[f] -= freeIn[i][f] * freeCards[i];
+                        }
+                        freeCounter[i] = 0;
+                    }
+                    if (i < 0) {
+                        break;
+                    }
+                }
+            }
+            //move to the next cell of the driver
+            for (int i = held - 1; i >= 0; i--) {
+                outBase += heldOut[i];
+                for (int f = 0; f < k; f++) {
+                    base[f] += heldIn[i][f];
+                }
+                if (++heldCounter[i] < heldCards[i]) {
+                    break;
+                }
+                outBase -= heldOut[i] * heldCards[i];
+                for (int f = 0; f < k; f++) {
+                    base[f] -= heldIn[i][f] * heldCards[i];
+                }
+                heldCounter[i] = 0;
+            }
         }
+    }
 
-        joinedFactor.setFactorValues(joinedFactorValues);
-        return joinedFactor;
+    /**
+     * method to count the nonzero cells of a table
+     * @param values values of the table
+     * @return number of nonzero cells
+     */
+    static int countNonZeros(double[] values) {
+        int count = 0;
+        for (double value : values) {
+            if (value != 0.0) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
-     * method to perform sum operation on factor
-     * @param nuisanceVar nuisance variable on which the sum operation is performed
-     * @param bn Bayesian Network object
-     * @return return sum factor
+     * method to multiply a table by a power of two so that its largest value is in [0.5, 1)
+     * multiplying by a power of two is exact, so the ratios of the values do not change
+     * @param values values of the table, all normal or 0
+     * @return exponent e of the scale 2^-e the values were multiplied by, RESCALE_FAILED if the table would need to
+     *         shrink so much that one of its nonzero values underflows
      */
-    public Factor sumFactor(String nuisanceVar, BayesianNetwork bn){
+    static int rescale(double[] values) {
+        double max = 0.0;
+        double minNonZero = Double.MAX_VALUE;
+        for (double value : values) {
+            max = Math.max(max, value);
+            if (value != 0.0) {
+                minNonZero = Math.min(minNonZero, value);
+            }
+        }
+        if (max == 0.0) {
+            return 0;
+        }
+        int exponent = Math.getExponent(max) + 1;
+        if (exponent > 0 && Math.scalb(minNonZero, -exponent) < Double.MIN_NORMAL) {
+            return RESCALE_FAILED;
+        }
+        double scale = Math.scalb(1.0, -exponent);
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= scale;
+        }
+        return exponent;
+    }
+
+    /**
+     * method to convert a log space table back to values, shifted so that the largest value is 1
+     * @param logs log values
+     * @param out output values
+     * @return log value that was shifted to 1 (0 if every value is 0), NaN if a nonzero value underflows, the
+     *         output is then incomplete
+     */
+    static double fromLog(double[] logs, double[] out) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double log : logs) {
+            max = Math.max(max, log);
+        }
+        for (int i = 0; i < logs.length; i++) {
+            double value = max == Double.NEGATIVE_INFINITY ? 0.0 : Math.exp(logs[i] - max);
+            if (value < Double.MIN_NORMAL && logs[i] != Double.NEGATIVE_INFINITY) {
+                return Double.NaN;
+            }
+            out[i] = value;
+        }
+        return max == Double.NEGATIVE_INFINITY ? 0.0 : max;
+    }
+
+    /**
+     * kernel to join log space tables and sum out one variable in a single pass
+     * the log of a product is the sum of the logs of the inputs, and the sum over the outcomes of the summed
+     * variable is a log-sum-exp: the largest term is taken out so that every exponential is at most 1 and the
+     * result cannot overflow or underflow. The terms of a cell are kept in a small array, so the loops over the
+     * outcomes have no dependency between iterations. A cell whose terms are all -Infinity (probability 0) stays
+     * -Infinity.
+     * @see #joinSumKernel(double[][], int[][], int[], int, int[], double[])
+     * @param in log values of the input factors
+     * @param strides stride of each output variable in each input factor (0 if absent)
+     * @param sumStrides stride of the summed variable in each input factor (0 if absent)
+     * @param sumCard no of outcomes of the summed variable (1 to only join)
+     * @param cards cardinalities of the output variables
+     * @param out output log values
+     */
+    static void logJoinSumKernel(double[][] in, int[][] strides, int[] sumStrides, int sumCard, int[] cards,
+                                 double[] out) {
+        forRange(out.length, (from, to) -> logJoinSumKernel(in, strides, sumStrides, sumCard, cards, out, from, to));
+    }
 
-        //create new factor
-        Factor eliminatedFactor = new Factor();    
-        //get variables involved in the initial factor    
-        ArrayList<String> f1Var = this.getFactorVariableNames();   
-
-        //set the variable names in the new factor - nuisance variable will be removed from the new factor
-        ArrayList<String> varInNewFactor = new ArrayList<String>();
-        varInNewFactor.addAll(f1Var);
-        varInNewFactor.remove(nuisanceVar);
-        eliminatedFactor.setFactorVariableNames(varInNewFactor);
-
-        //calculate the size of values in the new factor and initialise the new factor values list with all 0
-        BNVariable nuisanceBnVar = bn.getVariable(nuisanceVar);
-        int noOfOutComesinNuisanceVar = nuisanceBnVar.getNoOfOutcomes();
-        //size of new factor value list will be reduced to (initial size / no of outcomes in nuisance variable)
-        int sizeOfEliminatedFactorValueArray = this.getFactorValues().size() / noOfOutComesinNuisanceVar;
-        ArrayList<Double> eliminatedFactorValues = new ArrayList<>(Collections.nCopies(sizeOfEliminatedFactorValueArray, 0.0));
-        eliminatedFactor.setFactorValues(eliminatedFactorValues);
-
-        HashMap<String,Integer> assignmentInFactor = new HashMap<String, Integer>();
-
-        for(int i=0; i< eliminatedFactorValues.size();i++){
-            HashMap<String,Integer> assignment = eliminatedFactor.getAssignmentForIndex(i, bn);
-            Double sum = 0.0;
-            //iterate over each row of the new value list and partially initialise the assignment based on the variables in the new factor
-            for (String variable : varInNewFactor) {
-                assignmentInFactor.put(variable, assignment.get(variable));
+    /**
+     * kernel to join log space tables and sum out one variable into a range of cells of the output table
+     * @see #logJoinSumKernel(double[][], int[][], int[], int, int[], double[])
+     * @param from first output cell
+     * @param to end of the range (exclusive)
+     */
+    static void logJoinSumKernel(double[][] in, int[][] strides, int[] sumStrides, int sumCard, int[] cards,
+                                 double[] out, int from, int to) {
+        int k = in.length;
+        int n = cards.length;
+        int[] counter = startCounter(from, cards);
+        int[] base = new int[k];
+        for (int f = 0; f < k; f++) {
+            base[f] = position(counter, strides[f]);
+        }
+        double[] terms = new double[sumCard];
+        for (int i = from; i < to; i++) {
+            for (int j = 0; j < sumCard; j++) {
+                double term = in[0][base[0] + j * sumStrides[0]];
+                for (int f = 1; f < k; f++) {
+                    term += in[f][base[f] + j * sumStrides[f]];
+                }
+                terms[j] = term;
             }
-            //iterate over the outcomes of the nuisance variable by keeping the partial assignments fixed 
-            //find the sum corresponding to each assignment in the new factor
-            for(int j=0; j<noOfOutComesinNuisanceVar; j++) {
-                assignmentInFactor.put(nuisanceVar, j);
-                int indexInFactor = this.getIndexForAssignment(assignmentInFactor, bn);
-                sum += this.getFactorValues().get(indexInFactor);
+            out[i] = sumCard == 1 ? terms[0] : logSumExp(terms, 0, sumCard);
+            for (int d = n - 1; d >= 0; d--) {
+                for (int f = 0; f < k; f++) {
+                    base[f] += strides[f][d];
+                }
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                for (int f = 0; f < k; f++) {
+                    base[f] -= strides[f][d] * cards[d];
+                }
+                counter[d] = 0;
             }
-            //assign the sum to corresponding location in the list
-            eliminatedFactorValues.set(i, sum);
         }
-        //set the final value list to the new factor
-        eliminatedFactor.setFactorValues(eliminatedFactorValues);
-        return eliminatedFactor;        
     }
 
     /**
-     * method to perform normalisation on factor
+     * kernel to log-sum-exp every cell of a log space table into the cell of the output that matches the kept
+     * variables, in two passes: the largest value of every output cell, then the sum of the shifted exponentials
+     * @param in log values of the factor
+     * @param cards cardinalities of the variables of the factor
+     * @param sOut stride of each variable of the factor in the output (0 if summed)
+     * @param out output log values
      */
-    public void normalise(){
-        ArrayList<Double> values = this.getFactorValues();
-        ArrayList<Double> normalisedValues = new ArrayList<Double>();
-        Double totalSumAlpha = 0.0; 
+    static void logProjectKernel(double[] in, int[] cards, int[] sOut, double[] out) {
+        int n = cards.length;
+        double[] max = new double[out.length];
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        Arrays.fill(out, 0.0);
+        for (int pass = 0; pass < 2; pass++) {
+            int[] counter = new int[n];
+            int index = 0;
+            for (int i = 0; i < in.length; i++) {
+                if (pass == 0) {
+                    max[index] = Math.max(max[index], in[i]);
+                } else if (max[index] != Double.NEGATIVE_INFINITY) {
+                    out[index] += Math.exp(in[i] - max[index]);
+                }
+                for (int d = n - 1; d >= 0; d--) {
+                    index += sOut[d];
+                    if (++counter[d] < cards[d]) {
+                        break;
+                    }
+                    index -= sOut[d] * cards[d];
+                    counter[d] = 0;
+                }
+            }
+        }
+        for (int i = 0; i < out.length; i++) {
+            out[i] = max[i] + Math.log(out[i]);
+        }
+    }
 
-        //find the total sum by adding all values
-        for (Double val : values) { 
-            totalSumAlpha+=val;
+    /**
+     * method to compute the log of the sum of the exponentials of some values
+     * @param values log values
+     * @param from first value
+     * @param to end of the values (exclusive)
+     * @return log of the sum, -Infinity if every value is -Infinity
+     */
+    static double logSumExp(double[] values, int from, int to) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, values[i]);
+        }
+        if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY) {
+            return max;
+        }
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += Math.exp(values[i] - max);
         }
+        return max + Math.log(sum);
+    }
 
-        //divide each value in the list with the total sum
-        for (Double val : values) {
-            normalisedValues.add(val / totalSumAlpha); 
+    /**
+     * method to take the natural log of every value of a table
+     * @param values probabilities
+     * @return log values, -Infinity for zeros
+     */
+    static double[] toLog(double[] values) {
+        double[] logs = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            logs[i] = Math.log(values[i]);
         }
+        return logs;
+    }
 
-        //set the normalised value list to the factor
-        this.setFactorValues(normalisedValues);
-    } 
+    /**
+     * kernel to join any number of tables and max out one variable in a single pass (max-product elimination)
+     * for every output cell the product (or in log space the sum) of the inputs is computed for each outcome of
+     * the maximised variable, the largest one is kept and the first outcome that gives it is recorded
+     * @param in values of the input factors
+     * @param strides stride of each output variable in each input factor (0 if absent)
+     * @param maxStrides stride of the maximised variable in each input factor (0 if absent)
+     * @param maxCard no of outcomes of the maximised variable
+     * @param cards cardinalities of the output variables
+     * @param out output values
+     * @param argmax receives the outcome index of the maximum of each output cell, null if not needed
+     * @param logSpace true if the inputs hold log values
+     */
+    static void joinMaxKernel(double[][] in, int[][] strides, int[] maxStrides, int maxCard, int[] cards,
+                              double[] out, int[] argmax, boolean logSpace) {
+        forRange(out.length, (from, to) -> joinMaxKernel(in, strides, maxStrides, maxCard, cards, out, argmax,
+                                                         logSpace, from, to));
+    }
 
     /**
-     * method to find stride value of a variable in the list of values in the factor 
-     * @param variable variable in the factor for which the stride needs to be calculated 
-     * @param bn Bayesian Network object
-     * @return return the stride of the variable in the factor
+     * kernel to join tables and max out one variable into a range of cells of the output table
+     * @see #joinMaxKernel(double[][], int[][], int[], int, int[], double[], int[], boolean)
+     * @param from first output cell
+     * @param to end of the range (exclusive)
+     */
+    static void joinMaxKernel(double[][] in, int[][] strides, int[] maxStrides, int maxCard, int[] cards,
+                              double[] out, int[] argmax, boolean logSpace, int from, int to) {
+        int k = in.length;
+        int n = cards.length;
+        int[] counter = startCounter(from, cards);
+        int[] base = new int[k];
+        for (int f = 0; f < k; f++) {
+            base[f] = position(counter, strides[f]);
+        }
+        for (int i = from; i < to; i++) {
+            double best = 0.0;
+            int bestIndex = 0;
+            for (int j = 0; j < maxCard; j++) {
+                double product = in[0][base[0] + j * maxStrides[0]];
+                for (int f = 1; f < k; f++) {
+                    if (logSpace) {
+                        product += in[f][base[f] + j * maxStrides[f]];
+                    } else {
+                        product *= in[f][base[f] + j * maxStrides[f]];
+                    }
+                }
+                if (j == 0 || product > best) {
+                    best = product;
+                    bestIndex = j;
+                }
+            }
+            out[i] = best;
+            if (argmax != null) {
+                argmax[i] = bestIndex;
+            }
+            for (int d = n - 1; d >= 0; d--) {
+                for (int f = 0; f < k; f++) {
+                    base[f] += strides[f][d];
+                }
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                for (int f = 0; f < k; f++) {
+                    base[f] -= strides[f][d] * cards[d];
+                }
+                counter[d] = 0;
+            }
+        }
+    }
+
+    /**
+     * kernel to copy the cells of a table that match a fixed assignment of some of its variables
+     * @param in values of the factor
+     * @param offset index of the first matching cell (sum of stride * value of the fixed variables)
+     * @param sIn stride of each remaining variable in the factor
+     * @param cards cardinalities of the remaining variables
+     * @param out output values
+     */
+    static void gatherKernel(double[] in, int offset, int[] sIn, int[] cards, double[] out) {
+        int n = cards.length;
+        int[] counter = new int[n];
+        int index = offset;
+        for (int i = 0; i < out.length; i++) {
+            out[i] = in[index];
+            for (int d = n - 1; d >= 0; d--) {
+                index += sIn[d];
+                if (++counter[d] < cards[d]) {
+                    break;
+                }
+                index -= sIn[d] * cards[d];
+                counter[d] = 0;
+            }
+        }
+    }
+
+    /**
+     * method to set the counter of every variable for a cell of a table
+     * @param index index of the cell
+     * @param cards cardinalities of the variables
+     * @return outcome index of each variable
+     */
+    private static int[] startCounter(int index, int[] cards) {
+        int[] counter = new int[cards.length];
+        for (int d = cards.length - 1; d >= 0; d--) {
+            counter[d] = index % cards[d];
+            index /= cards[d];
+        }
+        return counter;
+    }
+
+    /**
+     * method to get the position in a table for an assignment of the variables
+     * @param counter outcome index of each variable
+     * @param strides stride of each variable in the table
+     * @return index in the table
+     */
+    private static int position(int[] counter, int[] strides) {
+        int index = 0;
+        for (int d = 0; d < counter.length; d++) {
+            index += counter[d] * strides[d];
+        }
+        return index;
+    }
+
+    /**
+     * kernel over a range of output cells
+     */
+    interface RangeKernel {
+        void run(int from, int to);
+    }
+
+    /**
+     * fork/join task that splits a range of output cells in halves until it is small enough
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient RangeKernel kernel;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(RangeKernel kernel, int from, int to, int grain) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                kernel.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(kernel, from, mid, grain), new RangeTask(kernel, mid, to, grain));
+        }
+    }
+
+    /**
+     * method to run a kernel over all the cells of an output table
+     * tables below the parallel threshold are computed sequentially, larger ones are split across the common
+     * fork/join pool. Every output cell is computed by the same loop either way, so the results are identical.
+     * @param size number of output cells
+     * @param kernel kernel to run
+     */
+    static void forRange(int size, RangeKernel kernel) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (size < parallelThreshold || parallelism < 2) {
+            kernel.run(0, size);
+            return;
+        }
+        int grain = Math.max(MIN_PARALLEL_GRAIN, size / (4 * parallelism));
+        ForkJoinPool.commonPool().invoke(new RangeTask(kernel, 0, size, grain));
+    }
+
+    /**
+     * method to set the size of the output table from which the kernels run in parallel
+     * @param threshold number of cells, Integer.MAX_VALUE to always run sequentially
+     */
+    public static void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * method to decide whether a table is sparse enough to drive the sparse kernel
+     * the sparse kernel computes one cell of the product space for every nonzero cell of the driving table,
+     * so its cost is the cost of the dense kernel times the density of the driver
+     * @param density fraction of nonzero cells of the table
+     * @return true if the density is below the threshold
+     */
+    static boolean isSparse(double density) {
+        return density < densityThreshold;
+    }
+
+    /**
+     * method to set the density below which a table drives the sparse kernel
+     * @param threshold fraction of nonzero cells, 0 to always use the dense kernels
+     */
+    public static void setDensityThreshold(double threshold) {
+        densityThreshold = threshold;
+    }
+
+    public static double getDensityThreshold() {
+        return densityThreshold;
+    }
+
+    /**
+     * method to keep only the cells where a variable takes a given value
+     * @param in values of the factor
+     * @param card no of outcomes of the assigned variable
+     * @param stride stride of the assigned variable
+     * @param valueIndex index of the assigned outcome
+     * @return values of the reduced factor
+     */
+    static double[] assignValues(double[] in, int card, int stride, int valueIndex) {
+        double[] out = new double[in.length / card];
+        int blocks = out.length / stride;
+        for (int b = 0; b < blocks; b++) {
+            //each block of the variable holds card runs of stride values, copy the run of the assigned value
+            System.arraycopy(in, (b * card + valueIndex) * stride, out, b * stride, stride);
+        }
+        return out;
+    }
+
+    /**
+     * method to compute the size of a table
+     * @param cards cardinalities of the variables
+     * @return product of the cardinalities
+     */
+    static int tableSize(int[] cards) {
+        int size = 1;
+        for (int card : cards) {
+            size *= card;
+        }
+        return size;
+    }
+
+    /**
+     * method to set cardinalities and compute the stride of every variable
+     * stride =  product of no of outcomes of variables followed by the current variable in the list
+     * @param cards cardinalities of the variables
      */
-    private int getStride(String variable, BayesianNetwork bn){
+    private void setLayout(int[] cards) {
+        this.cardinalities = cards;
+        this.strides = new int[cards.length];
         int stride = 1;
-        //get variable index in the factor
-        int varIndex = this.factorVariableNames.indexOf(variable);
-        //return 1 if the variable is the last variable in the list
-        if(varIndex==factorVariableNames.size()-1)
-            return stride;
-        //stride =  product of no of outcomes of variables followed by the current variable in the list 
-        for (int i = varIndex+1; i<factorVariableNames.size(); i++) {
-            BNVariable bnV = bn.getVariable(factorVariableNames.get(i));
-            int outcomeCount = bnV.getOutcomes().size();
-            stride *= outcomeCount;
+        for (int i = cards.length - 1; i >= 0; i--) {
+            this.strides[i] = stride;
+            stride *= cards[i];
         }
-        
-        return stride;
     }
 
     /**
-     * method to get index of a particular assignment in the factor 
-     * @param assign assignment with the variable name and value 
+     * method to look up the ids and cardinalities in the network when the factor was built from names only
      * @param bn Bayesian Network object
-     * @return return the assignment index
      */
-    private int getIndexForAssignment(HashMap<String,Integer> assign, BayesianNetwork bn){
-        int assignmentIndex = 0;
-        //iterate over each value in the assignment list and sum the value of (assignment(i) * stride)
-        for (int i = 0; i<assign.size(); i++) {
-            String varName = this.getFactorVariableNames().get(i);
-            int stride = getStride(varName, bn);
-            assignmentIndex += stride * assign.get(varName);
+    private void resolveScope(BayesianNetwork bn) {
+        if (this.scope != null && (this.factorVariableNames == null
+                                   || this.scope.length == this.factorVariableNames.size())) {
+            return;
+        }
+        int[] ids = new int[this.factorVariableNames.size()];
+        int[] cards = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = bn.getVariableId(this.factorVariableNames.get(i));
+            cards[i] = bn.getCardinality(ids[i]);
         }
-        return assignmentIndex;
+        this.scope = ids;
+        setLayout(cards);
     }
 
     /**
-     * method to get assignment for a particular index in the factor 
-     * @param index index value
+     * method to fill in the variable names of the factor from the network
      * @param bn Bayesian Network object
-     * @return return the assignment 
+     * @return this factor
      */
-    private HashMap<String,Integer> getAssignmentForIndex(int index, BayesianNetwork bn){
+    private Factor withNames(BayesianNetwork bn) {
+        this.factorVariableNames = new ArrayList<>(scope.length);
+        for (int var : scope) {
+            this.factorVariableNames.add(bn.getVariableName(var));
+        }
+        return this;
+    }
 
-        HashMap<String,Integer> assign = new HashMap<String, Integer>();
-        ArrayList<String> varNames = this.getFactorVariableNames();
-        int tempIndex = index;
-        //assign(i) = index/stride , for each iteration index will be reduced to the remainder of the division operation
-        for (String varName : varNames) {
-            int stride = getStride(varName, bn);
-            assign.put(varName, tempIndex/stride);
-            tempIndex %=stride;
+    /**
+     * method to get the factor in log space
+     * @return this factor if it is in log space, otherwise a new factor with the natural logs of the values
+     */
+    public Factor toLogSpace() {
+        if (this.logSpace) {
+            return this;
         }
-        return assign;
-        
+        return withValues(toLog(this.values), true);
+    }
+
+    /**
+     * method to get the factor with probabilities as values
+     * @return this factor if it is not in log space, otherwise a new factor with the exponentials of the values
+     */
+    public Factor toLinearSpace() {
+        if (!this.logSpace) {
+            return this;
+        }
+        double[] linear = new double[this.values.length];
+        for (int i = 0; i < linear.length; i++) {
+            linear[i] = Math.exp(this.values[i]);
+        }
+        return withValues(linear, false);
+    }
+
+    /**
+     * method to copy the factor with other values
+     * @param newValues values of the copy
+     * @param newLogSpace true if the new values are in log space
+     * @return factor with the same scope and names
+     */
+    private Factor withValues(double[] newValues, boolean newLogSpace) {
+        Factor copy = new Factor();
+        copy.scope = this.scope;
+        copy.cardinalities = this.cardinalities;
+        copy.strides = this.strides;
+        copy.factorVariableNames = this.factorVariableNames;
+        copy.values = newValues;
+        copy.logSpace = newLogSpace;
+        return copy;
+    }
+
+    /**
+     * method to get the no of nonzero values, they are counted the first time
+     * @return no of nonzero values
+     */
+    private int nonZeros() {
+        if (nonZeros < 0) {
+            nonZeros = countNonZeros(values);
+        }
+        return nonZeros;
+    }
+
+    private Factor inSpace(boolean logSpace) {
+        this.logSpace = logSpace;
+        return this;
+    }
+
+    private static int[] removeAt(int[] array, int index) {
+        int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
     }
 
     //getters and setters methods
 
+    /**
+     * compatibility getter for the variable names
+     * @return variable names, null for factors that were only built from variable ids
+     */
     public ArrayList<String> getFactorVariableNames() {
         return factorVariableNames;
     }
 
     public void setFactorVariableNames(ArrayList<String> factorVariableNames) {
         this.factorVariableNames = factorVariableNames;
+        this.scope = null;
+        this.cardinalities = null;
+        this.strides = null;
     }
 
+    /**
+     * compatibility getter, boxes the values into a new list
+     * @return copy of the values as a list
+     */
     public ArrayList<Double> getFactorValues() {
-        return factorValues;
+        ArrayList<Double> boxed = new ArrayList<>(values.length);
+        for (double value : values) {
+            boxed.add(value);
+        }
+        return boxed;
     }
 
+    /**
+     * compatibility setter, copies the list into the primitive value array
+     * @param factorValues probabilities in row-major order
+     */
     public void setFactorValues(ArrayList<Double> factorValues) {
-        this.factorValues = factorValues;
+        this.values = new double[factorValues.size()];
+        this.nonZeros = -1;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = factorValues.get(i);
+        }
+    }
+
+    public int[] getScope() {
+        return scope;
+    }
+
+    public double[] getValues() {
+        return values;
     }
-    
-}
\ No newline at end of file
+
+    public void setValues(double[] values) {
+        this.values = values;
+        this.nonZeros = -1;
+    }
+
+    public int[] getCardinalities() {
+        return cardinalities;
+    }
+
+    public int[] getStrides() {
+        return strides;
+    }
+
+    public boolean isLogSpace() {
+        return logSpace;
+    }
+
+}
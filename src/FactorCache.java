@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that stores the factors produced by the steps of query plans in a bounded cache shared across queries
+ * A step output only depends on the probability tables it was computed from, the variables summed out, the
+ * evidence variables of those tables and their values, so its key is a canonical signature of these and of the
+ * output scope, plus the bound evidence values. Plans of different queries that eliminate the same sub-network
+ * with the same evidence share the entries, and a hit also skips every step below it.
+ * The cache is bounded by the bytes of its entries. Lookups do not lock, and a thread that goes over the bound
+ * takes the eviction lock to remove the least recently used entries until the cache is back to three quarters of
+ * the bound, so evictions are done in batches.
+ * @author 220031271
+ */
+public class FactorCache {
+
+    private static final int ENTRY_OVERHEAD = 128;     //approximate bytes of the objects of an entry
+
+    /**
+     * key of a cached factor, the network is compared by identity
+     */
+    static final class Key {
+        private final CompiledNetwork net;
+        private final int[] signature;      //tables, summed variables, evidence variables and scope of the step
+        private final int[] evidenceValues; //values of the evidence variables of the signature
+        private final boolean logSpace;
+        private final int hash;
+
+        Key(CompiledNetwork net, int[] signature, int signatureHash, int[] evidenceValues, boolean logSpace) {
+            this.net = net;
+            this.signature = signature;
+            this.evidenceValues = evidenceValues;
+            this.logSpace = logSpace;
+            this.hash = 2 * (31 * (31 * System.identityHashCode(net) + signatureHash)
+                             + Arrays.hashCode(evidenceValues)) + (logSpace ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && net == k.net && logSpace == k.logSpace
+                   && Arrays.equals(evidenceValues, k.evidenceValues) && Arrays.equals(signature, k.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * cached output of a step with the time it was last used
+     */
+    static final class Entry {
+        final double[] values;      //linear values, null if the factor is in log space
+        final double[] logValues;   //log values, null if the factor is in linear space
+        final double logScale;      //log of the factor the values were divided by
+        final long bytes;
+        volatile long lastUsed;
+
+        Entry(Key key, double[] values, double[] logValues, double logScale) {
+            this.values = values;
+            this.logValues = logValues;
+            this.logScale = logScale;
+            int length = values != null ? values.length : logValues.length;
+            this.bytes = ENTRY_OVERHEAD + 8L * length + 4L * (key.signature.length + key.evidenceValues.length);
+        }
+    }
+
+    private final long capacityBytes;
+    private volatile long minimumWork;
+    private final ConcurrentHashMap<Key, Entry> factors = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();     //logical time of the uses
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Object evictionLock = new Object();
+
+    /**
+     * constructor
+     * @param capacityBytes maximum number of bytes kept in the cache
+     * @param minimumWork steps whose subtree joins fewer cells than this are not cached, the lookup would cost
+     *                    more than the elimination
+     */
+    public FactorCache(long capacityBytes, long minimumWork) {
+        this.capacityBytes = capacityBytes;
+        this.minimumWork = minimumWork;
+    }
+
+    /**
+     * method to look up the output of a step
+     * @param key signature and evidence values of the step
+     * @return cached factor, null on a miss
+     */
+    Entry get(Key key) {
+        Entry entry = factors.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.lastUsed = clock.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * method to add the output of a step, the arrays are copied
+     * @param key signature and evidence values of the step
+     * @param values linear values, null if the factor is in log space
+     * @param logValues log values, null if the factor is in linear space
+     * @param logScale log of the factor the values were divided by
+     */
+    void put(Key key, double[] values, double[] logValues, double logScale) {
+        Entry entry = new Entry(key, values == null ? null : values.clone(),
+                                logValues == null ? null : logValues.clone(), logScale);
+        if (entry.bytes > capacityBytes) {
+            return;
+        }
+        entry.lastUsed = clock.incrementAndGet();
+        if (factors.putIfAbsent(key, entry) == null && bytes.addAndGet(entry.bytes) > capacityBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * method to remove the least recently used entries until the cache is back to three quarters of its bound
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            if (bytes.get() <= capacityBytes) {
+                return;
+            }
+            ArrayList<Map.Entry<Key, Entry>> entries = new ArrayList<>(factors.entrySet());
+            entries.sort((a, b) -> Long.compare(a.getValue().lastUsed, b.getValue().lastUsed));
+            long target = capacityBytes / 4 * 3;
+            for (Map.Entry<Key, Entry> e : entries) {
+                if (bytes.get() <= target) {
+                    return;
+                }
+                if (factors.remove(e.getKey(), e.getValue())) {
+                    bytes.addAndGet(-e.getValue().bytes);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * method to remove all the factors
+     */
+    public void clear() {
+        synchronized (evictionLock) {
+            for (Key key : factors.keySet()) {
+                Entry entry = factors.remove(key);
+                if (entry != null) {
+                    bytes.addAndGet(-entry.bytes);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return factors.size();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public long getMinimumWork() {
+        return minimumWork;
+    }
+
+    /**
+     * method to set the smallest subtree work of a cached step
+     * @param minimumWork no of joined cells of the step and the steps below it
+     */
+    public void setMinimumWork(long minimumWork) {
+        this.minimumWork = minimumWork;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the ratio of lookups that found a factor
+     * @return hits over lookups, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long lookups = h + misses.sum();
+        return lookups == 0 ? 0.0 : (double) h / lookups;
+    }
+}
@@ -0,0 +1,461 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class that draws joint samples of all the variables of a network by forward (ancestral) sampling, to write
+ * synthetic datasets
+ * Every row of every probability table is turned into a sampling table once: a cumulative table for variables
+ * with few outcomes and an alias table (Vose) for the others, so each value is drawn in constant time. Samples are
+ * drawn in columnar batches (one column per variable, filled in topological order) by a pool of worker threads, and
+ * the batches are written in order by the calling thread. Only a bounded window of batches exists at any time, so
+ * the memory used does not depend on the number of samples. Batch i always draws from the i-th split of the seeded
+ * random stream, so the output only depends on the seed and the batch size, not on the number of threads.
+ *
+ * CSV output has a header line with the variable names and one line per sample with the outcome of each variable.
+ * Binary output layout (little-endian):
+ *   header    magic "BNSS", version, variable count, bytes per value (1, 2 or 4), number of samples
+ *   metadata  for each variable its name and outcomes (strings are a length followed by UTF-8 bytes)
+ *   batches   number of rows, then the outcome indexes of each variable for those rows, one column after another
+ * @author 220031271
+ */
+public class ForwardSampler {
+
+    public enum Format {
+        CSV,
+        BINARY
+    }
+
+    public static final int MAGIC = 0x53534E42;     //"BNSS" in little-endian order
+    public static final int VERSION = 1;
+
+    private static final int ALIAS_THRESHOLD = 8;            //variables with more outcomes use alias tables
+    private static final int MAX_BATCH_VALUES = 1 << 22;     //values in one batch, bounds the rows of wide networks
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final CompiledNetwork net;
+    private final int[] order;             //variables in topological order
+    private final int[] cardinalities;
+    private final int[][] parents;
+    private final int[][] rowStrides;      //offset of one step of each parent in the sampling table of the variable
+    private final double[][] tables;       //cumulative probabilities, or alias probabilities scaled to [0, 1]
+    private final int[][] aliases;         //alias of each cell, null for a cumulative table
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = 4096;
+    private long seed = System.nanoTime();
+
+    /**
+     * constructor to build the sampling tables of a network
+     * @param bn Bayesian Network object
+     */
+    public ForwardSampler(BayesianNetwork bn) {
+        this.net = bn.getCompiled();
+        int n = net.getVariableCount();
+        this.order = net.topologicalOrder();
+        if (order.length != n) {
+            throw new IllegalStateException("The given graph is not a Directed Acyclic Graph");
+        }
+        this.cardinalities = net.cardinalities();
+        this.parents = new int[n][];
+        this.rowStrides = new int[n][];
+        this.tables = new double[n][];
+        this.aliases = new int[n][];
+        for (int id = 0; id < n; id++) {
+            int card = cardinalities[id];
+            parents[id] = net.parents(id);
+            rowStrides[id] = new int[parents[id].length];
+            int stride = card;
+            for (int j = parents[id].length - 1; j >= 0; j--) {
+                rowStrides[id][j] = stride;
+                stride *= cardinalities[parents[id][j]];
+            }
+
+            double[] cpt = net.cpt(id);
+            tables[id] = new double[cpt.length];
+            aliases[id] = card > ALIAS_THRESHOLD ? new int[cpt.length] : null;
+            int[] small = new int[card];
+            int[] large = new int[card];
+            for (int offset = 0; offset < cpt.length; offset += card) {
+                double total = 0;
+                for (int k = 0; k < card; k++) {
+                    total += cpt[offset + k];
+                }
+                if (!(total > 0)) {
+                    throw new IllegalStateException("Probability table of " + net.getVariableName(id)
+                                                    + " has a row that does not sum to a positive value");
+                }
+                if (aliases[id] == null) {
+                    cumulativeRow(cpt, offset, card, total, tables[id]);
+                } else {
+                    aliasRow(cpt, offset, card, total, tables[id], aliases[id], small, large);
+                }
+            }
+        }
+    }
+
+    /**
+     * method to build the cumulative table of one row
+     * the cells from the last possible value on are set to exactly 1, so a draw never falls past the row
+     * @param cpt probability table
+     * @param offset offset of the row
+     * @param card no of outcomes of the variable
+     * @param total sum of the row
+     * @param table sampling table of the variable
+     */
+    private static void cumulativeRow(double[] cpt, int offset, int card, double total, double[] table) {
+        int last = 0;
+        double sum = 0;
+        for (int k = 0; k < card; k++) {
+            sum += cpt[offset + k];
+            table[offset + k] = sum / total;
+            if (cpt[offset + k] > 0) {
+                last = k;
+            }
+        }
+        for (int k = last; k < card; k++) {
+            table[offset + k] = 1;
+        }
+    }
+
+    /**
+     * method to build the alias table of one row with Vose's method
+     * @param cpt probability table
+     * @param offset offset of the row
+     * @param card no of outcomes of the variable
+     * @param total sum of the row
+     * @param table sampling table of the variable, receives the probability of keeping each cell
+     * @param alias alias table of the variable, receives the value drawn when a cell is not kept
+     * @param small buffer for the cells below the average
+     * @param large buffer for the cells above the average
+     */
+    private static void aliasRow(double[] cpt, int offset, int card, double total, double[] table, int[] alias,
+                                 int[] small, int[] large) {
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int k = 0; k < card; k++) {
+            table[offset + k] = cpt[offset + k] * card / total;
+            alias[offset + k] = k;
+            if (table[offset + k] < 1) {
+                small[smallCount++] = k;
+            } else {
+                large[largeCount++] = k;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[largeCount - 1];
+            alias[offset + less] = more;
+            table[offset + more] -= 1 - table[offset + less];
+            if (table[offset + more] < 1) {
+                largeCount--;
+                small[smallCount++] = more;
+            }
+        }
+        //cells left over only differ from 1 by rounding
+        while (largeCount > 0) {
+            table[offset + large[--largeCount]] = 1;
+        }
+        while (smallCount > 0) {
+            table[offset + small[--smallCount]] = 1;
+        }
+    }
+
+    /**
+     * method to draw one batch of samples
+     * @param rng random stream of the batch
+     * @param rows number of samples
+     * @param columns receives the outcome index of variable id for sample r at id * rows + r
+     * @param rowOffsets buffer with one cell per sample
+     */
+    void sampleBatch(SplittableRandom rng, int rows, int[] columns, int[] rowOffsets) {
+        for (int id : order) {
+            int card = cardinalities[id];
+            double[] table = tables[id];
+            int[] alias = aliases[id];
+            int[] parentIds = parents[id];
+            int[] strides = rowStrides[id];
+
+            // offset of the row of every sample from the columns of the parents, which are already drawn
+            Arrays.fill(rowOffsets, 0, rows, 0);
+            for (int j = 0; j < parentIds.length; j++) {
+                int column = parentIds[j] * rows;
+                int stride = strides[j];
+                for (int r = 0; r < rows; r++) {
+                    rowOffsets[r] += columns[column + r] * stride;
+                }
+            }
+
+            int column = id * rows;
+            if (alias == null) {
+                for (int r = 0; r < rows; r++) {
+                    int offset = rowOffsets[r];
+                    double u = rng.nextDouble();
+                    int k = 0;
+                    while (u >= table[offset + k]) {
+                        k++;
+                    }
+                    columns[column + r] = k;
+                }
+            } else {
+                for (int r = 0; r < rows; r++) {
+                    int offset = rowOffsets[r];
+                    double u = rng.nextDouble() * card;
+                    int cell = Math.min((int) u, card - 1);
+                    columns[column + r] = u - cell < table[offset + cell] ? cell : alias[offset + cell];
+                }
+            }
+        }
+    }
+
+    /**
+     * method to draw samples and write them to a file
+     * @param count number of samples, positive
+     * @param file output file
+     * @param format CSV or binary output
+     * @throws IOException if the file cannot be written
+     */
+    public void sample(long count, File file, Format format) throws IOException {
+        checkCount(count);
+        try (OutputStream out = new FileOutputStream(file)) {
+            sample(count, out, format);
+        }
+    }
+
+    /**
+     * method to draw samples and stream them to an output stream
+     * at most two batches per thread are drawn ahead of the batch being written
+     * @param count number of samples, positive
+     * @param out output stream, flushed but not closed
+     * @param format CSV or binary output
+     * @throws IOException if the samples cannot be written
+     */
+    public void sample(long count, OutputStream out, Format format) throws IOException {
+        checkCount(count);
+        int n = net.getVariableCount();
+        int rows = Math.max(1, Math.min(batchSize, MAX_BATCH_VALUES / Math.max(1, n)));
+        int workers = threads;
+        BatchWriter writer = format == Format.CSV ? new CsvWriter(out) : new BinaryWriter(out, count);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "forward-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            SplittableRandom root = new SplittableRandom(seed);
+            ArrayDeque<Future<int[]>> pending = new ArrayDeque<>();
+            ArrayDeque<int[]> free = new ArrayDeque<>();
+            long submitted = 0;
+            long written = 0;
+            while (written < count) {
+                // keep the window of batches full, each batch takes the next split of the stream in order
+                while (submitted < count && pending.size() < 2 * workers) {
+                    int batchRows = (int) Math.min(rows, count - submitted);
+                    int[] columns = free.isEmpty() ? new int[n * rows] : free.poll();
+                    SplittableRandom rng = root.split();
+                    pending.add(pool.submit(() -> {
+                        sampleBatch(rng, batchRows, columns, new int[batchRows]);
+                        return columns;
+                    }));
+                    submitted += batchRows;
+                }
+                int batchRows = (int) Math.min(rows, count - written);
+                int[] columns = pending.poll().get();
+                writer.write(columns, batchRows);
+                written += batchRows;
+                free.add(columns);
+            }
+            writer.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sampling was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sampling failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * method to check the number of samples before anything is written
+     * @param count number of samples
+     */
+    private static void checkCount(long count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Number of samples must be positive: " + count);
+        }
+    }
+
+    /**
+     * Interface of the CSV and the binary output
+     */
+    private interface BatchWriter {
+        void write(int[] columns, int rows) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    /**
+     * Class that writes batches as CSV lines
+     */
+    private final class CsvWriter implements BatchWriter {
+
+        private final Writer writer;
+        private final String[][] outcomes;
+
+        CsvWriter(OutputStream out) throws IOException {
+            int n = net.getVariableCount();
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+            this.outcomes = new String[n][];
+            for (int id = 0; id < n; id++) {
+                outcomes[id] = net.getOutcomes(id).toArray(new String[0]);
+                if (id > 0) {
+                    writer.write(',');
+                }
+                writer.write(net.getVariableName(id));
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void write(int[] columns, int rows) throws IOException {
+            int n = outcomes.length;
+            for (int r = 0; r < rows; r++) {
+                for (int id = 0; id < n; id++) {
+                    if (id > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(outcomes[id][columns[id * rows + r]]);
+                }
+                writer.write('\n');
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Class that writes batches in the binary layout
+     */
+    private final class BinaryWriter implements BatchWriter {
+
+        private final OutputStream out;
+        private final int valueBytes;
+        private ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        BinaryWriter(OutputStream out, long count) throws IOException {
+            int n = net.getVariableCount();
+            int maxCard = 1;
+            for (int card : cardinalities) {
+                maxCard = Math.max(maxCard, card);
+            }
+            this.out = new BufferedOutputStream(out, WRITE_BUFFER_SIZE);
+            this.valueBytes = maxCard <= 1 << 8 ? 1 : maxCard <= 1 << 16 ? 2 : 4;
+            ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(n);
+            header.putInt(valueBytes);
+            header.putLong(count);
+            this.out.write(header.array());
+            for (int id = 0; id < n; id++) {
+                putString(net.getVariableName(id));
+                buffer.putInt(cardinalities[id]);
+                for (String outcome : net.getOutcomes(id)) {
+                    putString(outcome);
+                }
+            }
+            flush();
+        }
+
+        private void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (buffer.remaining() < 8 + bytes.length) {
+                flush();
+                if (buffer.capacity() < 8 + bytes.length) {
+                    buffer = ByteBuffer.allocate(8 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void flush() throws IOException {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        @Override
+        public void write(int[] columns, int rows) throws IOException {
+            buffer.putInt(rows);
+            int values = cardinalities.length * rows;
+            for (int i = 0; i < values; i++) {
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                if (valueBytes == 1) {
+                    buffer.put((byte) columns[i]);
+                } else if (valueBytes == 2) {
+                    buffer.putShort((short) columns[i]);
+                } else {
+                    buffer.putInt(columns[i]);
+                }
+            }
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            flush();
+            out.flush();
+        }
+    }
+
+    /**
+     * method to set the number of worker threads
+     * @param threads number of threads
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * method to set the number of samples in one batch
+     * batches of wide networks are made smaller, so that one batch holds at most about 4 million values
+     * @param batchSize number of samples
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
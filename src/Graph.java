@@ -1,111 +1,287 @@
 /**
- * Class that stores graph as adjacency matrix and other operations like cycle check, sorting 
+ * Class that stores graph as compressed sparse row (CSR) adjacency lists and other operations like cycle check, sorting
+ * The edges are collected as they are added and packed into CSR arrays the first time the graph is read: the children
+ * of vertex v are childIds[childOffsets[v]] .. childIds[childOffsets[v + 1] - 1], and the parents are stored the same
+ * way. Both lists are in increasing id order without duplicate edges, so the graph takes O(V + E) memory and the
+ * cycle check and the topological sort visit every vertex and edge once, in the same order as the adjacency matrix
+ * scan they replace.
  * @author 220031271
  */
 import java.util.*;
 public class Graph {
-    private boolean[][] adjMatrix;
     private int numVertices;
+    private int[] edgeFrom = new int[16];   //edges added since the graph was last packed
+    private int[] edgeTo = new int[16];
+    private int edgeCount;
+    private int[] childOffsets;             //CSR arrays, null until the graph is packed
+    private int[] childIds;
+    private int[] parentOffsets;
+    private int[] parentIds;
 
-    public boolean[][] getAdjMatrix() {
-        return adjMatrix;
+    public Graph(int numVertices) {
+        this.numVertices = numVertices;
     }
 
-    public void setAdjMatrix(boolean[][] adjMatrix) {
-        this.adjMatrix = adjMatrix;
-    }
-  
-    public Graph(int numVertices) {
-      this.numVertices = numVertices;
-      adjMatrix = new boolean[numVertices][numVertices];
+    /**
+     * method to create the graph of a network from the parents of its variables
+     * @param parents parent ids of each variable
+     * @return graph with an edge from every parent to its child
+     */
+    public static Graph fromParents(int[][] parents) {
+        Graph graph = new Graph(parents.length);
+        for (int v = 0; v < parents.length; v++) {
+            for (int p : parents[v]) {
+                graph.addEdge(p, v);
+            }
+        }
+        return graph;
     }
-  
-    
+
     /**
      * method to add edges
      * @param i index from which edge is directed from
      * @param j index to which the edge is directed to
      */
     public void addEdge(int i, int j) {
-      adjMatrix[i][j] = true;
+        Objects.checkIndex(i, numVertices);
+        Objects.checkIndex(j, numVertices);
+        if (childOffsets != null) {
+            unpack();
+        }
+        if (edgeCount == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+            edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+        }
+        edgeFrom[edgeCount] = i;
+        edgeTo[edgeCount] = j;
+        edgeCount++;
+    }
+
+    /**
+     * method to check if there is an edge between two vertices
+     * @param i index from which edge is directed from
+     * @param j index to which the edge is directed to
+     * @return true if the edge exists
+     */
+    public boolean hasEdge(int i, int j) {
+        pack();
+        return Arrays.binarySearch(childIds, childOffsets[i], childOffsets[i + 1], j) >= 0;
     }
-    
-    
+
     /**
      * method to check if the graph has cyclic paths
      * @return true if cyclic path is found, else return false
      */
     public boolean checkCycle() {
-        boolean[][] graph = this.adjMatrix;
-        int n = graph.length;
+        return sort().length != numVertices;
+    }
+
+    /**
+     * method to sort the graph nodes in topological order
+     * @return sorted list
+     */
+    public ArrayList<Integer> topologicalSort() {
+        int[] sorted = sort();
+        ArrayList<Integer> topologicalSortedList = new ArrayList<>(sorted.length);
+        for (int node : sorted) {
+            topologicalSortedList.add(node);
+        }
+        return topologicalSortedList;
+    }
+
+    /**
+     * method to sort the graph nodes in topological order without boxing
+     * @return ids in topological order (vertices on a cycle or reachable from one are left out)
+     */
+    public int[] topologicalOrder() {
+        return sort();
+    }
+
+    /**
+     * method to sort the vertices with Kahn's algorithm
+     * roots are visited in id order and children in increasing id order
+     * @return ids in topological order (vertices on a cycle or reachable from one are left out)
+     */
+    private int[] sort() {
+        pack();
+        int n = numVertices;
         int[] in = new int[n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                if (graph[i][j] == true) {
-                    in[j]++;
-                }
-            }
+        for (int v = 0; v < n; v++) {
+            in[v] = parentOffsets[v + 1] - parentOffsets[v];
         }
-        Queue<Integer> q = new LinkedList<>();
+        //the sorted array is also the queue, the nodes between head and tail are waiting
+        int[] sorted = new int[n];
+        int tail = 0;
         for (int i = 0; i < n; i++) {
             if (in[i] == 0) {
-                q.offer(i);
+                sorted[tail++] = i;
             }
         }
+        for (int head = 0; head < tail; head++) {
+            int node = sorted[head];
+            for (int e = childOffsets[node]; e < childOffsets[node + 1]; e++) {
+                if (--in[childIds[e]] == 0) {
+                    sorted[tail++] = childIds[e];
+                }
+            }
+        }
+        return tail == n ? sorted : Arrays.copyOf(sorted, tail);
+    }
+
+    /**
+     * method to pack the added edges into the CSR arrays, sorted and without duplicates
+     */
+    private void pack() {
+        if (childOffsets != null) {
+            return;
+        }
+        int n = numVertices;
+        int[] offsets = new int[n + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            offsets[edgeFrom[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] next = Arrays.copyOf(offsets, n);
+        int[] targets = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            targets[next[edgeFrom[e]]++] = edgeTo[e];
+        }
+
+        //sort the children of every vertex and drop the duplicate edges
+        int[] packedOffsets = new int[n + 1];
         int count = 0;
-        while (!q.isEmpty()) {
-            int node = q.poll();
-            count++;
-            for (int i = 0; i < n; i++) {
-                if (graph[node][i] == true) {
-                    in[i]--;
-                    if (in[i] == 0) {
-                        q.offer(i);
-                    }
+        for (int v = 0; v < n; v++) {
+            Arrays.sort(targets, offsets[v], offsets[v + 1]);
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                if (e == offsets[v] || targets[e] != targets[e - 1]) {
+                    targets[count++] = targets[e];
                 }
             }
+            packedOffsets[v + 1] = count;
         }
+        int[] packedIds = Arrays.copyOf(targets, count);
 
-        if(count != n)
-            return true;
-        else 
-            return false;
+        //parents are the transpose, visiting the vertices in id order keeps every parent list sorted
+        int[] inOffsets = new int[n + 1];
+        for (int e = 0; e < count; e++) {
+            inOffsets[packedIds[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        int[] inNext = Arrays.copyOf(inOffsets, n);
+        int[] inIds = new int[count];
+        for (int v = 0; v < n; v++) {
+            for (int e = packedOffsets[v]; e < packedOffsets[v + 1]; e++) {
+                inIds[inNext[packedIds[e]]++] = v;
+            }
+        }
+
+        this.childOffsets = packedOffsets;
+        this.childIds = packedIds;
+        this.parentOffsets = inOffsets;
+        this.parentIds = inIds;
+        this.edgeFrom = new int[0];
+        this.edgeTo = new int[0];
+        this.edgeCount = 0;
     }
 
     /**
-     * method to sort the graph nodes in topological order
-     * @return sorted list
+     * method to turn the CSR arrays back into a list of edges, so that more edges can be added
      */
-    public ArrayList<Integer> topologicalSort() {
-        boolean[][] graph = this.adjMatrix;
-        int n = graph.length;
-        int[] in = new int[n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                if (graph[i][j] == true) {
-                    in[j]++;
-                }
+    private void unpack() {
+        int count = childIds.length;
+        edgeFrom = new int[Math.max(16, count * 2)];
+        edgeTo = new int[edgeFrom.length];
+        for (int v = 0; v < numVertices; v++) {
+            for (int e = childOffsets[v]; e < childOffsets[v + 1]; e++) {
+                edgeFrom[e] = v;
+                edgeTo[e] = childIds[e];
             }
         }
-        Queue<Integer> q = new LinkedList<>();
-        for (int i = 0; i < n; i++) {
-            if (in[i] == 0) {
-                q.offer(i);
+        edgeCount = count;
+        childOffsets = null;
+        childIds = null;
+        parentOffsets = null;
+        parentIds = null;
+    }
+
+    //getters and setters methods
+
+    public int getVertexCount() {
+        return numVertices;
+    }
+
+    /**
+     * method to get the number of edges
+     * @return number of distinct edges
+     */
+    public int getEdgeCount() {
+        pack();
+        return childIds.length;
+    }
+
+    /**
+     * method to get the children of a vertex
+     * @param v index of the vertex
+     * @return indexes of the children, in increasing order
+     */
+    public int[] getChildren(int v) {
+        pack();
+        return Arrays.copyOfRange(childIds, childOffsets[v], childOffsets[v + 1]);
+    }
+
+    /**
+     * method to get the parents of a vertex
+     * @param v index of the vertex
+     * @return indexes of the parents, in increasing order
+     */
+    public int[] getParents(int v) {
+        pack();
+        return Arrays.copyOfRange(parentIds, parentOffsets[v], parentOffsets[v + 1]);
+    }
+
+    /**
+     * compatibility getter, builds an adjacency matrix from the edges
+     * the matrix takes O(V^2) memory and is a copy, changing it does not change the graph
+     * @return adjacency matrix, adjMatrix[i][j] is true if there is an edge from i to j
+     * @deprecated use getChildren, getParents or hasEdge
+     */
+    @Deprecated
+    public boolean[][] getAdjMatrix() {
+        pack();
+        boolean[][] adjMatrix = new boolean[numVertices][numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            for (int e = childOffsets[v]; e < childOffsets[v + 1]; e++) {
+                adjMatrix[v][childIds[e]] = true;
             }
         }
-        ArrayList<Integer> topologicalSortedList = new ArrayList<>();
-        while (!q.isEmpty()) {
-            int node = q.poll();
-            topologicalSortedList.add(node);
-            for (int i = 0; i < n; i++) {
-                if (graph[node][i] == true) {
-                    in[i]--;
-                    if (in[i] == 0) {
-                        q.offer(i);
-                    }
+        return adjMatrix;
+    }
+
+    /**
+     * compatibility setter, replaces the edges with the ones of an adjacency matrix
+     * @param adjMatrix adjacency matrix, adjMatrix[i][j] is true if there is an edge from i to j
+     * @deprecated use addEdge
+     */
+    @Deprecated
+    public void setAdjMatrix(boolean[][] adjMatrix) {
+        this.numVertices = adjMatrix.length;
+        this.edgeFrom = new int[16];
+        this.edgeTo = new int[16];
+        this.edgeCount = 0;
+        this.childOffsets = null;
+        this.childIds = null;
+        this.parentOffsets = null;
+        this.parentIds = null;
+        for (int i = 0; i < adjMatrix.length; i++) {
+            for (int j = 0; j < adjMatrix[i].length; j++) {
+                if (adjMatrix[i][j]) {
+                    addEdge(i, j);
                 }
             }
         }
-        return topologicalSortedList;
     }
-  }
\ No newline at end of file
+}
@@ -1,12 +1,94 @@
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Semaphore;
 
 /**
  * Class that stores operation related to inference
+ * Variable names are resolved to dense ids once per query, the elimination itself only works on
+ * id scopes and bit sets. Queries are executed through compiled plans kept in a bounded cache, and the
+ * factors eliminated by the plans are kept in a second bounded cache shared by all the queries.
+ * The cost of a plan is predicted before it runs: a plan whose buffers do not fit in the memory budget is replaced
+ * by the plan of another ordering heuristic that fits, then by the approximate engine if one is set, and otherwise
+ * the query fails with the estimate before anything is allocated. The budget is shared by the queries that run at
+ * once: a query that fits waits while the running ones hold too much of it. The buffers a plan keeps in its pool
+ * between executions and the factor cache, which has its own capacity, are not charged to the budget.
+ * Queries run on the immutable snapshot of the network (CompiledNetwork), so one Inference object can answer
+ * queries from many threads at once.
  * @author 220031271
  */
 public class Inference
 {
+    /**
+     * memory budget shared by the queries that run at once, the permits are KiB so that a budget of several
+     * terabytes still fits in the permits of a semaphore
+     */
+    private static final class MemoryBudget
+    {
+        final long bytes;
+        private final int kibibytes;
+        private final Semaphore available;
+
+        MemoryBudget (long bytes)
+        {
+            this.bytes = bytes;
+            this.kibibytes = (int) Math.min (Integer.MAX_VALUE, Math.max (0, bytes) >> 10);
+            this.available = new Semaphore (kibibytes);
+        }
+
+        /**
+         * method to take a part of the budget for a query, waiting until it is free
+         * @param queryBytes predicted memory of the query, at most the budget
+         * @return KiB taken, to be released when the query ends
+         */
+        int
+        acquire (double queryBytes)
+        {
+            int permits = (int) Math.min (kibibytes, Math.ceil (queryBytes / 1024));
+            available.acquireUninterruptibly (permits);
+            return permits;
+        }
+
+        void
+        release (int permits)
+        {
+            available.release (permits);
+        }
+    }
+
+    private static final int PLAN_CACHE_SIZE = 64;
+    private static final long FACTOR_CACHE_BYTES = 64L << 20;
+    private static final long FACTOR_CACHE_MINIMUM_WORK = 1 << 12;
+
+    //orderings tried when the plan of the ordering strategy is over the memory budget
+    private static final EliminationOrder.Strategy[] BUDGET_STRATEGIES = {
+        EliminationOrder.Strategy.WEIGHTED_MIN_FILL,
+        EliminationOrder.Strategy.MIN_FILL,
+        EliminationOrder.Strategy.MIN_DEGREE,
+        EliminationOrder.Strategy.RANDOMIZED
+    };
+
+    private final QueryPlanCache planCache = new QueryPlanCache (PLAN_CACHE_SIZE);
+
+    //step outputs shared across queries, null to compute every step
+    private volatile FactorCache factorCache
+        = new FactorCache (FACTOR_CACHE_BYTES, FACTOR_CACHE_MINIMUM_WORK);
+
+    //heuristic used when no order of elimination is given
+    private volatile EliminationOrder.Strategy orderingStrategy
+        = EliminationOrder.Strategy.REVERSE_TOPOLOGICAL;
+    private volatile long orderingTimeBudgetMillis = EliminationOrder.DEFAULT_TIME_BUDGET_MILLIS;
+
+    //true to run the elimination on the logs of the probabilities
+    private volatile boolean logSpace;
+
+    //bytes the buffers of the queries that run at once may use, checked before a query runs
+    private volatile MemoryBudget memoryBudget
+        = new MemoryBudget (Runtime.getRuntime ().maxMemory () / 2);
+
+    //engine used when no ordering fits in the memory budget, null to fail with the estimate
+    private volatile ApproximateInference approximateFallback;
+
     /**
      * method to find the probability based on the input
      * @param bn bayesian network object
@@ -20,276 +102,759 @@ public class Inference
     findProbability (BayesianNetwork bn, String variable, String value,
                      ArrayList<String[]> evidence, String[] order)
     {
+        // resolve the query, evidence and order to variable ids
+        int queryVar = variableId (bn, variable);
+        int queryValue = outcomeIndex (bn, queryVar, value);
 
-        //initialise nuisance variables
-        HashSet<String> nuisanceVariables = null;
-        nuisanceVariables = bn.getVariableNames();
-        nuisanceVariables.remove (variable);
-        if (evidence != null)
+        int evidenceCount = evidence == null ? 0 : evidence.size ();
+        int[] evidenceVars = new int[evidenceCount];
+        int[] evidenceValues = new int[evidenceCount];
+        for (int i = 0; i < evidenceCount; i++)
             {
-                for (String[] e : evidence)
+                String[] e = evidence.get (i);
+                evidenceVars[i] = variableId (bn, e[0]);
+                evidenceValues[i] = outcomeIndex (bn, evidenceVars[i], e[1]);
+            }
+
+        int[] orderVars = null;
+        if (order != null)
+            {
+                //unknown names in the order are ignored
+                orderVars = new int[order.length];
+                for (int i = 0; i < order.length; i++)
                     {
-                        String evidenceVariable = e[0];
-                        nuisanceVariables.remove(evidenceVariable);
+                        orderVars[i] = bn.getVariableId (order[i]);
                     }
             }
 
-        // prune non evidence leaf nodes
-        ArrayList<String> prunedList
-            = pruneNuisanceList (bn, nuisanceVariables, variable, evidence);
+        return findProbability (bn, queryVar, queryValue, evidenceVars,
+                                evidenceValues, orderVars);
+    }
 
-        // initialise factor (will not include factors of pruned variables)
-        ArrayList<Factor> factors = initialiseFactors (bn, prunedList);
+    /**
+     * method to find the probability of a query given as variable ids
+     * the query is answered by a compiled plan, which is reused for queries of the same shape
+     * @param bn bayesian network object
+     * @param queryVar id of the query variable
+     * @param queryValue outcome index of the query variable
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @return result of the evaluation
+     */
+    public double
+    findProbability (BayesianNetwork bn, int queryVar, int queryValue,
+                     int[] evidenceVars, int[] evidenceValues, int[] order)
+    {
+        int[] sortedVars = sortEvidence (evidenceVars);
+        int[] sortedValues = sortEvidenceValues (sortedVars, evidenceVars,
+                                                 evidenceValues);
+        if (Arrays.binarySearch (sortedVars, queryVar) >= 0)
+            {
+                throw new IllegalArgumentException ("Query variable "
+                    + bn.getVariableName (queryVar)
+                    + " is also evidence");
+            }
 
-        
-        ArrayList<String> nuisanceVariablesOrdered = new ArrayList<> ();
-        
-        // apply the order of elimination (applicable for part2)
-        if (order != null)
+        InferenceMetrics.QueryTrace trace = InferenceMetrics.startQuery ();
+        boolean approximate = false;
+        try
             {
-                for (int i = 0; i < order.length; i++)
+                QueryPlan plan;
+                try
+                    {
+                        plan = planWithinBudget (bn.getCompiled (), new int[] {queryVar},
+                                                 sortedVars, order, false);
+                    }
+                catch (MemoryBudgetExceededException e)
                     {
-                        if (nuisanceVariables.contains (order[i]))
+                        ApproximateInference fallback = approximateFallback;
+                        if (fallback == null)
                             {
-                                nuisanceVariables.remove (order[i]);
-                                nuisanceVariablesOrdered.add (order[i]);
+                                throw e;
                             }
+                        approximate = true;
+                        return fallback.estimate (bn, queryVar, sortedVars, sortedValues)
+                            .getProbability (queryValue);
+                    }
+                double probability;
+                MemoryBudget memory = memoryBudget;
+                int held = memory.acquire (plan.getCostEstimate ().getBytes (logSpace));
+                try
+                    {
+                        probability = plan.execute (queryValue, sortedValues, logSpace,
+                                                    factorCache, trace);
+                    }
+                finally
+                    {
+                        memory.release (held);
+                    }
+                if (trace != null)
+                    {
+                        trace.end (plan, sortedVars.length, logSpace);
                     }
+                return probability;
             }
-        else
+        finally
             {
-                //if order is not given, reverse of topological order is used for elimination
-                ArrayList<Integer> topologicalSortIndexes
-                    = bn.getGraph ().topologicalSort ();
-                for (int i = topologicalSortIndexes.size () - 1; i >= 0; i--)
+                //a query that no plan answered is recorded as approximate or failed
+                if (trace != null)
                     {
-                        String varName = bn.getVariableByIndex (
-                                               topologicalSortIndexes.get (i))
-                                             .getName ();
-                        if (nuisanceVariables.contains (varName))
-                            {
-                                nuisanceVariablesOrdered.add (varName);
-                                nuisanceVariables.remove (varName);
-                            }
+                        trace.endWithoutPlan (bn.getCompiled (), new int[] {queryVar},
+                                              sortedVars.length, approximate);
                     }
             }
+    }
 
-        if (nuisanceVariables.size () > 0)
+    /**
+     * method to find the joint posterior distribution of some variables in a single elimination
+     * @param bn bayesian network object
+     * @param variables names of the query variables, none to only get the probability of the evidence
+     * @param evidence list of evidences (null for no evidence)
+     * @param order order of elimination (null to use the ordering strategy)
+     * @return joint distribution over the query variables in the given order, with P(e)
+     */
+    public Posterior
+    findPosterior (BayesianNetwork bn, String[] variables,
+                   ArrayList<String[]> evidence, String[] order)
+    {
+        int[] queryVars = new int[variables.length];
+        for (int i = 0; i < variables.length; i++)
             {
-                nuisanceVariablesOrdered.addAll (nuisanceVariables);
+                queryVars[i] = variableId (bn, variables[i]);
             }
-
-        // assign evidences
-        if (evidence != null)
+        int evidenceCount = evidence == null ? 0 : evidence.size ();
+        int[] evidenceVars = new int[evidenceCount];
+        int[] evidenceValues = new int[evidenceCount];
+        for (int i = 0; i < evidenceCount; i++)
+            {
+                String[] e = evidence.get (i);
+                evidenceVars[i] = variableId (bn, e[0]);
+                evidenceValues[i] = outcomeIndex (bn, evidenceVars[i], e[1]);
+            }
+        int[] orderVars = null;
+        if (order != null)
             {
-                for (String[] e : evidence)
+                //unknown names in the order are ignored
+                orderVars = new int[order.length];
+                for (int i = 0; i < order.length; i++)
                     {
-                        String evidenceVariable = e[0];
-                        String evidenceValue = e[1];
-
-                        for (Factor factor : factors)
-                            {
-                                if (factor.getFactorVariableNames ().contains (
-                                        evidenceVariable))
-                                    {
-                                        factor.assign (evidenceVariable,
-                                                       evidenceValue, bn);
-                                    }
-                            }
+                        orderVars[i] = bn.getVariableId (order[i]);
                     }
             }
+        return findPosterior (bn, queryVars, evidenceVars, evidenceValues,
+                              orderVars);
+    }
 
-        // elimination based on the order
-        for (String nuisanceVar : nuisanceVariablesOrdered)
+    /**
+     * method to find the joint posterior distribution of some variables given as ids
+     * the plan keeps every table that is not barren, so the normalising constant of its final factor is the
+     * probability of the evidence and not only the probability of the requisite evidence
+     * @param bn bayesian network object
+     * @param queryVars ids of the query variables, in the order of the distribution
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @return joint distribution over the query variables, with P(e)
+     */
+    public Posterior
+    findPosterior (BayesianNetwork bn, int[] queryVars, int[] evidenceVars,
+                   int[] evidenceValues, int[] order)
+    {
+        int[] sortedVars = sortEvidence (evidenceVars);
+        int[] sortedValues = sortEvidenceValues (sortedVars, evidenceVars,
+                                                 evidenceValues);
+        for (int i = 0; i < queryVars.length; i++)
             {
-                //join operation
-
-                //get factors with the nuisance variable
-                ArrayList<Factor> factorsToJoin = new ArrayList<> ();
-                for (Factor f : factors)
+                if (Arrays.binarySearch (sortedVars, queryVars[i]) >= 0)
                     {
-                        if (f.getFactorVariableNames ().contains (nuisanceVar))
+                        throw new IllegalArgumentException ("Query variable "
+                            + bn.getVariableName (queryVars[i])
+                            + " is also evidence");
+                    }
+                for (int j = 0; j < i; j++)
+                    {
+                        if (queryVars[j] == queryVars[i])
                             {
-                                factorsToJoin.add (f);
+                                throw new IllegalArgumentException ("Query variable "
+                                    + bn.getVariableName (queryVars[i])
+                                    + " is given twice");
                             }
                     }
+            }
 
-                Factor joinedFactor = factorsToJoin.get (0);
-                
-                //perform join if there are more than one factors for the variable
-                if (factorsToJoin.size () > 1)
+        InferenceMetrics.QueryTrace trace = InferenceMetrics.startQuery ();
+        CompiledNetwork net = bn.getCompiled ();
+        int[] cards = new int[queryVars.length];
+        for (int i = 0; i < cards.length; i++)
+            {
+                cards[i] = net.getCardinality (queryVars[i]);
+            }
+        double[] distribution;
+        double logEvidence;
+        try
+            {
+                QueryPlan plan = planWithinBudget (net, queryVars, sortedVars, order,
+                                                   true);
+                MemoryBudget memory = memoryBudget;
+                int held = memory.acquire (plan.getCostEstimate ().getBytes (logSpace));
+                try
                     {
-
-                        Factor intermediateJoin = null;
-                        for (int i = 1; i < factorsToJoin.size (); i++)
-                            {
-                                intermediateJoin = joinedFactor.joinFactor (
-                                    factorsToJoin.get (i), bn);
-                                joinedFactor = intermediateJoin;
-                            }
+                        distribution = new double[Factor.tableSize (cards)];
+                        logEvidence = plan.executeDistribution (sortedValues, logSpace,
+                                                                distribution,
+                                                                factorCache, trace);
+                    }
+                finally
+                    {
+                        memory.release (held);
+                    }
+                if (trace != null)
+                    {
+                        trace.end (plan, sortedVars.length, logSpace);
+                    }
+            }
+        finally
+            {
+                if (trace != null)
+                    {
+                        trace.endWithoutPlan (net, queryVars, sortedVars.length, false);
                     }
+            }
+        return new Posterior (net, new Factor (queryVars.clone (), cards,
+                                               distribution),
+                              logEvidence);
+    }
 
+    /**
+     * method to find the probability of the evidence, P(e)
+     * @param bn bayesian network object
+     * @param evidence list of evidences (null for no evidence)
+     * @return probability of the evidence
+     */
+    public double
+    findEvidenceProbability (BayesianNetwork bn, ArrayList<String[]> evidence)
+    {
+        return findPosterior (bn, new String[0], evidence, null)
+            .getEvidenceProbability ();
+    }
 
-                // Sum operation on joined factor for the variable
-                Factor eliminatedFactor
-                    = joinedFactor.sumFactor (nuisanceVar, bn);
-                
-                //replace all the involved factor with the new factor
-                factors.removeAll (factorsToJoin);
-                factors.add (eliminatedFactor);
+    /**
+     * method to find the most probable explanation of the evidence, the most likely outcome of every variable
+     * that is not evidence
+     * @param bn bayesian network object
+     * @param evidence list of evidences (null for no evidence)
+     * @return most likely assignment with its posterior probability
+     */
+    public MaxProductElimination.Assignment
+    findMostProbableExplanation (BayesianNetwork bn, ArrayList<String[]> evidence)
+    {
+        int[] allVars = new int[bn.getVariableCount ()];
+        for (int i = 0; i < allVars.length; i++)
+            {
+                allVars[i] = i;
             }
+        return findMaximumAPosteriori (bn, allVars, evidence, null);
+    }
 
-        // join all factors until there is only one factor in the list
-        Factor finalFactor = factors.get (0);
-        if (factors.size () > 1)
+    /**
+     * method to find the most likely joint outcome of some variables given the evidence (MAP), the other
+     * variables are summed out
+     * @param bn bayesian network object
+     * @param variables names of the MAP variables
+     * @param evidence list of evidences (null for no evidence)
+     * @param order order of elimination (null to use the ordering strategy)
+     * @return most likely assignment with its posterior probability
+     */
+    public MaxProductElimination.Assignment
+    findMaximumAPosteriori (BayesianNetwork bn, String[] variables,
+                            ArrayList<String[]> evidence, String[] order)
+    {
+        int[] mapVars = new int[variables.length];
+        for (int i = 0; i < variables.length; i++)
+            {
+                mapVars[i] = variableId (bn, variables[i]);
+            }
+        int[] orderVars = null;
+        if (order != null)
             {
-                for (int i = 1; i < factors.size (); i++)
+                //unknown names in the order are ignored
+                orderVars = new int[order.length];
+                for (int i = 0; i < order.length; i++)
                     {
-                        Factor intermediateJoin
-                            = finalFactor.joinFactor (factors.get (i), bn);
-                        finalFactor = intermediateJoin;
+                        orderVars[i] = bn.getVariableId (order[i]);
                     }
             }
+        return findMaximumAPosteriori (bn, mapVars, evidence, orderVars);
+    }
 
-        // normalise the values in the factor
-        finalFactor.normalise ();
-
-        //get the result based on the query variable and value
-        ArrayList<Double> values = finalFactor.getFactorValues ();
-        ArrayList<String> varName = finalFactor.getFactorVariableNames ();
-        int valueIndex
-            = bn.getVariable (varName.get (0)).getOutcomeIndex (value);
-        Double result = values.get (valueIndex);
+    /**
+     * method to resolve the evidence of a MAP query and solve it
+     * @param bn bayesian network object
+     * @param mapVars ids of the MAP variables
+     * @param evidence list of evidences (null for no evidence)
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @return most likely assignment with its posterior probability
+     */
+    private MaxProductElimination.Assignment
+    findMaximumAPosteriori (BayesianNetwork bn, int[] mapVars,
+                            ArrayList<String[]> evidence, int[] order)
+    {
+        int evidenceCount = evidence == null ? 0 : evidence.size ();
+        int[] evidenceVars = new int[evidenceCount];
+        int[] evidenceValues = new int[evidenceCount];
+        for (int i = 0; i < evidenceCount; i++)
+            {
+                String[] e = evidence.get (i);
+                evidenceVars[i] = variableId (bn, e[0]);
+                evidenceValues[i] = outcomeIndex (bn, evidenceVars[i], e[1]);
+            }
+        return findMaximumAPosteriori (bn, mapVars, evidenceVars,
+                                       evidenceValues, order);
+    }
 
-        // return final result
-        return result;
+    /**
+     * method to find the most likely joint outcome of some variables given as ids
+     * the same pruning and ordering strategy as the marginal queries are used, with the summed variables
+     * eliminated before the MAP variables
+     * @param bn bayesian network object
+     * @param mapVars ids of the MAP variables
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @return most likely assignment with its posterior probability
+     */
+    public MaxProductElimination.Assignment
+    findMaximumAPosteriori (BayesianNetwork bn, int[] mapVars,
+                            int[] evidenceVars, int[] evidenceValues,
+                            int[] order)
+    {
+        return MaxProductElimination.solve (bn.getCompiled (), mapVars,
+                                            evidenceVars, evidenceValues,
+                                            order, orderingStrategy,
+                                            orderingTimeBudgetMillis);
     }
 
     /**
-     * method to initialise all the factors in the network 
+     * method to predict the cost of a query without running it, the plan is compiled but nothing is allocated
      * @param bn bayesian network object
-     * @param prunedList pruned list of variables 
-     * @return return the list of all factors
+     * @param queryVars ids of the query variables
+     * @param evidenceVars ids of the evidence variables
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @return predicted sizes of the intermediate factors, memory and operations of the plan
+     */
+    public CostEstimate
+    estimateCost (BayesianNetwork bn, int[] queryVars, int[] evidenceVars,
+                  int[] order)
+    {
+        return planCache.getPlan (bn.getCompiled (), queryVars,
+                                  sortEvidence (evidenceVars), order,
+                                  orderingStrategy, orderingTimeBudgetMillis,
+                                  false)
+            .getCostEstimate ();
+    }
+
+    /**
+     * method to get a plan whose buffers fit in the memory budget
+     * the plan of the given order or ordering strategy is tried first, then the plans of the other ordering
+     * heuristics, and the first one that fits is used
+     * @param net compiled network
+     * @param queryVars ids of the query variables
+     * @param evidenceVars ids of the evidence variables, sorted
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @param evidenceProbability true for a plan whose final factor sums to P(e)
+     * @return plan within the budget
+     * @throws MemoryBudgetExceededException with the cheapest estimate if no plan fits
      */
-    private ArrayList<Factor>
-    initialiseFactors (BayesianNetwork bn, ArrayList<String> prunedList)
+    private QueryPlan
+    planWithinBudget (CompiledNetwork net, int[] queryVars,
+                      int[] evidenceVars, int[] order,
+                      boolean evidenceProbability)
     {
-        ArrayList<Factor> initialFactors = new ArrayList<Factor> ();
-        HashSet<BNVariable> variables = bn.getVariables ();
-        //iterate for each variable in the network
-        for (BNVariable bnVariable : variables)
+        long budget = memoryBudget.bytes;
+        boolean log = logSpace;
+        QueryPlan plan = planCache.getPlan (net, queryVars, evidenceVars, order,
+                                            orderingStrategy,
+                                            orderingTimeBudgetMillis,
+                                            evidenceProbability);
+        if (plan.getCostEstimate ().fits (budget, log))
+            {
+                return plan;
+            }
+        QueryPlan cheapest = plan;
+        for (EliminationOrder.Strategy strategy : BUDGET_STRATEGIES)
             {
-                //reject if the variable is in pruned list
-                if (prunedList.contains (bnVariable.getName ()))
+                if (order == null && strategy == orderingStrategy)
                     {
                         continue;
                     }
-                
-                //initialise factor based on the variable and parents
-                Factor factor = new Factor ();
-                ArrayList<String> factorVariableNames
-                    = bnVariable.getParents ();
-                factorVariableNames.add (bnVariable.getName ());
-                factor.setFactorValues (bnVariable.getProbabilities ());
-                factor.setFactorVariableNames (factorVariableNames);
-                initialFactors.add (factor);
+                QueryPlan other = planCache.getPlan (net, queryVars,
+                                                     evidenceVars, null,
+                                                     strategy,
+                                                     orderingTimeBudgetMillis,
+                                                     evidenceProbability);
+                CostEstimate cost = other.getCostEstimate ();
+                if (cost.fits (budget, log))
+                    {
+                        return other;
+                    }
+                if (cost.getBytes (log)
+                    < cheapest.getCostEstimate ().getBytes (log))
+                    {
+                        cheapest = other;
+                    }
             }
-
-        return initialFactors;
+        throw new MemoryBudgetExceededException (cheapest.getCostEstimate (),
+                                                 budget);
     }
 
     /**
-     * method to prune the elimination variable list by removing non evidence leaf nodes 
-     * @param bn bayesian network object
-     * @param nuisanceVariables set of nuisance variables
-     * @param variable query variable 
-     * @param evidence list of evidences
-     * @return return the list pruned variables
+     * method to sort the evidence variables by id so that the plan does not depend on the order of the evidence
+     * @param evidenceVars ids of the evidence variables
+     * @return sorted ids without repeats
      */
-    private ArrayList<String>
-    pruneNuisanceList (BayesianNetwork bn, HashSet<String> nuisanceVariables,
-                       String variable, ArrayList<String[]> evidence)
+    private static int[]
+    sortEvidence (int[] evidenceVars)
     {
-        ArrayList<String> prunedList = new ArrayList<> ();
-
-        //get index of query variabel and evidence variable
-        ArrayList<Integer> evidenceAndQueryVarIndex = new ArrayList<> ();
-        evidenceAndQueryVarIndex.add (bn.getVariable (variable).getIndex ());
-        if (evidence != null)
+        int[] sortedVars = evidenceVars.clone ();
+        Arrays.sort (sortedVars);
+        int count = 0;
+        for (int i = 0; i < sortedVars.length; i++)
             {
-                for (String[] e : evidence)
+                if (count == 0 || sortedVars[count - 1] != sortedVars[i])
                     {
-                        evidenceAndQueryVarIndex.add (
-                            bn.getVariable (e[0]).getIndex ());
+                        sortedVars[count++] = sortedVars[i];
                     }
             }
+        return Arrays.copyOf (sortedVars, count);
+    }
+
+    /**
+     * method to put the evidence values in the order of the sorted evidence variables
+     * when a variable is given twice the first value is used
+     * @param sortedVars sorted ids of the evidence variables
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @return outcome indexes in the order of the sorted ids
+     */
+    private static int[]
+    sortEvidenceValues (int[] sortedVars, int[] evidenceVars,
+                        int[] evidenceValues)
+    {
+        int[] sortedValues = new int[sortedVars.length];
+        for (int i = evidenceVars.length - 1; i >= 0; i--)
+            {
+                sortedValues[Arrays.binarySearch (sortedVars, evidenceVars[i])]
+                    = evidenceValues[i];
+            }
+        return sortedValues;
+    }
 
-        //get graph represented as adjacency matrix
-        Graph g = bn.getGraph ();
-        boolean[][] matrix = g.getAdjMatrix ().clone ();
-        int numNodes = matrix.length;
+    public QueryPlanCache
+    getPlanCache ()
+    {
+        return planCache;
+    }
 
-        //list of pruned nodes
-        ArrayList<Integer> removedLeafNodes = new ArrayList<Integer> ();
+    public FactorCache
+    getFactorCache ()
+    {
+        return factorCache;
+    }
 
-        //iterate until there are no leaf nodes or no nuisance variable
-        while (!nuisanceVariables.isEmpty ())
-            {
+    /**
+     * method to set the cache of the eliminated factors shared by the queries
+     * @param factorCache cache of the step outputs, null to compute every step of every query
+     */
+    public void
+    setFactorCache (FactorCache factorCache)
+    {
+        this.factorCache = factorCache;
+    }
+
+    public long
+    getMemoryBudget ()
+    {
+        return memoryBudget.bytes;
+    }
+
+    /**
+     * method to get the part of the memory budget that the running queries do not hold
+     * @return free budget in KiB
+     */
+    int
+    getAvailableMemoryBudget ()
+    {
+        return memoryBudget.available.availablePermits ();
+    }
+
+    /**
+     * method to set the memory the buffers of the queries that run at once may use, the running queries keep
+     * the budget they started with
+     * @param memoryBudget budget in bytes, half of the maximum heap by default
+     */
+    public void
+    setMemoryBudget (long memoryBudget)
+    {
+        this.memoryBudget = new MemoryBudget (memoryBudget);
+    }
+
+    public ApproximateInference
+    getApproximateFallback ()
+    {
+        return approximateFallback;
+    }
+
+    /**
+     * method to set the engine that answers the probability queries that no ordering can fit in the memory budget
+     * @param approximateFallback approximate engine, null to fail with the estimate
+     */
+    public void
+    setApproximateFallback (ApproximateInference approximateFallback)
+    {
+        this.approximateFallback = approximateFallback;
+    }
+
+    public EliminationOrder.Strategy
+    getOrderingStrategy ()
+    {
+        return orderingStrategy;
+    }
+
+    /**
+     * method to set the heuristic used when no order of elimination is given
+     * @param orderingStrategy ordering heuristic
+     */
+    public void
+    setOrderingStrategy (EliminationOrder.Strategy orderingStrategy)
+    {
+        this.orderingStrategy = orderingStrategy;
+    }
+
+    public boolean
+    isLogSpace ()
+    {
+        return logSpace;
+    }
+
+    /**
+     * method to turn the log space mode on or off
+     * in log space the products of long evidence chains cannot underflow to 0, which would make the
+     * normalisation divide 0 by 0
+     * @param logSpace true to run the queries in log space
+     */
+    public void
+    setLogSpace (boolean logSpace)
+    {
+        this.logSpace = logSpace;
+    }
 
-                ArrayList<Integer> leafNodes = new ArrayList<Integer> ();
+    /**
+     * method to set the time budget of the randomized ordering strategy
+     * @param orderingTimeBudgetMillis time budget in milliseconds
+     */
+    public void
+    setOrderingTimeBudget (long orderingTimeBudgetMillis)
+    {
+        this.orderingTimeBudgetMillis = orderingTimeBudgetMillis;
+    }
 
-                for (int i = 0; i < numNodes; i++)
+    /**
+     * method to order the nuisance variables for elimination
+     * @param net compiled network
+     * @param nuisanceVariables nuisance variables left after pruning
+     * @param order ids in the given order of elimination, null if not given
+     * @return ids of the nuisance variables in the order of elimination
+     */
+    static int[]
+    orderNuisanceVariables (CompiledNetwork net, BitSet nuisanceVariables,
+                            int[] order)
+    {
+        BitSet remaining = (BitSet) nuisanceVariables.clone ();
+        int[] ordered = new int[remaining.cardinality ()];
+        int count = 0;
+
+        // apply the order of elimination (applicable for part2)
+        if (order != null)
+            {
+                for (int var : order)
                     {
-                        //skip if the node is a query variable or evidence variable
-                        if (evidenceAndQueryVarIndex.contains (i))
+                        if (var >= 0 && remaining.get (var))
                             {
-                                continue;
+                                remaining.clear (var);
+                                ordered[count++] = var;
                             }
-                        boolean isLeaf = true;
-
-                        //get variables without any edges directed from it
-                        for (int j = 0; j < numNodes; j++)
+                    }
+            }
+        else
+            {
+                //if order is not given, reverse of topological order is used for elimination
+                int[] topologicalOrder = net.topologicalOrder ();
+                for (int i = topologicalOrder.length - 1; i >= 0; i--)
+                    {
+                        int var = topologicalOrder[i];
+                        if (remaining.get (var))
                             {
-                                if (matrix[i][j] == true)
-                                    {
-                                        isLeaf = false;
-                                        break;
-                                    }
+                                remaining.clear (var);
+                                ordered[count++] = var;
                             }
-                        if (isLeaf)
+                    }
+            }
+
+        //variables missing from the order are eliminated last
+        for (int var = remaining.nextSetBit (0); var >= 0;
+             var = remaining.nextSetBit (var + 1))
+            {
+                ordered[count++] = var;
+            }
+        return ordered;
+    }
+
+    /**
+     * method to prune the elimination variable list by removing barren nodes
+     * a nuisance variable is barren when it is not an ancestor of the query or the evidence, its probability
+     * table sums out to 1 (the iterative removal of non evidence leaf nodes removes exactly these variables).
+     * The ancestors are marked with one walk over the parents, so the pruning is linear in the size of the graph.
+     * pruned variables are removed from the set of nuisance variables
+     * @param net compiled network
+     * @param nuisanceVariables set of nuisance variables
+     * @return return the pruned variables
+     */
+    static BitSet
+    pruneNuisanceList (CompiledNetwork net, BitSet nuisanceVariables)
+    {
+        int n = net.getVariableCount ();
+        BitSet ancestors = new BitSet (n);
+        int[] stack = new int[n];
+        int top = 0;
+        for (int i = 0; i < n; i++)
+            {
+                //the query and the evidence are the variables that are not nuisance
+                if (!nuisanceVariables.get (i))
+                    {
+                        ancestors.set (i);
+                        stack[top++] = i;
+                    }
+            }
+        while (top > 0)
+            {
+                for (int parent : net.parents (stack[--top]))
+                    {
+                        if (!ancestors.get (parent))
                             {
-                                if (!removedLeafNodes.contains (i))
-                                    {
-                                        leafNodes.add (i);
-                                        removedLeafNodes.add (i);
-                                    }
+                                ancestors.set (parent);
+                                stack[top++] = parent;
                             }
                     }
+            }
+
+        BitSet prunedList = (BitSet) nuisanceVariables.clone ();
+        prunedList.andNot (ancestors);
+        nuisanceVariables.and (ancestors);
+        return prunedList;
+    }
 
-                if (leafNodes.isEmpty ())
+    /**
+     * method to find the requisite variables of a query with the Bayes-ball algorithm (Shachter, 1998)
+     * a ball is passed from the query along the edges: a variable that is not evidence passes a ball coming from
+     * a child to its parents and children, and a ball coming from a parent to its children only; an evidence
+     * variable bounces a ball coming from a parent back to its parents and stops a ball coming from a child.
+     * The variables that send the ball to their parents are the ones whose probability tables are requisite,
+     * every other table is either barren or d-separated from the query by the evidence. Every variable is
+     * visited at most once from its parents and once from its children, so the walk is linear in the size of the
+     * graph.
+     * @param net compiled network
+     * @param queryVars ids of the query variables
+     * @param evidenceVars ids of the evidence variables
+     * @return ids of the variables whose probability tables are requisite
+     */
+    static BitSet
+    requisiteVariables (CompiledNetwork net, int[] queryVars, int[] evidenceVars)
+    {
+        int n = net.getVariableCount ();
+        BitSet evidence = new BitSet (n);
+        for (int var : evidenceVars)
+            {
+                evidence.set (var);
+            }
+        BitSet top = new BitSet (n);       //balls passed to the parents
+        BitSet bottom = new BitSet (n);    //balls passed to the children
+
+        //scheduled visits, 2 * id + 1 for a visit from a child, 2 * id for a visit from a parent
+        int[] schedule = new int[Math.max (16, 2 * queryVars.length)];
+        int count = 0;
+        for (int var : queryVars)
+            {
+                schedule[count++] = 2 * var + 1;
+            }
+        while (count > 0)
+            {
+                int visit = schedule[--count];
+                int var = visit >> 1;
+                boolean fromChild = (visit & 1) == 1;
+                boolean observed = evidence.get (var);
+                int[] parents = net.parents (var);
+                int[] children = net.children (var);
+                if (schedule.length < count + parents.length + children.length)
                     {
-                        break;
+                        schedule = Arrays.copyOf (schedule, 2 * (count + parents.length
+                                                                 + children.length));
                     }
-
-                //remove leaf node from the list of nuisance variables and add to pruned list
-                for (Integer leafNode : leafNodes)
+                if (fromChild != observed && !top.get (var))
+                    {
+                        top.set (var);
+                        for (int parent : parents)
+                            {
+                                schedule[count++] = 2 * parent + 1;
+                            }
+                    }
+                if (!observed && !bottom.get (var))
                     {
-                        if (nuisanceVariables.contains (
-                                bn.getVariableByIndex (leafNode).getName ()))
+                        bottom.set (var);
+                        for (int child : children)
                             {
-                                nuisanceVariables.remove (
-                                    bn.getVariableByIndex (leafNode)
-                                        .getName ());
-                                prunedList.add (bn.getVariableByIndex (leafNode)
-                                                    .getName ());
-                                //remove edges directed to the node
-                                for (int i = 0; i < numNodes; i++)
-                                    {
-                                        matrix[i][leafNode] = false;
-                                    }
+                                schedule[count++] = 2 * child;
                             }
                     }
             }
-        return prunedList;
+        return top;
+    }
+
+    /**
+     * method to get the id of a variable
+     * @param bn bayesian network object
+     * @param name name of the variable
+     * @return id of the variable
+     */
+    static int
+    variableId (BayesianNetwork bn, String name)
+    {
+        int id = bn.getVariableId (name);
+        if (id < 0)
+            {
+                throw new IllegalArgumentException ("Unknown variable: "
+                                                    + name);
+            }
+        return id;
+    }
+
+    /**
+     * method to get the index of an outcome of a variable
+     * @param bn bayesian network object
+     * @param var id of the variable
+     * @param value outcome of the variable
+     * @return index of the outcome
+     */
+    static int
+    outcomeIndex (BayesianNetwork bn, int var, String value)
+    {
+        int index = bn.getOutcomeIndex (var, value);
+        if (index < 0)
+            {
+                throw new IllegalArgumentException ("Unknown value " + value
+                                                    + " for variable "
+                                                    + bn.getVariableName (var));
+            }
+        return index;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,448 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Class that records what the queries of the compiled plans do, per query as JFR events and aggregated as counters
+ * and histograms exposed through JMX
+ * A query records the tables kept and pruned, and every step of its plan records the factors it joined, the cells
+ * of the joined table and of its output, its time and whether it came from the factor cache. A query that no plan
+ * answered, because it failed or went to the approximate fallback, is recorded with that outcome and no tables. The bayesnet.Query and
+ * bayesnet.EliminationStep events are enabled in a JFR recording like any other event, and the aggregates are
+ * enabled with setEnabled or with -Dbayesnet.metrics=true (which also registers the MXBean).
+ * When neither the aggregates nor the events are enabled a query only reads a few flags: no trace is created and
+ * the plans run without any timing. The event classes are not even loaded until the flight recorder runs, since
+ * loading them starts it.
+ * @author 220031271
+ */
+public class InferenceMetrics implements InferenceMetricsMXBean {
+
+    public static final String OBJECT_NAME = "bayesnet:type=InferenceMetrics";
+    private static final int BUCKETS = 64;
+
+    /**
+     * event of one query answered by a compiled plan
+     */
+    @Name("bayesnet.Query")
+    @Label("Inference Query")
+    @Category("Bayesian Network")
+    @Description("Query answered by variable elimination with a compiled plan")
+    static class QueryEvent extends Event {
+        @Label("Query Variables")
+        String queryVariables;
+        @Label("Evidence Variables")
+        int evidenceVariables;
+        @Label("Network Variables")
+        int networkVariables;
+        @Label("Tables Kept")
+        int tablesKept;
+        @Label("Tables Pruned")
+        int tablesPruned;
+        @Label("Steps Computed")
+        int stepsComputed;
+        @Label("Steps From Cache")
+        int stepsFromCache;
+        @Label("Factors Joined")
+        int factorsJoined;
+        @Label("Cells Joined")
+        long cellsJoined;
+        @Label("Largest Factor Cells")
+        long largestFactorCells;
+        @Label("Log Space")
+        boolean logSpace;
+        @Label("Outcome")
+        @Description("exact, approximate (answered by the sampling fallback) or failed")
+        String outcome;
+    }
+
+    /**
+     * event of one step of a plan, the join of some factors and the sum of one variable
+     */
+    @Name("bayesnet.EliminationStep")
+    @Label("Elimination Step")
+    @Category("Bayesian Network")
+    @Description("Join and sum out of one variable, empty variable for the final join")
+    static class StepEvent extends Event {
+        @Label("Eliminated Variable")
+        String variable;
+        @Label("Factors Joined")
+        int factorsJoined;
+        @Label("Cells Joined")
+        long cellsJoined;
+        @Label("Output Cells")
+        long outputCells;
+        @Label("From Cache")
+        boolean fromCache;
+    }
+
+    /**
+     * trace of one query, only used by the thread that runs the query
+     */
+    static final class QueryTrace {
+        private final QueryEvent event;     //null if the query event is not enabled
+        private final boolean stepEvents;
+        private final boolean aggregate;
+        private final long start = System.nanoTime();
+        private StepEvent stepEvent;
+        private long stepStart;
+        private int stepsComputed;
+        private int stepsFromCache;
+        private int factorsJoined;
+        private long cellsJoined;
+        private long largestFactorCells;
+        private long eliminationNanos;
+        private boolean ended;
+
+        QueryTrace(boolean queryEvent, boolean stepEvents, boolean aggregate) {
+            this.stepEvents = stepEvents;
+            this.aggregate = aggregate;
+            if (queryEvent) {
+                event = new QueryEvent();
+                event.begin();
+            } else {
+                event = null;
+            }
+        }
+
+        /**
+         * method to start the timing of a computed step
+         */
+        void beginStep() {
+            if (stepEvents) {
+                stepEvent = new StepEvent();
+                stepEvent.begin();
+            }
+            stepStart = System.nanoTime();
+        }
+
+        /**
+         * method to record a computed step
+         * @param net compiled network
+         * @param variable summed variable, -1 for the final join
+         * @param inputs no of joined factors
+         * @param outputCells no of cells of the output
+         * @param cells no of cells of the joined table
+         */
+        void endStep(CompiledNetwork net, int variable, int inputs, long outputCells, long cells) {
+            long nanos = System.nanoTime() - stepStart;
+            stepsComputed++;
+            factorsJoined += inputs;
+            cellsJoined += cells;
+            largestFactorCells = Math.max(largestFactorCells, outputCells);
+            eliminationNanos += nanos;
+            if (stepEvent != null) {
+                stepEvent.end();
+                commitStep(stepEvent, net, variable, inputs, cells, outputCells, false);
+                stepEvent = null;
+            }
+            if (aggregate) {
+                INSTANCE.stepLatency.incrementAndGet(bucket(nanos / 1000));
+                INSTANCE.factorCells.incrementAndGet(bucket(outputCells));
+            }
+        }
+
+        /**
+         * method to record a step whose output came from the factor cache
+         * @param net compiled network
+         * @param variable summed variable, -1 for the final join
+         * @param outputCells no of cells of the output
+         */
+        void cachedStep(CompiledNetwork net, int variable, long outputCells) {
+            stepsFromCache++;
+            if (stepEvents) {
+                commitStep(new StepEvent(), net, variable, 0, 0, outputCells, true);
+            }
+        }
+
+        private static void commitStep(StepEvent e, CompiledNetwork net, int variable, int inputs, long cells,
+                                       long outputCells, boolean fromCache) {
+            e.variable = variable < 0 ? "" : net.getVariableName(variable);
+            e.factorsJoined = inputs;
+            e.cellsJoined = cells;
+            e.outputCells = outputCells;
+            e.fromCache = fromCache;
+            e.commit();
+        }
+
+        /**
+         * method to record the end of the query
+         * @param plan plan that answered the query
+         * @param evidenceCount no of evidence variables
+         * @param logSpace true if the plan was executed in log space
+         */
+        void end(QueryPlan plan, int evidenceCount, boolean logSpace) {
+            ended = true;
+            CompiledNetwork net = plan.getNetwork();
+            int kept = plan.getFactorCount();
+            int pruned = net.getVariableCount() - kept;
+            if (event != null) {
+                StringBuilder names = new StringBuilder();
+                for (int var : plan.getQueryVariables()) {
+                    names.append(names.length() == 0 ? "" : ",").append(net.getVariableName(var));
+                }
+                event.end();
+                event.queryVariables = names.toString();
+                event.evidenceVariables = evidenceCount;
+                event.networkVariables = net.getVariableCount();
+                event.tablesKept = kept;
+                event.tablesPruned = pruned;
+                event.stepsComputed = stepsComputed;
+                event.stepsFromCache = stepsFromCache;
+                event.factorsJoined = factorsJoined;
+                event.cellsJoined = cellsJoined;
+                event.largestFactorCells = largestFactorCells;
+                event.logSpace = logSpace;
+                event.outcome = "exact";
+                event.commit();
+            }
+            if (aggregate) {
+                InferenceMetrics m = INSTANCE;
+                m.queries.increment();
+                m.stepsComputed.add(stepsComputed);
+                m.stepsFromCache.add(stepsFromCache);
+                m.factorsJoined.add(factorsJoined);
+                m.cellsJoined.add(cellsJoined);
+                m.largestFactorCells.accumulate(largestFactorCells);
+                m.tablesKept.add(kept);
+                m.tablesPruned.add(pruned);
+                m.eliminationNanos.add(eliminationNanos);
+                m.queryLatency.incrementAndGet(bucket((System.nanoTime() - start) / 1000));
+            }
+        }
+
+        /**
+         * method to record the end of a query that no plan answered, nothing is recorded if the query has ended
+         * @param net compiled network
+         * @param queryVars ids of the query variables
+         * @param evidenceCount no of evidence variables
+         * @param approximate true if the approximate fallback answered the query, false if the query failed
+         */
+        void endWithoutPlan(CompiledNetwork net, int[] queryVars, int evidenceCount, boolean approximate) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            if (event != null) {
+                StringBuilder names = new StringBuilder();
+                for (int var : queryVars) {
+                    names.append(names.length() == 0 ? "" : ",").append(net.getVariableName(var));
+                }
+                event.end();
+                event.queryVariables = names.toString();
+                event.evidenceVariables = evidenceCount;
+                event.networkVariables = net.getVariableCount();
+                event.stepsComputed = stepsComputed;
+                event.stepsFromCache = stepsFromCache;
+                event.factorsJoined = factorsJoined;
+                event.cellsJoined = cellsJoined;
+                event.largestFactorCells = largestFactorCells;
+                event.outcome = approximate ? "approximate" : "failed";
+                event.commit();
+            }
+            if (aggregate) {
+                (approximate ? INSTANCE.approximateQueries : INSTANCE.failedQueries).increment();
+            }
+        }
+    }
+
+    private static final InferenceMetrics INSTANCE = new InferenceMetrics();
+    private static volatile boolean enabled;
+
+    static {
+        if (Boolean.getBoolean("bayesnet.metrics")) {
+            enabled = true;
+            register();
+        }
+    }
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder approximateQueries = new LongAdder();
+    private final LongAdder failedQueries = new LongAdder();
+    private final LongAdder stepsComputed = new LongAdder();
+    private final LongAdder stepsFromCache = new LongAdder();
+    private final LongAdder factorsJoined = new LongAdder();
+    private final LongAdder cellsJoined = new LongAdder();
+    private final LongAccumulator largestFactorCells = new LongAccumulator(Math::max, 0);
+    private final LongAdder tablesKept = new LongAdder();
+    private final LongAdder tablesPruned = new LongAdder();
+    private final LongAdder eliminationNanos = new LongAdder();
+    private final AtomicLongArray queryLatency = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray stepLatency = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray factorCells = new AtomicLongArray(BUCKETS);
+
+    private InferenceMetrics() {
+    }
+
+    public static InferenceMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * method to register the metrics in the platform MBean server, nothing changes if they are already registered
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // registered before
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the inference metrics", e);
+        }
+    }
+
+    /**
+     * method to start the trace of a query
+     * @return trace of the query, null if neither the aggregates nor the events are enabled
+     */
+    static QueryTrace startQuery() {
+        // loading an event class starts the flight recorder, so the events are not touched until it is running
+        boolean recorder = FlightRecorder.isInitialized();
+        if (!enabled && !recorder) {
+            return null;
+        }
+        boolean queryEvent = recorder && new QueryEvent().isEnabled();
+        boolean stepEvents = recorder && new StepEvent().isEnabled();
+        if (!enabled && !queryEvent && !stepEvents) {
+            return null;
+        }
+        return new QueryTrace(queryEvent, stepEvents, enabled);
+    }
+
+    /**
+     * method to get the histogram bucket of a value
+     * @param value non negative value
+     * @return 0 for 0, else the number of bits of the value
+     */
+    private static int bucket(long value) {
+        return Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(Math.max(0, value)));
+    }
+
+    private static long[] snapshot(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    // getters methods
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * method to turn the aggregated metrics on or off, the JFR events are controlled by the recording
+     * @param enabled true to aggregate the metrics of the queries
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        InferenceMetrics.enabled = enabled;
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getApproximateQueries() {
+        return approximateQueries.sum();
+    }
+
+    @Override
+    public long getFailedQueries() {
+        return failedQueries.sum();
+    }
+
+    @Override
+    public long getStepsComputed() {
+        return stepsComputed.sum();
+    }
+
+    @Override
+    public long getStepsFromCache() {
+        return stepsFromCache.sum();
+    }
+
+    @Override
+    public long getFactorsJoined() {
+        return factorsJoined.sum();
+    }
+
+    @Override
+    public long getCellsJoined() {
+        return cellsJoined.sum();
+    }
+
+    @Override
+    public long getLargestFactorCells() {
+        return largestFactorCells.get();
+    }
+
+    @Override
+    public long getTablesKept() {
+        return tablesKept.sum();
+    }
+
+    @Override
+    public long getTablesPruned() {
+        return tablesPruned.sum();
+    }
+
+    @Override
+    public long getEliminationNanos() {
+        return eliminationNanos.sum();
+    }
+
+    @Override
+    public long[] getQueryLatencyMicrosHistogram() {
+        return snapshot(queryLatency);
+    }
+
+    @Override
+    public long[] getStepLatencyMicrosHistogram() {
+        return snapshot(stepLatency);
+    }
+
+    @Override
+    public long[] getFactorCellsHistogram() {
+        return snapshot(factorCells);
+    }
+
+    /**
+     * method to set every counter and histogram back to 0
+     */
+    @Override
+    public void reset() {
+        queries.reset();
+        approximateQueries.reset();
+        failedQueries.reset();
+        stepsComputed.reset();
+        stepsFromCache.reset();
+        factorsJoined.reset();
+        cellsJoined.reset();
+        largestFactorCells.reset();
+        tablesKept.reset();
+        tablesPruned.reset();
+        eliminationNanos.reset();
+        for (int i = 0; i < BUCKETS; i++) {
+            queryLatency.set(i, 0);
+            stepLatency.set(i, 0);
+            factorCells.set(i, 0);
+        }
+    }
+}
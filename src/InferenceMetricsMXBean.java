@@ -0,0 +1,43 @@
+/**
+ * Management interface of the aggregated inference metrics, registered as bayesnet:type=InferenceMetrics
+ * Histograms have 64 power of two buckets: bucket i counts the values v with 2^(i-1) <= v < 2^i (bucket 0 counts
+ * the zeros). The queries are the ones answered by a compiled plan, the queries answered by the approximate fallback
+ * and the failed ones are counted apart.
+ * @author 220031271
+ */
+public interface InferenceMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getQueries();
+
+    long getApproximateQueries();
+
+    long getFailedQueries();
+
+    long getStepsComputed();
+
+    long getStepsFromCache();
+
+    long getFactorsJoined();
+
+    long getCellsJoined();
+
+    long getLargestFactorCells();
+
+    long getTablesKept();
+
+    long getTablesPruned();
+
+    long getEliminationNanos();
+
+    long[] getQueryLatencyMicrosHistogram();
+
+    long[] getStepLatencyMicrosHistogram();
+
+    long[] getFactorCellsHistogram();
+
+    void reset();
+}
@@ -0,0 +1,386 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Class that compiles a Bayesian Network into a junction tree (clique tree) and computes the posterior of every
+ * variable with Shafer-Shenoy message passing.
+ * The tree and the clique potentials do not depend on the evidence, so one compiled tree answers any number of
+ * evidence sets. Evidence is entered as indicator factors, and one collect and one distribute pass give the
+ * posteriors of all the variables.
+ * @author 220031271
+ */
+public class JunctionTree {
+
+    private final CompiledNetwork net;      //snapshot of the network the tree was compiled from
+    private final int[][] cliques;          //ids of the variables of each clique, sorted
+    private final int[] parent;             //parent clique in the tree (a lower index), -1 for the root
+    private final int[][] children;         //child cliques in the tree
+    private final int[][] separators;       //variables shared by each clique and its parent
+    private final int[] homeClique;         //clique used for the evidence and the posterior of each variable
+    private final Factor[] potentials;      //product of the probability tables assigned to each clique
+
+    /**
+     * constructor to compile the junction tree of a network, triangulated with the min fill heuristic
+     * @param bn Bayesian Network object
+     */
+    public JunctionTree(BayesianNetwork bn) {
+        this(bn, EliminationOrder.Strategy.MIN_FILL);
+    }
+
+    /**
+     * constructor to compile the junction tree of a network
+     * @param bn Bayesian Network object
+     * @param strategy heuristic of the elimination order used to triangulate the moral graph
+     */
+    public JunctionTree(BayesianNetwork bn, EliminationOrder.Strategy strategy) {
+        this.net = bn.getCompiled();
+        int n = net.getVariableCount();
+
+        // the moral graph is the interaction graph of the families (parents and variable)
+        int[][] families = new int[n][];
+        for (int v = 0; v < n; v++) {
+            int[] parents = net.parents(v);
+            families[v] = Arrays.copyOf(parents, parents.length + 1);
+            families[v][parents.length] = v;
+        }
+        BitSet[] moral = EliminationOrder.interactionGraph(families, n);
+        BitSet all = new BitSet(n);
+        all.set(0, n);
+        int[] order = strategy == EliminationOrder.Strategy.REVERSE_TOPOLOGICAL
+                      ? Inference.orderNuisanceVariables(net, all, null)
+                      : EliminationOrder.compute(strategy, families, net.getCardinalities(), all,
+                                                 EliminationOrder.DEFAULT_TIME_BUDGET_MILLIS, 0).getOrder();
+        int[] position = new int[n];
+        for (int k = 0; k < n; k++) {
+            position[order[k]] = k;
+        }
+
+        // triangulate, the k-th clique is the k-th eliminated variable and its neighbours at that time
+        BitSet[] eliminated = triangulate(moral, order);
+
+        // link each clique to the clique of the first variable of its separator to be eliminated, that clique
+        // contains the whole separator. A clique equal to the separator of a child is not maximal, the child is
+        // merged into it and it takes the variables of the child.
+        int[] link = new int[n];
+        int[] merged = new int[n];      //clique each clique was merged into, itself if it is kept
+        int[] content = new int[n];     //elimination clique whose variables each kept clique has
+        for (int k = 0; k < n; k++) {
+            merged[k] = k;
+            content[k] = k;
+        }
+        for (int k = 0; k < n; k++) {
+            link[k] = -1;
+            BitSet clique = eliminated[k];
+            for (int v = clique.nextSetBit(0); v >= 0; v = clique.nextSetBit(v + 1)) {
+                if (v != order[k] && (link[k] < 0 || position[v] < link[k])) {
+                    link[k] = position[v];
+                }
+            }
+            int j = link[k];
+            if (j >= 0 && content[j] == j && eliminated[j].cardinality() == clique.cardinality() - 1) {
+                merged[k] = j;
+                content[j] = content[k];
+            }
+        }
+
+        // number the kept cliques from the last eliminated one, so every clique comes after its parent, and link
+        // the first clique of every other component to the first clique with an empty separator
+        int[] node = new int[n];
+        int c = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            node[k] = merged[k] == k ? c++ : -1;
+        }
+        this.cliques = new int[c][];
+        this.parent = new int[c];
+        this.separators = new int[c][];
+        for (int k = n - 1; k >= 0; k--) {
+            if (merged[k] != k) {
+                continue;
+            }
+            int i = node[k];
+            cliques[i] = eliminated[content[k]].stream().toArray();
+            if (link[k] >= 0) {
+                parent[i] = node[find(merged, link[k])];
+                BitSet separator = (BitSet) eliminated[k].clone();
+                separator.clear(order[k]);
+                separators[i] = separator.stream().toArray();
+            } else {
+                parent[i] = i == 0 ? -1 : 0;
+                separators[i] = new int[0];
+            }
+        }
+        int[] childCount = new int[c];
+        for (int i = 0; i < c; i++) {
+            if (parent[i] >= 0) {
+                childCount[parent[i]]++;
+            }
+        }
+        this.children = new int[c][];
+        for (int i = 0; i < c; i++) {
+            children[i] = new int[childCount[i]];
+            childCount[i] = 0;
+        }
+        for (int i = 0; i < c; i++) {
+            if (parent[i] >= 0) {
+                children[parent[i]][childCount[parent[i]]++] = i;
+            }
+        }
+
+        // home clique of each variable is the smallest clique that contains it
+        this.homeClique = new int[n];
+        Arrays.fill(homeClique, -1);
+        for (int i = 0; i < c; i++) {
+            for (int v : cliques[i]) {
+                if (homeClique[v] < 0 || cliques[i].length < cliques[homeClique[v]].length) {
+                    homeClique[v] = i;
+                }
+            }
+        }
+
+        // assign each probability table to the clique of the first variable of its family to be eliminated, the
+        // rest of the family are neighbours of that variable when it is eliminated
+        this.potentials = new Factor[c];
+        for (int i = 0; i < c; i++) {
+            potentials[i] = unitFactor(cliques[i]);
+        }
+        for (int v = 0; v < n; v++) {
+            int first = position[v];
+            for (int p : families[v]) {
+                first = Math.min(first, position[p]);
+            }
+            int target = node[find(merged, first)];
+            potentials[target] = potentials[target].join(Factor.fromVariable(net, v));
+        }
+    }
+
+    /**
+     * method to find the clique an elimination clique was merged into
+     * @param merged clique each elimination clique was merged into, itself if it is kept
+     * @param k elimination clique
+     * @return elimination clique that is kept for k
+     */
+    private static int find(int[] merged, int k) {
+        while (merged[k] != k) {
+            merged[k] = merged[merged[k]];
+            k = merged[k];
+        }
+        return k;
+    }
+
+    /**
+     * method to triangulate the moral graph by eliminating the variables in the given order
+     * @param moral adjacency sets of the moral graph, modified by the elimination
+     * @param order ids of the variables in the order of elimination
+     * @return clique of each eliminated variable and its neighbours when it is eliminated, in the order
+     */
+    private static BitSet[] triangulate(BitSet[] moral, int[] order) {
+        BitSet[] cliques = new BitSet[order.length];
+        for (int k = 0; k < order.length; k++) {
+            int v = order[k];
+            cliques[k] = (BitSet) moral[v].clone();
+            cliques[k].set(v);
+            EliminationOrder.eliminate(moral, v);
+        }
+        return cliques;
+    }
+
+    /**
+     * method to create a factor of ones over a scope
+     * @param scope ids of the variables
+     * @return factor with all values 1
+     */
+    private Factor unitFactor(int[] scope) {
+        int[] cards = new int[scope.length];
+        for (int i = 0; i < scope.length; i++) {
+            cards[i] = net.getCardinality(scope[i]);
+        }
+        double[] values = new double[Factor.tableSize(cards)];
+        Arrays.fill(values, 1.0);
+        return new Factor(scope.clone(), cards, values);
+    }
+
+    /**
+     * method to enter the evidence into the clique potentials
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @return potentials multiplied by the indicator factor of each evidence variable
+     */
+    Factor[] enterEvidence(int[] evidenceVars, int[] evidenceValues) {
+        Factor[] entered = potentials.clone();
+        for (int e = 0; e < evidenceVars.length; e++) {
+            int var = evidenceVars[e];
+            double[] indicator = new double[net.getCardinality(var)];
+            indicator[evidenceValues[e]] = 1.0;
+            int home = homeClique[var];
+            entered[home] = entered[home].join(new Factor(new int[] {var}, new int[] {indicator.length}, indicator));
+        }
+        return entered;
+    }
+
+    /**
+     * method to compute the message from a clique to a neighbour
+     * @param from clique that sends the message
+     * @param to clique that receives the message
+     * @param entered clique potentials with the evidence
+     * @param up messages from each clique to its parent
+     * @param down messages from the parent of each clique to the clique
+     * @return message over the separator of the two cliques
+     */
+    Factor message(int from, int to, Factor[] entered, Factor[] up, Factor[] down) {
+        Factor product = entered[from];
+        if (parent[from] >= 0 && parent[from] != to) {
+            product = product.join(down[from]);
+        }
+        for (int child : children[from]) {
+            if (child != to) {
+                product = product.join(up[child]);
+            }
+        }
+        int[] separator = parent[from] == to ? separators[from] : separators[to];
+        return product.sumOutAllExcept(separator);
+    }
+
+    /**
+     * method to compute the posterior of every variable given the evidence
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @return normalised posterior of each variable, indexed by the variable id
+     */
+    public double[][] computePosteriors(int[] evidenceVars, int[] evidenceValues) {
+        int c = cliques.length;
+        Factor[] entered = enterEvidence(evidenceVars, evidenceValues);
+        Factor[] up = new Factor[c];
+        Factor[] down = new Factor[c];
+
+        // collect: messages from the leaves towards the root
+        for (int i = c - 1; i >= 0; i--) {
+            if (parent[i] >= 0) {
+                up[i] = message(i, parent[i], entered, up, down);
+            }
+        }
+        // distribute: messages from the root towards the leaves
+        for (int i = 0; i < c; i++) {
+            if (parent[i] >= 0) {
+                down[i] = message(parent[i], i, entered, up, down);
+            }
+        }
+
+        // belief of each clique and the posterior of each variable from its home clique
+        Factor[] beliefs = new Factor[c];
+        double[][] posteriors = new double[net.getVariableCount()][];
+        for (int v = 0; v < posteriors.length; v++) {
+            int home = homeClique[v];
+            if (beliefs[home] == null) {
+                beliefs[home] = belief(home, entered, up, down);
+            }
+            Factor marginal = beliefs[home].sumOutAllExcept(new int[] {v});
+            marginal.normalise();
+            posteriors[v] = marginal.getValues();
+        }
+        return posteriors;
+    }
+
+    /**
+     * method to compute the belief of a clique from its potential and all the incoming messages
+     * @param i clique
+     * @param entered clique potentials with the evidence
+     * @param up messages from each clique to its parent
+     * @param down messages from the parent of each clique to the clique
+     * @return unnormalised joint of the clique variables and the evidence
+     */
+    Factor belief(int i, Factor[] entered, Factor[] up, Factor[] down) {
+        Factor product = entered[i];
+        if (parent[i] >= 0) {
+            product = product.join(down[i]);
+        }
+        for (int child : children[i]) {
+            product = product.join(up[child]);
+        }
+        return product;
+    }
+
+    /**
+     * method to compute the posterior of every variable for evidence given by name
+     * @param evidence list of evidences (variable name and value), can be null
+     * @return normalised posterior of each variable by name
+     */
+    public HashMap<String, double[]> findAllPosteriors(ArrayList<String[]> evidence) {
+        int count = evidence == null ? 0 : evidence.size();
+        int[] evidenceVars = new int[count];
+        int[] evidenceValues = new int[count];
+        for (int i = 0; i < count; i++) {
+            evidenceVars[i] = net.getVariableId(evidence.get(i)[0]);
+            if (evidenceVars[i] < 0) {
+                throw new IllegalArgumentException("Unknown variable: " + evidence.get(i)[0]);
+            }
+            evidenceValues[i] = net.getOutcomeIndex(evidenceVars[i], evidence.get(i)[1]);
+            if (evidenceValues[i] < 0) {
+                throw new IllegalArgumentException("Unknown value " + evidence.get(i)[1] + " for variable "
+                                                   + evidence.get(i)[0]);
+            }
+        }
+        double[][] posteriors = computePosteriors(evidenceVars, evidenceValues);
+        HashMap<String, double[]> byName = new HashMap<>();
+        for (int v = 0; v < posteriors.length; v++) {
+            byName.put(net.getVariableName(v), posteriors[v]);
+        }
+        return byName;
+    }
+
+    /**
+     * method to open an incremental evidence session on the tree
+     * @return session without evidence
+     */
+    public EvidenceSession newSession() {
+        return new EvidenceSession(this);
+    }
+
+    // getters methods
+
+    CompiledNetwork getNetwork() {
+        return net;
+    }
+
+    int getParent(int i) {
+        return parent[i];
+    }
+
+    int[] getChildren(int i) {
+        return children[i];
+    }
+
+    int getHomeClique(int var) {
+        return homeClique[var];
+    }
+
+    Factor getPotential(int i) {
+        return potentials[i];
+    }
+
+    public int getCliqueCount() {
+        return cliques.length;
+    }
+
+    /**
+     * method to get the variables of a clique
+     * @param i clique
+     * @return ids of the variables of the clique
+     */
+    public int[] getClique(int i) {
+        return cliques[i].clone();
+    }
+
+    /**
+     * method to get the size of the largest clique table
+     * @return number of values in the largest clique potential
+     */
+    public int getLargestCliqueSize() {
+        int largest = 0;
+        for (Factor potential : potentials) {
+            largest = Math.max(largest, potential.getValues().length);
+        }
+        return largest;
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/**
+ * Class that records query latencies and reports throughput and latency percentiles
+ * @author 220031271
+ */
+public class LatencyRecorder {
+
+    private long[] latencies = new long[1024];  //latency of each query in nanoseconds
+    private int count;
+    private int errors;
+    private final long startTime = System.nanoTime();
+
+    /**
+     * method to record the latency of a query
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    /**
+     * method to count a query that failed
+     */
+    public void recordError() {
+        errors++;
+    }
+
+    /**
+     * method to get a latency percentile
+     * @param sorted latencies in ascending order
+     * @param percentile percentile between 0 and 100
+     * @return latency in nanoseconds (nearest rank)
+     */
+    private long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * method to build the report of the recorded queries
+     * @return throughput and latency percentiles in one line
+     */
+    public String report() {
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("queries=%d errors=%d elapsed=%.3fs throughput=%.1f q/s",
+                                count, errors, elapsedSeconds, count / elapsedSeconds));
+        if (count > 0) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            sb.append(String.format(" latency_us p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                                    percentile(sorted, 50) / 1e3, percentile(sorted, 90) / 1e3,
+                                    percentile(sorted, 99) / 1e3, sorted[count - 1] / 1e3));
+        }
+        return sb.toString();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,327 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class that finds the most probable explanation (MPE) of the evidence, or the maximum a posteriori (MAP)
+ * assignment of a subset of the variables, with max-product variable elimination
+ * The requisite tables of the MAP variables (Bayes-ball) are reduced to the evidence. The other variables are summed
+ * out first, then the MAP variables are maxed out, each in the order of the ordering strategy (the order of a MAP
+ * query is constrained, a sum and a max cannot be swapped). Every max step records the outcome that gives each
+ * maximum, and the assignment is read back from these tables in reverse order (traceback).
+ * The max steps are also run as sums, which gives the probability of the evidence and so the posterior probability
+ * of the assignment. Every intermediate table is rescaled by a power of two, which is exact, and the scale is kept
+ * as a log, so the long products of an MPE over many variables do not underflow.
+ * @author 220031271
+ */
+public class MaxProductElimination {
+
+    /**
+     * Class that stores the best assignment of the MAP variables
+     */
+    public static final class Assignment {
+
+        private final CompiledNetwork net;
+        private final int[] variables;
+        private final int[] values;
+        private final double logProbability;
+
+        Assignment(CompiledNetwork net, int[] variables, int[] values, double logProbability) {
+            this.net = net;
+            this.variables = variables;
+            this.values = values;
+            this.logProbability = logProbability;
+        }
+
+        /**
+         * Get the ids of the MAP variables
+         * @return ids in increasing order
+         */
+        public int[] getVariables() {
+            return variables.clone();
+        }
+
+        /**
+         * Get the best outcome of each MAP variable
+         * @return outcome indexes, in the order of getVariables
+         */
+        public int[] getValues() {
+            return values.clone();
+        }
+
+        /**
+         * Get the best outcome of one MAP variable
+         * @param var id of the variable
+         * @return outcome index, -1 if the variable is not a MAP variable
+         */
+        public int getValue(int var) {
+            int i = Arrays.binarySearch(variables, var);
+            return i < 0 ? -1 : values[i];
+        }
+
+        /**
+         * method to get the assignment by names
+         * @return outcome of each MAP variable by variable name, in increasing id order
+         */
+        public LinkedHashMap<String, String> getOutcomes() {
+            LinkedHashMap<String, String> outcomes = new LinkedHashMap<>();
+            for (int i = 0; i < variables.length; i++) {
+                outcomes.put(net.getVariableName(variables[i]), net.getOutcomes(variables[i]).get(values[i]));
+            }
+            return outcomes;
+        }
+
+        /**
+         * Get the posterior probability of the assignment given the evidence
+         * @return probability, NaN if the evidence is impossible
+         */
+        public double getProbability() {
+            return Math.exp(logProbability);
+        }
+
+        public double getLogProbability() {
+            return logProbability;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> e : getOutcomes().entrySet()) {
+                sb.append(e.getKey()).append(':').append(e.getValue()).append(' ');
+            }
+            return sb.append(String.format("%.5f", getProbability())).toString();
+        }
+    }
+
+    /**
+     * table of an elimination, the values are divided by exp(logScale) to keep them in range
+     */
+    private static final class Table {
+        final int[] scope;
+        final int[] cards;
+        final double[] values;
+        final double logScale;
+
+        Table(int[] scope, int[] cards, double[] values, double logScale) {
+            this.scope = scope;
+            this.cards = cards;
+            this.values = values;
+            this.logScale = logScale;
+        }
+    }
+
+    /**
+     * max step of the elimination, kept for the traceback
+     */
+    private static final class MaxStep {
+        final int variable;
+        final int[] scope;      //variables of the output of the step
+        final int[] cards;
+        final int[] argmax;     //outcome of the variable that gives the maximum of each output cell
+
+        MaxStep(int variable, int[] scope, int[] cards, int[] argmax) {
+            this.variable = variable;
+            this.scope = scope;
+            this.cards = cards;
+            this.argmax = argmax;
+        }
+    }
+
+    private static final double LN2 = Math.log(2);
+
+    private MaxProductElimination() {
+    }
+
+    /**
+     * method to find the best assignment of the MAP variables given the evidence
+     * @param net compiled network
+     * @param mapVars ids of the MAP variables, all the variables that are not evidence for an MPE
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables (the first one is used for repeated variables)
+     * @param order ids in the order of elimination (null to use the ordering strategy), the summed variables are
+     *              always eliminated before the MAP variables
+     * @param strategy heuristic used when no order is given
+     * @param timeBudgetMillis time budget of the randomized ordering strategy
+     * @return best assignment, an evidence variable asked as MAP variable keeps its evidence value
+     */
+    static Assignment solve(CompiledNetwork net, int[] mapVars, int[] evidenceVars, int[] evidenceValues, int[] order,
+                            EliminationOrder.Strategy strategy, long timeBudgetMillis) {
+        int n = net.getVariableCount();
+        int[] assignment = new int[n];
+        BitSet evidence = new BitSet(n);
+        for (int i = evidenceVars.length - 1; i >= 0; i--) {
+            evidence.set(evidenceVars[i]);
+            assignment[evidenceVars[i]] = evidenceValues[i];
+        }
+        BitSet mapSet = new BitSet(n);
+        for (int var : mapVars) {
+            mapSet.set(var);
+        }
+        int[] variables = mapSet.stream().toArray();
+        mapSet.andNot(evidence);
+
+        // requisite tables of the joint posterior of the MAP variables, reduced to the evidence
+        BitSet requisite = Inference.requisiteVariables(net, mapSet.stream().toArray(), evidence.stream().toArray());
+        ArrayList<Table> tables = new ArrayList<>();
+        for (int id = requisite.nextSetBit(0); id >= 0; id = requisite.nextSetBit(id + 1)) {
+            Factor cpt = Factor.fromVariable(net, id);
+            for (int var : cpt.getScope().clone()) {
+                if (evidence.get(var)) {
+                    cpt = cpt.assignValue(var, assignment[var]);
+                }
+            }
+            tables.add(new Table(cpt.getScope(), cpt.getCardinalities(), cpt.getValues(), 0));
+        }
+        BitSet summed = (BitSet) requisite.clone();
+        summed.andNot(mapSet);
+        summed.andNot(evidence);
+
+        // sum out the other variables, then max out the MAP variables on a copy of the tables that is also summed
+        for (int var : order(net, tables, summed, order, strategy, timeBudgetMillis)) {
+            eliminate(tables, var, false);
+        }
+        ArrayList<Table> sumTables = new ArrayList<>(tables);
+        ArrayList<MaxStep> maxSteps = new ArrayList<>();
+        for (int var : order(net, tables, mapSet, order, strategy, timeBudgetMillis)) {
+            MaxStep step = eliminate(tables, var, true);
+            if (step != null) {
+                maxSteps.add(step);
+            }
+            eliminate(sumTables, var, false);
+        }
+
+        // traceback, every step only depends on the variables maxed out after it
+        for (int s = maxSteps.size() - 1; s >= 0; s--) {
+            MaxStep step = maxSteps.get(s);
+            int index = 0;
+            for (int d = 0; d < step.scope.length; d++) {
+                index = index * step.cards[d] + assignment[step.scope[d]];
+            }
+            assignment[step.variable] = step.argmax[index];
+        }
+        int[] values = new int[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            values[i] = assignment[variables[i]];
+        }
+        return new Assignment(net, variables, values, logTotal(tables) - logTotal(sumTables));
+    }
+
+    /**
+     * method to order the variables of one phase of the elimination
+     * @param net compiled network
+     * @param tables tables left before the phase
+     * @param eliminate variables eliminated in the phase
+     * @param order given order of elimination, null to use the strategy
+     * @param strategy heuristic used when no order is given
+     * @param timeBudgetMillis time budget of the randomized ordering strategy
+     * @return ids in the order of elimination
+     */
+    private static int[] order(CompiledNetwork net, ArrayList<Table> tables, BitSet eliminate, int[] order,
+                               EliminationOrder.Strategy strategy, long timeBudgetMillis) {
+        if (order != null || strategy == EliminationOrder.Strategy.REVERSE_TOPOLOGICAL) {
+            return Inference.orderNuisanceVariables(net, eliminate, order);
+        }
+        int[][] scopes = new int[tables.size()][];
+        for (int i = 0; i < scopes.length; i++) {
+            scopes[i] = tables.get(i).scope;
+        }
+        return EliminationOrder.compute(strategy, scopes, net.cardinalities(), eliminate, timeBudgetMillis, 0)
+                               .getOrder();
+    }
+
+    /**
+     * method to join the tables that hold a variable and sum or max it out in one pass
+     * the joined scope is the scope of the first table followed by the new variables of the next tables, as in a
+     * pairwise join
+     * @param tables tables left, the joined tables are replaced by the result
+     * @param var id of the eliminated variable
+     * @param max true to max out the variable, false to sum it out
+     * @return max step for the traceback, null for a sum or a variable that is in no table
+     */
+    private static MaxStep eliminate(ArrayList<Table> tables, int var, boolean max) {
+        ArrayList<Table> inputs = new ArrayList<>();
+        int[] scope = new int[0];
+        int[] cards = new int[0];
+        int varCard = 0;
+        for (int t = tables.size() - 1; t >= 0; t--) {
+            if (indexOf(tables.get(t).scope, var) >= 0) {
+                inputs.add(0, tables.remove(t));
+            }
+        }
+        if (inputs.isEmpty()) {
+            return null;
+        }
+        double logScale = 0;
+        for (Table table : inputs) {
+            logScale += table.logScale;
+            for (int d = 0; d < table.scope.length; d++) {
+                if (table.scope[d] == var) {
+                    varCard = table.cards[d];
+                } else if (indexOf(scope, table.scope[d]) < 0) {
+                    scope = Arrays.copyOf(scope, scope.length + 1);
+                    cards = Arrays.copyOf(cards, cards.length + 1);
+                    scope[scope.length - 1] = table.scope[d];
+                    cards[cards.length - 1] = table.cards[d];
+                }
+            }
+        }
+
+        //stride =  product of no of outcomes of variables followed by the current variable in the input
+        double[][] in = new double[inputs.size()][];
+        int[][] strides = new int[inputs.size()][scope.length];
+        int[] varStrides = new int[inputs.size()];
+        for (int f = 0; f < in.length; f++) {
+            Table table = inputs.get(f);
+            in[f] = table.values;
+            int stride = 1;
+            for (int d = table.scope.length - 1; d >= 0; d--) {
+                int pos = indexOf(scope, table.scope[d]);
+                if (pos >= 0) {
+                    strides[f][pos] = stride;
+                } else {
+                    varStrides[f] = stride;
+                }
+                stride *= table.cards[d];
+            }
+        }
+        double[] out = new double[Factor.tableSize(cards)];
+        MaxStep step = null;
+        if (!max) {
+            Factor.joinSumKernel(in, strides, varStrides, varCard, cards, out);
+        } else {
+            step = new MaxStep(var, scope, cards, new int[out.length]);
+            Factor.joinMaxKernel(in, strides, varStrides, varCard, cards, out, step.argmax, false);
+        }
+        //a table whose smallest value would underflow when it is scaled down is kept as it is
+        int exponent = Factor.rescale(out);
+        if (exponent != Factor.RESCALE_FAILED) {
+            logScale += exponent * LN2;
+        }
+        tables.add(new Table(scope, cards, out, logScale));
+        return step;
+    }
+
+    /**
+     * method to get the log of the product of the tables left when every variable is eliminated
+     * @param tables tables without variables
+     * @return natural log of the product
+     */
+    private static double logTotal(ArrayList<Table> tables) {
+        double total = 0;
+        for (Table table : tables) {
+            total += Math.log(table.values[0]) + table.logScale;
+        }
+        return total;
+    }
+
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
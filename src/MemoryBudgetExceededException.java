@@ -0,0 +1,34 @@
+/**
+ * Exception thrown before a query runs when no elimination order keeps its tables within the memory budget
+ * @author 220031271
+ */
+public class MemoryBudgetExceededException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient CostEstimate estimate;
+    private final long budgetBytes;
+
+    /**
+     * constructor
+     * @param estimate cost of the cheapest plan that was tried
+     * @param budgetBytes memory budget in bytes
+     */
+    public MemoryBudgetExceededException(CostEstimate estimate, long budgetBytes) {
+        super("Query needs " + (estimate.isAllocatable()
+                                ? String.format("%.3g MB", estimate.getBytes(false) / (1 << 20))
+                                : "a table larger than the largest array")
+              + " over a budget of " + String.format("%.3g MB", budgetBytes / (double) (1 << 20))
+              + " (" + estimate + ")");
+        this.estimate = estimate;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public CostEstimate getEstimate() {
+        return estimate;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Class that writes and loads the binary network file format
+ * A network file holds a compiled network: the variables, their outcomes, their parent lists and the probability
+ * tables as little-endian doubles. It is loaded by mapping it with FileChannel.map, and the probability tables
+ * are read from the mapping without copying, so a large network is loaded without parsing any XML.
+ *
+ * Layout (little-endian):
+ *   header    magic "BNCF", version, variable count, source file length and modification time, offset and length
+ *             of the metadata and of the data, CRC32C of the metadata and of the data, CRC32C of the header
+ *   metadata  source path, then for each variable its name, outcomes, parent ids and the position and length of
+ *             its table in the data (strings are a length followed by UTF-8 bytes)
+ *   data      all the probability tables, 8 byte aligned
+ * The checksums detect corrupt files, and the recorded length and modification time of the source XML file
+ * detect files that are stale because the source changed after it was compiled.
+ * @author 220031271
+ */
+public class NetworkFile {
+
+    public static final int MAGIC = 0x46434E42;     //"BNCF" in little-endian order
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 80;
+    private static final int HEADER_CRC_POSITION = 72;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * method to write a compiled network to a network file
+     * @param net compiled network
+     * @param source XML file the network was read from (recorded to detect stale files), null if none
+     * @param file output file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(CompiledNetwork net, File source, File file) throws IOException {
+        int n = net.getVariableCount();
+
+        // metadata, with the position of every table in the data
+        ByteBuffer metadata = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        metadata = putString(metadata, source == null ? "" : source.getAbsolutePath());
+        long dataEntries = 0;
+        for (int id = 0; id < n; id++) {
+            metadata = putString(metadata, net.getVariableName(id));
+            int card = net.getCardinality(id);
+            metadata = ensure(metadata, 4);
+            metadata.putInt(card);
+            for (String outcome : net.getOutcomes(id)) {
+                metadata = putString(metadata, outcome);
+            }
+            int[] parents = net.parents(id);
+            metadata = ensure(metadata, 4 + 4 * parents.length + 12);
+            metadata.putInt(parents.length);
+            for (int parent : parents) {
+                metadata.putInt(parent);
+            }
+            int tableLength = net.getCpt(id).remaining();
+            metadata.putLong(dataEntries);
+            metadata.putInt(tableLength);
+            dataEntries += tableLength;
+        }
+        metadata.flip();
+        CRC32C metadataCrc = new CRC32C();
+        metadataCrc.update(metadata.duplicate());
+
+        long metadataOffset = HEADER_SIZE;
+        long dataOffset = align(metadataOffset + metadata.remaining());
+        long dataLength = dataEntries * Double.BYTES;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // data first, so its checksum is known when the header is written
+            channel.position(dataOffset);
+            CRC32C dataCrc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int id = 0; id < n; id++) {
+                DoubleBuffer table = net.getCpt(id);
+                while (table.hasRemaining()) {
+                    if (buffer.remaining() < Double.BYTES) {
+                        flush(channel, buffer, dataCrc);
+                    }
+                    buffer.putDouble(table.get());
+                }
+            }
+            flush(channel, buffer, dataCrc);
+
+            channel.position(metadataOffset);
+            writeFully(channel, metadata);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(n);
+            header.putInt(0);
+            header.putLong(source == null ? -1 : source.length());
+            header.putLong(source == null ? -1 : source.lastModified());
+            header.putLong(metadataOffset);
+            header.putLong(metadata.limit());
+            header.putLong(dataOffset);
+            header.putLong(dataLength);
+            header.putInt((int) metadataCrc.getValue());
+            header.putInt((int) dataCrc.getValue());
+            CRC32C headerCrc = new CRC32C();
+            headerCrc.update(header.array(), 0, HEADER_CRC_POSITION);
+            header.putInt((int) headerCrc.getValue());
+            header.putInt(0);
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+        }
+    }
+
+    /**
+     * method to load a network file, checking all the checksums and that the source file did not change
+     * @param file network file
+     * @return compiled network whose probability tables are read from the mapped file
+     * @throws IOException if the file cannot be read, is corrupt or is stale
+     */
+    public static CompiledNetwork load(File file) throws IOException {
+        return load(file, true);
+    }
+
+    /**
+     * method to load a network file
+     * @param file network file
+     * @param verifyData true to check the checksum of the probability tables, which reads the whole file
+     * @return compiled network whose probability tables are read from the mapped file
+     * @throws IOException if the file cannot be read, is corrupt or is stale
+     */
+    public static CompiledNetwork load(File file, boolean verifyData) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Corrupt network file " + file + ": file is too short");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Network file " + file + " is too large to map (" + size + " bytes)");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        // header
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a network file: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported network file version " + version + " in " + file);
+        }
+        CRC32C headerCrc = new CRC32C();
+        headerCrc.update(buffer.slice(0, HEADER_CRC_POSITION));
+        if ((int) headerCrc.getValue() != buffer.getInt(HEADER_CRC_POSITION)) {
+            throw new IOException("Corrupt network file " + file + ": header checksum mismatch");
+        }
+        int n = buffer.getInt(8);
+        long sourceLength = buffer.getLong(16);
+        long sourceLastModified = buffer.getLong(24);
+        long metadataOffset = buffer.getLong(32);
+        long metadataLength = buffer.getLong(40);
+        long dataOffset = buffer.getLong(48);
+        long dataLength = buffer.getLong(56);
+        if (n < 0 || metadataOffset < HEADER_SIZE || metadataLength < 0 || dataOffset < metadataOffset + metadataLength
+            || dataLength < 0 || dataLength % Double.BYTES != 0 || dataOffset + dataLength > buffer.capacity()) {
+            throw new IOException("Corrupt network file " + file + ": invalid section offsets");
+        }
+
+        // checksums
+        ByteBuffer metadata = buffer.slice((int) metadataOffset, (int) metadataLength).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C metadataCrc = new CRC32C();
+        metadataCrc.update(metadata.duplicate());
+        if ((int) metadataCrc.getValue() != buffer.getInt(64)) {
+            throw new IOException("Corrupt network file " + file + ": metadata checksum mismatch");
+        }
+        ByteBuffer data = buffer.slice((int) dataOffset, (int) dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        if (verifyData) {
+            CRC32C dataCrc = new CRC32C();
+            dataCrc.update(data.duplicate());
+            if ((int) dataCrc.getValue() != buffer.getInt(68)) {
+                throw new IOException("Corrupt network file " + file + ": probability table checksum mismatch");
+            }
+        }
+
+        // metadata
+        try {
+            String sourcePath = getString(metadata);
+            if (!sourcePath.isEmpty()) {
+                File source = new File(sourcePath);
+                if (source.exists() && (source.length() != sourceLength
+                                        || source.lastModified() != sourceLastModified)) {
+                    throw new IOException("Stale network file " + file + ": " + sourcePath
+                                          + " changed after it was compiled");
+                }
+            }
+            String[] names = new String[n];
+            String[][] outcomes = new String[n][];
+            int[][] parents = new int[n][];
+            DoubleBuffer[] tables = new DoubleBuffer[n];
+            long[] tableOffsets = new long[n];
+            int[] tableLengths = new int[n];
+            for (int id = 0; id < n; id++) {
+                names[id] = getString(metadata);
+                outcomes[id] = new String[metadata.getInt()];
+                for (int o = 0; o < outcomes[id].length; o++) {
+                    outcomes[id][o] = getString(metadata);
+                }
+                parents[id] = new int[metadata.getInt()];
+                for (int p = 0; p < parents[id].length; p++) {
+                    parents[id][p] = metadata.getInt();
+                    if (parents[id][p] < 0 || parents[id][p] >= n) {
+                        throw new IOException("Corrupt network file " + file + ": invalid parent of " + names[id]);
+                    }
+                }
+                tableOffsets[id] = metadata.getLong();
+                tableLengths[id] = metadata.getInt();
+            }
+
+            // every table must have one value per combination of the outcomes of the parents and the variable
+            for (int id = 0; id < n; id++) {
+                long expected = outcomes[id].length;
+                for (int parent : parents[id]) {
+                    expected *= outcomes[parent].length;
+                }
+                long start = tableOffsets[id] * Double.BYTES;
+                long end = start + (long) tableLengths[id] * Double.BYTES;
+                if (tableLengths[id] != expected || start < 0 || end > dataLength) {
+                    throw new IOException("Corrupt network file " + file + ": invalid table of " + names[id]);
+                }
+                tables[id] = data.slice((int) start, (int) (end - start)).order(ByteOrder.LITTLE_ENDIAN)
+                                 .asDoubleBuffer().asReadOnlyBuffer();
+            }
+            return new CompiledNetwork(names, outcomes, parents, tables);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt network file " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * method to check if a file starts with the magic number of a network file
+     * @param file file to check
+     * @return true if the file is a network file
+     */
+    public static boolean isNetworkFile(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                //read the first 4 bytes
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32C crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * method to make room in a growable buffer
+     * @param buffer buffer in write mode
+     * @param bytes number of bytes to be written
+     * @return the same buffer, or a larger copy
+     */
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer larger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static ByteBuffer putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer = ensure(buffer, 4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
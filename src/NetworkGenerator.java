@@ -0,0 +1,451 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class that generates synthetic Bayesian Networks for scale and load testing
+ * Networks are built from a topology family, a number of variables, a maximum in-degree, a range of
+ * cardinalities and an optional target treewidth, with random normalised probability tables. The same settings and
+ * seed always give the same network, whether it is built directly or written as XMLBIF.
+ * Probabilities are multiples of 2^-20, so every row of a table sums to exactly 1 and passes validation.
+ * @author 220031271
+ */
+public class NetworkGenerator {
+
+    /**
+     * families of network structures
+     */
+    public enum Topology {
+        CHAIN,      //V(i-1) -> Vi
+        POLYTREE,   //random tree with random edge directions (no undirected cycles)
+        GRID,       //grid of ceil(sqrt(n)) columns, parents are the left and upper neighbours
+        RANDOM,     //random parents among the earlier variables, within the last treewidth variables if set
+        KTREE       //partial k-tree with k = treewidth, parents are a k-clique of the earlier variables
+    }
+
+    public static final int MAX_NODES = 100000;
+
+    private static final int PROBABILITY_RESOLUTION = 1 << 20;     //probabilities are multiples of 1/resolution
+
+    private final long seed;
+    private int nodeCount = 100;
+    private Topology topology = Topology.RANDOM;
+    private int maxInDegree = 3;
+    private int minCardinality = 2;
+    private int maxCardinality = 2;
+    private int treewidth = 0;      //0 for no bound
+
+    private int[] cardinalities;    //no of outcomes of each generated variable
+    private int[][] parents;        //parent ids of each generated variable
+    private double[][] cpts;        //probability table of each generated variable
+
+    /**
+     * constructor
+     * @param seed seed of the structure and the probability tables
+     */
+    public NetworkGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * method to build the network
+     * generated networks are acyclic by construction
+     * @return generated Bayesian Network, compiled
+     */
+    public BayesianNetwork generate() {
+        build();
+        BayesianNetwork bn = new BayesianNetwork();
+        int n = nodeCount;
+        for (int v = 0; v < n; v++) {
+            bn.addNode(name(v), outcomes(v), v);
+        }
+        for (int v = 0; v < n; v++) {
+            BNVariable var = bn.getVariable(name(v));
+            ArrayList<String> parentNames = new ArrayList<>(parents[v].length);
+            for (int p : parents[v]) {
+                parentNames.add(name(p));
+            }
+            var.setParents(parentNames);
+            var.setProbabilityValues(cpts[v].clone());
+        }
+        bn.setGraph(Graph.fromParents(parents));
+        bn.compile();
+        return bn;
+    }
+
+    /**
+     * method to write the network as an XMLBIF file
+     * @param file output file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeXmlBif(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            writeXmlBif(out);
+        }
+    }
+
+    /**
+     * method to write the network in the XMLBIF format read by BNParser
+     * @param writer output writer, not closed
+     */
+    public void writeXmlBif(Writer writer) {
+        build();
+        PrintWriter out = new PrintWriter(writer);
+        out.println("<?xml version=\"1.0\"?>");
+        out.println("<BIF VERSION=\"0.3\">");
+        out.println("<NETWORK>");
+        out.println("<NAME>" + topology.name().toLowerCase() + "-" + nodeCount + "-" + seed + "</NAME>");
+        for (int v = 0; v < nodeCount; v++) {
+            out.println("<VARIABLE TYPE=\"nature\">");
+            out.println("  <NAME>" + name(v) + "</NAME>");
+            for (String outcome : outcomes(v)) {
+                out.println("  <OUTCOME>" + outcome + "</OUTCOME>");
+            }
+            out.println("</VARIABLE>");
+        }
+        StringBuilder table = new StringBuilder();
+        for (int v = 0; v < nodeCount; v++) {
+            out.println("<DEFINITION>");
+            out.println("  <FOR>" + name(v) + "</FOR>");
+            for (int p : parents[v]) {
+                out.println("  <GIVEN>" + name(p) + "</GIVEN>");
+            }
+            table.setLength(0);
+            for (int i = 0; i < cpts[v].length; i++) {
+                if (i > 0) {
+                    table.append(' ');
+                }
+                table.append(cpts[v][i]);
+            }
+            out.println("  <TABLE>" + table + "</TABLE>");
+            out.println("</DEFINITION>");
+        }
+        out.println("</NETWORK>");
+        out.println("</BIF>");
+        out.flush();
+    }
+
+    /**
+     * method to generate the structure and the probability tables from the settings and the seed
+     */
+    private void build() {
+        if (topology == Topology.KTREE && treewidth < 1) {
+            throw new IllegalArgumentException("KTREE needs a treewidth of at least 1");
+        }
+        Random random = new Random(seed);
+        int n = nodeCount;
+        cardinalities = new int[n];
+        for (int v = 0; v < n; v++) {
+            cardinalities[v] = minCardinality + random.nextInt(maxCardinality - minCardinality + 1);
+        }
+
+        switch (topology) {
+            case CHAIN:
+                parents = chain(n);
+                break;
+            case POLYTREE:
+                parents = polytree(n, random);
+                break;
+            case GRID:
+                parents = grid(n);
+                break;
+            case RANDOM:
+                parents = randomDag(n, random);
+                break;
+            case KTREE:
+                parents = kTree(n, random);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown topology: " + topology);
+        }
+
+        cpts = new double[n][];
+        for (int v = 0; v < n; v++) {
+            long rows = 1;
+            for (int p : parents[v]) {
+                rows *= cardinalities[p];
+            }
+            if (rows * cardinalities[v] > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Probability table of " + name(v) + " is too large");
+            }
+            cpts[v] = new double[(int) rows * cardinalities[v]];
+            for (int r = 0; r < rows; r++) {
+                randomDistribution(random, cpts[v], r * cardinalities[v], cardinalities[v]);
+            }
+        }
+    }
+
+    private int[][] chain(int n) {
+        int[][] result = new int[n][];
+        for (int v = 0; v < n; v++) {
+            result[v] = v == 0 ? new int[0] : new int[]{v - 1};
+        }
+        return result;
+    }
+
+    /**
+     * method to build a random tree and direct every edge at random
+     * an edge is turned towards the older variable only while that variable has room for another parent
+     * @param n number of variables
+     * @param random source of randomness
+     * @return parent ids of each variable
+     */
+    private int[][] polytree(int n, Random random) {
+        int[][] result = new int[n][0];
+        for (int v = 1; v < n; v++) {
+            int u = random.nextInt(v);
+            if (random.nextBoolean() && result[u].length < maxInDegree) {
+                result[u] = append(result[u], v);
+            } else {
+                result[v] = append(result[v], u);
+            }
+        }
+        return result;
+    }
+
+    private int[][] grid(int n) {
+        int side = (int) Math.ceil(Math.sqrt(n));
+        int[][] result = new int[n][];
+        for (int v = 0; v < n; v++) {
+            int[] p = new int[0];
+            if (v % side > 0 && maxInDegree > 0) {
+                p = append(p, v - 1);
+            }
+            if (v >= side && maxInDegree > p.length) {
+                p = append(p, v - side);
+            }
+            result[v] = p;
+        }
+        return result;
+    }
+
+    /**
+     * method to pick between 1 and maxInDegree random parents for every variable among the earlier variables
+     * when a treewidth is set the parents are taken from the last treewidth variables, the bandwidth of the
+     * order (and so the treewidth) is then at most the treewidth
+     * @param n number of variables
+     * @param random source of randomness
+     * @return parent ids of each variable
+     */
+    private int[][] randomDag(int n, Random random) {
+        int[][] result = new int[n][];
+        result[0] = new int[0];
+        for (int v = 1; v < n; v++) {
+            int window = treewidth > 0 ? Math.min(treewidth, v) : v;
+            int count = maxInDegree == 0 ? 0 : 1 + random.nextInt(Math.min(maxInDegree, window));
+            int[] p = new int[count];
+            for (int i = 0; i < count; i++) {
+                int candidate;
+                do {
+                    candidate = v - 1 - random.nextInt(window);
+                } while (contains(p, i, candidate));
+                p[i] = candidate;
+            }
+            Arrays.sort(p);
+            result[v] = p;
+        }
+        return result;
+    }
+
+    /**
+     * method to build a partial k-tree
+     * the first k + 1 variables form a clique, every later variable is joined to a random k-clique of the earlier
+     * variables. When the in-degree is below k a random subset of the clique is used, which keeps the treewidth at
+     * most k.
+     * @param n number of variables
+     * @param random source of randomness
+     * @return parent ids of each variable
+     */
+    private int[][] kTree(int n, Random random) {
+        int k = treewidth;
+        int[][] result = new int[n][];
+        ArrayList<int[]> cliques = new ArrayList<>();
+        int[] first = new int[Math.min(k + 1, n)];
+        for (int v = 0; v < first.length; v++) {
+            first[v] = v;
+            int[] earlier = Arrays.copyOf(first, v);
+            result[v] = sample(earlier, maxInDegree, random);
+        }
+        if (first.length == k + 1) {
+            for (int skip = 0; skip <= k; skip++) {
+                cliques.add(without(first, skip));
+            }
+        }
+        for (int v = k + 1; v < n; v++) {
+            int[] clique = cliques.get(random.nextInt(cliques.size()));
+            result[v] = sample(clique, maxInDegree, random);
+            for (int skip = 0; skip < k; skip++) {
+                cliques.add(append(without(clique, skip), v));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * method to fill a row of a probability table with a random distribution
+     * the row is cut at distinct random points of [1, resolution - 1], so every probability is positive and the
+     * probabilities sum to exactly 1
+     * @param random source of randomness
+     * @param table probability table
+     * @param offset position of the row
+     * @param card no of outcomes
+     */
+    private static void randomDistribution(Random random, double[] table, int offset, int card) {
+        int[] cuts = new int[card + 1];
+        cuts[card] = PROBABILITY_RESOLUTION;
+        for (int i = 1; i < card; i++) {
+            int cut;
+            do {
+                cut = 1 + random.nextInt(PROBABILITY_RESOLUTION - 1);
+            } while (contains(cuts, i, cut));
+            cuts[i] = cut;
+        }
+        Arrays.sort(cuts, 1, card);
+        for (int i = 0; i < card; i++) {
+            table[offset + i] = (cuts[i + 1] - cuts[i]) / (double) PROBABILITY_RESOLUTION;
+        }
+    }
+
+    /**
+     * method to pick a random subset of a set of ids
+     * @param ids ids to pick from
+     * @param count maximum size of the subset
+     * @param random source of randomness
+     * @return sorted subset
+     */
+    private static int[] sample(int[] ids, int count, Random random) {
+        int[] shuffled = ids.clone();
+        int size = Math.min(count, shuffled.length);
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(shuffled.length - i);
+            int tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+        int[] subset = Arrays.copyOf(shuffled, size);
+        Arrays.sort(subset);
+        return subset;
+    }
+
+    private static boolean contains(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static int[] without(int[] array, int index) {
+        int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
+    private static String name(int v) {
+        return "V" + v;
+    }
+
+    private ArrayList<String> outcomes(int v) {
+        ArrayList<String> outcomes = new ArrayList<>(cardinalities[v]);
+        for (int o = 0; o < cardinalities[v]; o++) {
+            outcomes.add(o == 0 ? "T" : o == 1 ? "F" : "o" + o);
+        }
+        return outcomes;
+    }
+
+    // getters and setters methods
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * method to set the number of variables
+     * @param nodeCount number of variables, between 1 and MAX_NODES
+     */
+    public void setNodeCount(int nodeCount) {
+        if (nodeCount < 1 || nodeCount > MAX_NODES) {
+            throw new IllegalArgumentException("Node count must be between 1 and " + MAX_NODES + ": " + nodeCount);
+        }
+        this.nodeCount = nodeCount;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    public void setTopology(Topology topology) {
+        this.topology = topology;
+    }
+
+    public int getMaxInDegree() {
+        return maxInDegree;
+    }
+
+    /**
+     * method to set the maximum number of parents of a variable
+     * @param maxInDegree maximum in-degree, at least 0
+     */
+    public void setMaxInDegree(int maxInDegree) {
+        if (maxInDegree < 0) {
+            throw new IllegalArgumentException("In-degree must not be negative: " + maxInDegree);
+        }
+        this.maxInDegree = maxInDegree;
+    }
+
+    public int getMinCardinality() {
+        return minCardinality;
+    }
+
+    public int getMaxCardinality() {
+        return maxCardinality;
+    }
+
+    /**
+     * method to set the range of the number of outcomes of a variable, each variable gets a random number in it
+     * @param minCardinality smallest no of outcomes, at least 2
+     * @param maxCardinality largest no of outcomes
+     */
+    public void setCardinality(int minCardinality, int maxCardinality) {
+        if (minCardinality < 2 || maxCardinality < minCardinality) {
+            throw new IllegalArgumentException("Invalid cardinality range: " + minCardinality + "-" + maxCardinality);
+        }
+        this.minCardinality = minCardinality;
+        this.maxCardinality = maxCardinality;
+    }
+
+    public int getTreewidth() {
+        return treewidth;
+    }
+
+    /**
+     * method to set the target treewidth
+     * KTREE networks have exactly this treewidth when the in-degree is at least the treewidth, RANDOM networks
+     * have at most this treewidth, the other topologies ignore it
+     * @param treewidth target treewidth, 0 for no bound
+     */
+    public void setTreewidth(int treewidth) {
+        if (treewidth < 0) {
+            throw new IllegalArgumentException("Treewidth must not be negative: " + treewidth);
+        }
+        this.treewidth = treewidth;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Class that stores the size and the throughput of the parse of a network file
+ * @author 220031271
+ */
+public class ParseStatistics {
+
+    private long bytes;             //size of the file
+    private int variables;          //number of variables
+    private long tableEntries;      //number of probability values
+    private long nanos;             //time taken by the parse
+
+    /**
+     * method to record a parse
+     * @param bytes size of the file
+     * @param variables number of variables
+     * @param tableEntries number of probability values
+     * @param nanos time taken by the parse in nanoseconds
+     */
+    public void record(long bytes, int variables, long tableEntries, long nanos) {
+        this.bytes = bytes;
+        this.variables = variables;
+        this.tableEntries = tableEntries;
+        this.nanos = nanos;
+    }
+
+    /**
+     * method to build the report of the parse
+     * @return size, time and throughput in one line
+     */
+    public String report() {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        return String.format("parsed variables=%d table_entries=%d bytes=%d time=%.3fs throughput=%.1f MB/s"
+                             + " %.0f entries/s", variables, tableEntries, bytes, seconds,
+                             bytes / seconds / 1e6, tableEntries / seconds);
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getVariables() {
+        return variables;
+    }
+
+    public long getTableEntries() {
+        return tableEntries;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.List;
+
+/**
+ * Class that stores the joint posterior distribution of some query variables given the evidence
+ * The distribution is the normalised final factor of one elimination, so every joint outcome is read from the
+ * same run instead of one query per outcome. The normalising constant of that factor is the probability of the
+ * evidence, which is kept as a log since the probability of a long evidence chain underflows.
+ * @author 220031271
+ */
+public class Posterior {
+
+    private final CompiledNetwork net;
+    private final Factor factor;
+    private final double logEvidenceProbability;
+
+    /**
+     * constructor
+     * @param net compiled network
+     * @param factor normalised factor over the query variables, in the order they were asked
+     * @param logEvidenceProbability natural log of the probability of the evidence
+     */
+    Posterior(CompiledNetwork net, Factor factor, double logEvidenceProbability) {
+        this.net = net;
+        this.factor = factor;
+        this.logEvidenceProbability = logEvidenceProbability;
+    }
+
+    /**
+     * method to get the probability of one joint outcome of the query variables
+     * @param values outcome index of every query variable, in the order of getVariables
+     * @return posterior probability, NaN if the evidence is impossible
+     */
+    public double getProbability(int... values) {
+        int[] cards = factor.getCardinalities();
+        if (values.length != cards.length) {
+            throw new IllegalArgumentException("Expected " + cards.length + " values, got " + values.length);
+        }
+        int index = 0;
+        for (int d = 0; d < cards.length; d++) {
+            if (values[d] < 0 || values[d] >= cards[d]) {
+                throw new IllegalArgumentException("Outcome index " + values[d] + " out of range for "
+                                                   + net.getVariableName(factor.getScope()[d]));
+            }
+            index = index * cards[d] + values[d];
+        }
+        return factor.getValues()[index];
+    }
+
+    /**
+     * method to get the probability of one joint outcome given by names
+     * @param outcomes outcome of every query variable, in the order of getVariables
+     * @return posterior probability, NaN if the evidence is impossible
+     */
+    public double getProbability(String... outcomes) {
+        int[] scope = factor.getScope();
+        if (outcomes.length != scope.length) {
+            throw new IllegalArgumentException("Expected " + scope.length + " outcomes, got " + outcomes.length);
+        }
+        int[] values = new int[scope.length];
+        for (int d = 0; d < scope.length; d++) {
+            List<String> names = net.getOutcomes(scope[d]);
+            values[d] = names.indexOf(outcomes[d]);
+            if (values[d] < 0) {
+                throw new IllegalArgumentException("Unknown outcome " + outcomes[d] + " of "
+                                                   + net.getVariableName(scope[d]));
+            }
+        }
+        return getProbability(values);
+    }
+
+    public Factor getFactor() {
+        return factor;
+    }
+
+    /**
+     * Get the ids of the query variables
+     * @return ids in the order they were asked, the last one changes fastest in getDistribution
+     */
+    public int[] getVariables() {
+        return factor.getScope().clone();
+    }
+
+    /**
+     * Get the whole joint distribution
+     * @return probabilities in row-major order of the query variables
+     */
+    public double[] getDistribution() {
+        return factor.getValues().clone();
+    }
+
+    /**
+     * Get the probability of the evidence, P(e)
+     * @return probability, 0 if it underflows (see getLogEvidenceProbability)
+     */
+    public double getEvidenceProbability() {
+        return Math.exp(logEvidenceProbability);
+    }
+
+    public double getLogEvidenceProbability() {
+        return logEvidenceProbability;
+    }
+
+    @Override
+    public String toString() {
+        int[] scope = factor.getScope();
+        int[] cards = factor.getCardinalities();
+        double[] values = factor.getValues();
+        StringBuilder sb = new StringBuilder();
+        int[] digits = new int[scope.length];
+        for (int i = 0; i < values.length; i++) {
+            for (int d = 0; d < scope.length; d++) {
+                sb.append(net.getVariableName(scope[d])).append(':')
+                  .append(net.getOutcomes(scope[d]).get(digits[d])).append(' ');
+            }
+            sb.append(String.format("%.5f", values[i])).append(System.lineSeparator());
+            for (int d = scope.length - 1; d >= 0 && ++digits[d] == cards[d]; d--) {
+                digits[d] = 0;
+            }
+        }
+        return sb.append(String.format("P(e) = %.5g", getEvidenceProbability())).toString();
+    }
+}
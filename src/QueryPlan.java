@@ -0,0 +1,909 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class that stores a compiled query plan
+ * A plan is compiled once for a query variable, a set of evidence variables and an optional order of
+ * elimination. The pruned factor set, the elimination order, the layout of every intermediate factor and the
+ * sizes of the value buffers are fixed at compile time, so executing the plan only binds the evidence values and
+ * runs the table kernels.
+ * The layout is immutable after compilation and the plan reads the probability tables of an immutable
+ * CompiledNetwork, so one plan can be executed by many threads at once. Each execution takes a set of value
+ * buffers from a small pool of the plan and gives it back when it ends. The pool keeps at most one set per core,
+ * so the buffers of a plan do not outlive it and do not grow with the number of threads that ran it.
+ * The kernel of every step is chosen when the plan is compiled. The density of each probability table is counted
+ * once, the density of each step output is estimated from the densities of its inputs, and a step whose sparsest
+ * input is below the density threshold of Factor is driven by the nonzero cells of that input instead of the dense
+ * kernel.
+ * A plan can also be executed in log space for queries whose products would underflow. Every step is first run
+ * with the linear kernel and its output is rescaled by a power of two, which keeps long evidence chains in range at
+ * the speed of the linear kernel. A step whose products still underflow is run again with the log-sum-exp kernel on
+ * the logs of its inputs, and its output stays in log space until it can be converted back without underflow.
+ * A plan can also have several query variables, its final factor is then their joint distribution. A plan compiled
+ * for the probability of the evidence keeps every table that is not barren, instead of only the requisite ones, so
+ * the total of its final factor is P(e); the scale of every rescaled step is kept as a log for that total.
+ * With a FactorCache the steps are first looked up from the final step down, and only the steps below a miss are
+ * computed, so a sub-network eliminated by an earlier query with the same evidence is not eliminated again.
+ * The sizes and operations of the steps are predicted when the plan is compiled (CostEstimate), before any buffer
+ * is allocated, and a plan with a table larger than an array fails before it allocates anything.
+ * @author 220031271
+ */
+public class QueryPlan {
+
+    /**
+     * initial factor of a variable, reduced to the evidence
+     */
+    private static class InitialFactor {
+        int variable;           //variable whose probability table feeds the factor
+        int[] evidenceStrides;  //stride of each evidence variable in the table (0 if absent)
+        int[] strides;          //stride of each remaining variable in the table
+        int[] cards;            //cardinalities of the remaining variables
+        boolean reduced;        //false if the table has no evidence variable and is used as it is
+        double density;         //fraction of nonzero cells of the table, also used for its reduced table
+    }
+
+    /**
+     * elimination step, joins some factors and sums out one variable
+     */
+    private static class Step {
+        int variable;           //summed variable, -1 for the final join
+        int[] inputs;           //slots of the joined factors
+        int[][] strides;        //stride of each output variable in each input
+        int[] sumStrides;       //stride of the summed variable in each input
+        int sumCard;            //no of outcomes of the summed variable
+        int driver;             //input that drives the sparse kernel, -1 for the dense kernel
+        int[] scope;            //scope of the output factor
+        int[] cards;            //cardinalities of the output variables
+        int size;               //no of output values
+        long work;              //no of joined cells of the step and every step below it
+        int[] signature;        //tables, summed variables, evidence variables and scope, the key of the output
+        int signatureHash;
+        int[] evidencePositions; //positions in the plan of the evidence variables of the signature
+    }
+
+    /**
+     * value buffers of one execution of the plan
+     */
+    private static class Buffers {
+        final double[][] slots;     //values of the initial factors followed by the output of every step
+        final double[][][] in;      //values of the inputs of every step
+        final double[][] logSlots;  //log values of the slots, only allocated in log space
+        final boolean[] inLogSpace; //true if the values of a slot are in its log slot
+        final double[] logScales;   //log of the factor the values of each slot were divided by when rescaled
+        final boolean[] needed;     //false for the slots below a cached step, they are not computed
+        final FactorCache.Key[] keys; //key of each step missed in the factor cache, null otherwise
+        final boolean[] underflow = new boolean[1];
+
+        Buffers(InitialFactor[] initialFactors, Step[] steps) {
+            this.slots = new double[initialFactors.length + steps.length][];
+            for (int i = 0; i < initialFactors.length; i++) {
+                if (initialFactors[i].reduced) {
+                    slots[i] = new double[Factor.tableSize(initialFactors[i].cards)];
+                }
+            }
+            this.logSlots = new double[slots.length][];
+            this.inLogSpace = new boolean[slots.length];
+            this.logScales = new double[slots.length];
+            this.needed = new boolean[slots.length];
+            this.keys = new FactorCache.Key[steps.length];
+            this.in = new double[steps.length][][];
+            for (int i = 0; i < steps.length; i++) {
+                slots[initialFactors.length + i] = new double[steps[i].size];
+                in[i] = new double[steps[i].inputs.length][];
+            }
+        }
+    }
+
+    private static final double LN2 = Math.log(2);
+    private static final int POOLED_BUFFERS = Runtime.getRuntime().availableProcessors();
+
+    private final CompiledNetwork net;
+    private final int[] queryVariables;
+    private final int[] evidenceVariables;
+    private final InitialFactor[] initialFactors;
+    private final Step[] steps;
+    private final EliminationOrder ordering;    //order of elimination with its width and size
+    private final CostEstimate cost;            //predicted sizes and operations of the steps
+    private final AtomicReferenceArray<Buffers> pool = new AtomicReferenceArray<>(POOLED_BUFFERS);
+
+    private QueryPlan(CompiledNetwork net, int[] queryVariables, int[] evidenceVariables,
+                      InitialFactor[] initialFactors, Step[] steps, EliminationOrder ordering) {
+        this.net = net;
+        this.queryVariables = queryVariables;
+        this.evidenceVariables = evidenceVariables;
+        this.initialFactors = initialFactors;
+        this.steps = steps;
+        this.ordering = ordering;
+        this.cost = estimate(net, initialFactors, steps);
+    }
+
+    /**
+     * method to take a set of buffers from the pool, a new set is allocated if the pool is empty
+     * @return buffers only used by the caller until they are released
+     */
+    private Buffers acquireBuffers() {
+        for (int i = 0; i < POOLED_BUFFERS; i++) {
+            Buffers b = pool.getAndSet(i, null);
+            if (b != null) {
+                return b;
+            }
+        }
+        if (!cost.isAllocatable()) {
+            throw new MemoryBudgetExceededException(cost, Long.MAX_VALUE);
+        }
+        return new Buffers(initialFactors, steps);
+    }
+
+    /**
+     * method to give a set of buffers back to the pool, it is dropped if the pool is full
+     * @param b buffers that are no longer used
+     */
+    private void releaseBuffers(Buffers b) {
+        for (int i = 0; i < POOLED_BUFFERS; i++) {
+            if (pool.get(i) == null && pool.compareAndSet(i, null, b)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * method to predict the cost of the plan from the scopes and cardinalities, nothing is allocated
+     * @param net compiled network
+     * @param initialFactors initial factors of the plan
+     * @param steps steps of the plan
+     * @return predicted sizes and operations
+     */
+    private static CostEstimate estimate(CompiledNetwork net, InitialFactor[] initialFactors, Step[] steps) {
+        double tableCells = 0;
+        for (InitialFactor f : initialFactors) {
+            if (f.reduced) {
+                tableCells += Factor.tableSize(f.cards);
+            }
+        }
+        double[] outputCells = new double[steps.length];
+        double[] joinedCells = new double[steps.length];
+        int[] inputs = new int[steps.length];
+        for (int s = 0; s < steps.length; s++) {
+            double cells = 1;
+            for (int card : steps[s].cards) {
+                cells *= card;
+            }
+            outputCells[s] = cells;
+            joinedCells[s] = cells * steps[s].sumCard;
+            inputs[s] = steps[s].inputs.length;
+        }
+        return new CostEstimate(outputCells, joinedCells, inputs, tableCells);
+    }
+
+    /**
+     * method to compile a query plan
+     * @param net compiled network
+     * @param queryVar id of the query variable
+     * @param evidenceVars ids of the evidence variables
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @param strategy heuristic used when no order is given
+     * @param timeBudgetMillis time budget of the randomized ordering strategy
+     * @return compiled plan
+     */
+    public static QueryPlan compile(CompiledNetwork net, int queryVar, int[] evidenceVars, int[] order,
+                                    EliminationOrder.Strategy strategy, long timeBudgetMillis) {
+        return compile(net, new int[] {queryVar}, evidenceVars, order, strategy, timeBudgetMillis, false);
+    }
+
+    /**
+     * method to compile a query plan for the joint distribution of some query variables
+     * @param net compiled network
+     * @param queryVars ids of the query variables, in the order of the final factor (none to only get P(e))
+     * @param evidenceVars ids of the evidence variables
+     * @param order ids in the order of elimination (null to use the ordering strategy)
+     * @param strategy heuristic used when no order is given
+     * @param timeBudgetMillis time budget of the randomized ordering strategy
+     * @param evidenceProbability true to keep every table P(e) depends on (only barren variables are pruned),
+     *                            false to keep only the requisite tables of the query
+     * @return compiled plan
+     */
+    public static QueryPlan compile(CompiledNetwork net, int[] queryVars, int[] evidenceVars, int[] order,
+                                    EliminationOrder.Strategy strategy, long timeBudgetMillis,
+                                    boolean evidenceProbability) {
+        for (int queryVar : queryVars) {
+            if (indexOf(evidenceVars, queryVar) >= 0) {
+                throw new IllegalArgumentException("Query variable " + net.getVariableName(queryVar)
+                                                   + " is also evidence");
+            }
+        }
+        BitSet requisite;
+        if (evidenceProbability) {
+            // tables of the query, the evidence and their ancestors, the other variables are barren
+            BitSet nuisance = new BitSet(net.getVariableCount());
+            nuisance.set(0, net.getVariableCount());
+            for (int queryVar : queryVars) {
+                nuisance.clear(queryVar);
+            }
+            for (int evidenceVar : evidenceVars) {
+                nuisance.clear(evidenceVar);
+            }
+            Inference.pruneNuisanceList(net, nuisance);
+            requisite = (BitSet) nuisance.clone();
+            for (int queryVar : queryVars) {
+                requisite.set(queryVar);
+            }
+            for (int evidenceVar : evidenceVars) {
+                requisite.set(evidenceVar);
+            }
+        } else {
+            // requisite probability tables (Bayes-ball), the other tables are barren or d-separated from the query
+            requisite = Inference.requisiteVariables(net, queryVars, evidenceVars);
+        }
+
+        //nuisance variables are the variables of the requisite tables other than the query and the evidence
+        BitSet nuisanceVariables = (BitSet) requisite.clone();
+        for (int queryVar : queryVars) {
+            nuisanceVariables.clear(queryVar);
+        }
+        for (int evidenceVar : evidenceVars) {
+            nuisanceVariables.clear(evidenceVar);
+        }
+
+        // initial factors of the requisite tables, reduced to the evidence
+        ArrayList<InitialFactor> initial = new ArrayList<>();
+        ArrayList<int[]> scopes = new ArrayList<>();    //scope of the factor in each live slot
+        ArrayList<Integer> live = new ArrayList<>();     //slots not consumed by a step yet, in list order
+        for (int id = requisite.nextSetBit(0); id >= 0; id = requisite.nextSetBit(id + 1)) {
+            Factor cpt = Factor.fromVariable(net, id);
+            int[] scope = cpt.getScope();
+            InitialFactor f = new InitialFactor();
+            f.variable = id;
+            f.evidenceStrides = new int[evidenceVars.length];
+            int[] remaining = new int[scope.length];
+            int[] strides = new int[scope.length];
+            int[] cards = new int[scope.length];
+            int n = 0;
+            for (int i = 0; i < scope.length; i++) {
+                int e = indexOf(evidenceVars, scope[i]);
+                if (e >= 0) {
+                    f.evidenceStrides[e] = cpt.getStrides()[i];
+                } else {
+                    remaining[n] = scope[i];
+                    strides[n] = cpt.getStrides()[i];
+                    cards[n] = cpt.getCardinalities()[i];
+                    n++;
+                }
+            }
+            f.strides = Arrays.copyOf(strides, n);
+            f.cards = Arrays.copyOf(cards, n);
+            f.reduced = n < scope.length;
+            f.density = (double) Factor.countNonZeros(net.cpt(id)) / net.cpt(id).length;
+            live.add(initial.size());
+            scopes.add(Arrays.copyOf(remaining, n));
+            initial.add(f);
+        }
+
+        // order the remaining nuisance variables, the heuristics work on the scopes of the reduced factors
+        int[][] initialScopes = scopes.toArray(new int[0][]);
+        int[] eliminationOrder;
+        if (order != null || strategy == EliminationOrder.Strategy.REVERSE_TOPOLOGICAL) {
+            eliminationOrder = Inference.orderNuisanceVariables(net, nuisanceVariables, order);
+        } else {
+            eliminationOrder = EliminationOrder.compute(strategy, initialScopes, net.cardinalities(),
+                                                        nuisanceVariables, timeBudgetMillis, 0).getOrder();
+        }
+        EliminationOrder ordering = EliminationOrder.evaluate(eliminationOrder, initialScopes,
+                                                              net.cardinalities());
+
+        // elimination based on the order
+        ArrayList<Step> steps = new ArrayList<>();
+        for (int nuisanceVar : eliminationOrder) {
+            ArrayList<Integer> inputs = new ArrayList<>();
+            for (int slot : live) {
+                if (indexOf(scopes.get(slot), nuisanceVar) >= 0) {
+                    inputs.add(slot);
+                }
+            }
+            live.removeAll(inputs);
+            live.add(scopes.size());
+            Step step = buildStep(net, nuisanceVar, inputs, scopes);
+            scopes.add(step.scope);
+            steps.add(step);
+        }
+
+        // join all remaining factors into the final factor over the query variables
+        Step last = buildStep(net, -1, live, scopes);
+        if (!Arrays.equals(last.scope, queryVars)) {
+            last = buildStep(net, -1, live, scopes, queryVars.clone());
+        }
+        steps.add(last);
+        sign(initial, steps, evidenceVars);
+        chooseKernels(initial, steps);
+
+        return new QueryPlan(net, queryVars.clone(), evidenceVars.clone(), initial.toArray(new InitialFactor[0]),
+                             steps.toArray(new Step[0]), ordering);
+    }
+
+    /**
+     * method to compute the signature of every step, its output only depends on the probability tables below it,
+     * the variables summed out below it and the values of the evidence variables of those tables
+     * @param initial initial factors of the plan
+     * @param steps steps of the plan
+     * @param evidenceVars ids of the evidence variables, sorted
+     */
+    private static void sign(ArrayList<InitialFactor> initial, ArrayList<Step> steps, int[] evidenceVars) {
+        int slotCount = initial.size() + steps.size();
+        BitSet[] tables = new BitSet[slotCount];
+        BitSet[] summed = new BitSet[slotCount];
+        BitSet[] evidence = new BitSet[slotCount];
+        long[] work = new long[slotCount];
+        for (int i = 0; i < initial.size(); i++) {
+            InitialFactor f = initial.get(i);
+            tables[i] = new BitSet();
+            tables[i].set(f.variable);
+            summed[i] = new BitSet();
+            evidence[i] = new BitSet(evidenceVars.length);
+            for (int e = 0; e < evidenceVars.length; e++) {
+                if (f.evidenceStrides[e] != 0) {
+                    evidence[i].set(e);
+                }
+            }
+        }
+        for (int s = 0; s < steps.size(); s++) {
+            Step step = steps.get(s);
+            int out = initial.size() + s;
+            tables[out] = new BitSet();
+            summed[out] = new BitSet();
+            evidence[out] = new BitSet(evidenceVars.length);
+            work[out] = (long) step.size * step.sumCard;
+            for (int in : step.inputs) {
+                tables[out].or(tables[in]);
+                summed[out].or(summed[in]);
+                evidence[out].or(evidence[in]);
+                work[out] += work[in];
+            }
+            if (step.variable >= 0) {
+                summed[out].set(step.variable);
+            }
+            step.work = work[out];
+            step.evidencePositions = evidence[out].stream().toArray();
+
+            // tables, -1, summed variables, -1, evidence variables, -1, output scope
+            int[] signature = new int[tables[out].cardinality() + summed[out].cardinality()
+                                      + step.evidencePositions.length + step.scope.length + 3];
+            int n = 0;
+            for (int id = tables[out].nextSetBit(0); id >= 0; id = tables[out].nextSetBit(id + 1)) {
+                signature[n++] = id;
+            }
+            signature[n++] = -1;
+            for (int id = summed[out].nextSetBit(0); id >= 0; id = summed[out].nextSetBit(id + 1)) {
+                signature[n++] = id;
+            }
+            signature[n++] = -1;
+            for (int e : step.evidencePositions) {
+                signature[n++] = evidenceVars[e];
+            }
+            signature[n++] = -1;
+            System.arraycopy(step.scope, 0, signature, n, step.scope.length);
+            step.signature = signature;
+            step.signatureHash = Arrays.hashCode(signature);
+        }
+    }
+
+    /**
+     * method to choose the kernel of every step from the densities of its inputs
+     * the density of a step output is estimated as if the zeros of its inputs were independent: a joined cell is
+     * nonzero if the cells of all the inputs are, and an output cell if one of its summed cells is
+     * @param initial initial factors of the plan
+     * @param steps steps of the plan
+     */
+    private static void chooseKernels(ArrayList<InitialFactor> initial, ArrayList<Step> steps) {
+        double[] density = new double[initial.size() + steps.size()];
+        for (int i = 0; i < initial.size(); i++) {
+            density[i] = initial.get(i).density;
+        }
+        for (int s = 0; s < steps.size(); s++) {
+            Step step = steps.get(s);
+            int driver = -1;
+            double joined = 1.0;
+            for (int f = 0; f < step.inputs.length; f++) {
+                double d = density[step.inputs[f]];
+                if (driver < 0 || d < density[step.inputs[driver]]) {
+                    driver = f;
+                }
+                joined *= d;
+            }
+            step.driver = driver >= 0 && Factor.isSparse(density[step.inputs[driver]]) ? driver : -1;
+            density[initial.size() + s] = 1.0 - Math.pow(1.0 - joined, step.sumCard);
+        }
+    }
+
+    /**
+     * method to lay out one step of the plan
+     * the joined scope is the scope of the first input followed by the new variables of the next inputs, as in
+     * a pairwise join
+     * @param net compiled network
+     * @param variable summed variable, -1 to only join
+     * @param inputs slots of the joined factors
+     * @param scopes scope of every slot
+     * @return step of the plan
+     */
+    private static Step buildStep(CompiledNetwork net, int variable, ArrayList<Integer> inputs,
+                                  ArrayList<int[]> scopes) {
+        int[] joined = new int[0];
+        for (int slot : inputs) {
+            for (int var : scopes.get(slot)) {
+                if (indexOf(joined, var) < 0) {
+                    joined = Arrays.copyOf(joined, joined.length + 1);
+                    joined[joined.length - 1] = var;
+                }
+            }
+        }
+        return buildStep(net, variable, inputs, scopes, joined);
+    }
+
+    /**
+     * method to lay out one step of the plan with a given order of the joined variables
+     * @param net compiled network
+     * @param variable summed variable, -1 to only join
+     * @param inputs slots of the joined factors
+     * @param scopes scope of every slot
+     * @param joined variables of the joined factors, in the order of the output
+     * @return step of the plan
+     */
+    private static Step buildStep(CompiledNetwork net, int variable, ArrayList<Integer> inputs,
+                                  ArrayList<int[]> scopes, int[] joined) {
+
+        Step step = new Step();
+        step.variable = variable;
+        step.inputs = new int[inputs.size()];
+        step.scope = new int[variable < 0 ? joined.length : joined.length - 1];
+        step.cards = new int[step.scope.length];
+        int n = 0;
+        for (int var : joined) {
+            if (var != variable) {
+                step.scope[n] = var;
+                step.cards[n] = net.getCardinality(var);
+                n++;
+            }
+        }
+        step.sumCard = variable < 0 ? 1 : net.getCardinality(variable);
+        step.strides = new int[inputs.size()][step.scope.length];
+        step.sumStrides = new int[inputs.size()];
+        for (int f = 0; f < inputs.size(); f++) {
+            int slot = inputs.get(f);
+            int[] scope = scopes.get(slot);
+            step.inputs[f] = slot;
+            //stride =  product of no of outcomes of variables followed by the current variable in the input
+            int stride = 1;
+            for (int i = scope.length - 1; i >= 0; i--) {
+                int pos = indexOf(step.scope, scope[i]);
+                if (pos >= 0) {
+                    step.strides[f][pos] = stride;
+                } else {
+                    step.sumStrides[f] = stride;
+                }
+                stride *= net.getCardinality(scope[i]);
+            }
+        }
+        // a table too large for an array is only reported by the cost estimate, the size must not overflow
+        double cells = 1;
+        for (int card : step.cards) {
+            cells *= card;
+        }
+        step.size = cells <= CostEstimate.MAX_ARRAY_CELLS ? (int) cells : Integer.MAX_VALUE;
+        return step;
+    }
+
+    /**
+     * method to execute the plan
+     * @param queryValue outcome index of the query variable
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @return normalised probability of the query value
+     */
+    public double execute(int queryValue, int[] evidenceValues) {
+        return execute(queryValue, evidenceValues, false);
+    }
+
+    /**
+     * method to execute the plan in linear or log space
+     * in log space the products of long evidence chains do not underflow to 0. When no product underflows the
+     * result is the same as in linear space.
+     * @param queryValue outcome index of the query variable
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @return normalised probability of the query value
+     */
+    public double execute(int queryValue, int[] evidenceValues, boolean logSpace) {
+        return execute(queryValue, evidenceValues, logSpace, null);
+    }
+
+    /**
+     * method to execute the plan, reusing the step outputs of earlier queries
+     * @param queryValue outcome index of the query variable
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @param cache cache of the step outputs, null to compute every step
+     * @return normalised probability of the query value
+     */
+    public double execute(int queryValue, int[] evidenceValues, boolean logSpace, FactorCache cache) {
+        return execute(queryValue, evidenceValues, logSpace, cache, null);
+    }
+
+    /**
+     * method to execute the plan and record its steps
+     * @param queryValue outcome index of the query variable
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @param cache cache of the step outputs, null to compute every step
+     * @param trace trace of the query, null to not record the steps
+     * @return normalised probability of the query value
+     */
+    double execute(int queryValue, int[] evidenceValues, boolean logSpace, FactorCache cache,
+                   InferenceMetrics.QueryTrace trace) {
+        Buffers b = acquireBuffers();
+        try {
+            run(b, evidenceValues, logSpace, cache, trace);
+
+            // normalise the values in the final factor
+            int last = b.slots.length - 1;
+            double[] values = b.slots[last];
+            if (b.inLogSpace[last]) {
+                values = b.logSlots[last];
+                return Math.exp(values[queryValue] - Factor.logSumExp(values, 0, values.length));
+            }
+            double totalSumAlpha = 0.0;
+            for (double val : values) {
+                totalSumAlpha += val;
+            }
+            return values[queryValue] / totalSumAlpha;
+        } finally {
+            releaseBuffers(b);
+        }
+    }
+
+    /**
+     * method to execute the plan and get the whole joint distribution of the query variables
+     * the normalising constant of the final factor is also returned: for a plan compiled for the probability of the
+     * evidence it is P(e), for other plans it is the probability of the evidence in the requisite tables only
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @param distribution array that gets the normalised values, in the order of the query variables (the last
+     *                     one changing fastest), all NaN if the evidence is impossible
+     * @return natural log of the normalising constant, -Infinity if the evidence is impossible
+     */
+    public double executeDistribution(int[] evidenceValues, boolean logSpace, double[] distribution) {
+        return executeDistribution(evidenceValues, logSpace, distribution, null);
+    }
+
+    /**
+     * method to execute the plan for the joint distribution, reusing the step outputs of earlier queries
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @param distribution array that gets the normalised values
+     * @param cache cache of the step outputs, null to compute every step
+     * @return natural log of the normalising constant, -Infinity if the evidence is impossible
+     */
+    public double executeDistribution(int[] evidenceValues, boolean logSpace, double[] distribution,
+                                      FactorCache cache) {
+        return executeDistribution(evidenceValues, logSpace, distribution, cache, null);
+    }
+
+    /**
+     * method to execute the plan for the joint distribution and record its steps
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @param distribution array that gets the normalised values
+     * @param cache cache of the step outputs, null to compute every step
+     * @param trace trace of the query, null to not record the steps
+     * @return natural log of the normalising constant, -Infinity if the evidence is impossible
+     */
+    double executeDistribution(int[] evidenceValues, boolean logSpace, double[] distribution, FactorCache cache,
+                               InferenceMetrics.QueryTrace trace) {
+        Buffers b = acquireBuffers();
+        try {
+            run(b, evidenceValues, logSpace, cache, trace);
+
+            int last = b.slots.length - 1;
+            double logTotal;
+            if (b.inLogSpace[last]) {
+                double[] logs = b.logSlots[last];
+                logTotal = Factor.logSumExp(logs, 0, logs.length);
+                for (int i = 0; i < logs.length; i++) {
+                    distribution[i] = Math.exp(logs[i] - logTotal);
+                }
+            } else {
+                double[] values = b.slots[last];
+                double total = 0.0;
+                for (double val : values) {
+                    total += val;
+                }
+                logTotal = Math.log(total);
+                for (int i = 0; i < values.length; i++) {
+                    distribution[i] = values[i] / total;
+                }
+            }
+            return logTotal + b.logScales[last];
+        } finally {
+            releaseBuffers(b);
+        }
+    }
+
+    /**
+     * method to bind the evidence and run every step of the plan
+     * @param b buffers of the execution, the final factor is in the last slot
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @param cache cache of the step outputs, null to compute every step
+     * @param trace trace of the query, null to not record the steps
+     */
+    private void run(Buffers b, int[] evidenceValues, boolean logSpace, FactorCache cache,
+                     InferenceMetrics.QueryTrace trace) {
+        double[][] slots = b.slots;
+        Arrays.fill(b.inLogSpace, false);
+        Arrays.fill(b.logScales, 0.0);
+        if (cache == null) {
+            Arrays.fill(b.needed, true);
+            Arrays.fill(b.keys, null);
+        } else {
+            lookUp(b, evidenceValues, logSpace, cache, trace);
+        }
+
+        // bind the evidence values, tables without evidence variables are used as they are (never written)
+        for (int i = 0; i < initialFactors.length; i++) {
+            InitialFactor f = initialFactors[i];
+            if (!b.needed[i]) {
+                continue;
+            }
+            double[] cpt = net.cpt(f.variable);
+            if (!f.reduced) {
+                slots[i] = cpt;
+                continue;
+            }
+            int offset = 0;
+            for (int e = 0; e < evidenceValues.length; e++) {
+                offset += f.evidenceStrides[e] * evidenceValues[e];
+            }
+            Factor.gatherKernel(cpt, offset, f.strides, f.cards, slots[i]);
+        }
+
+        // elimination based on the order, then the final join
+        for (int s = 0; s < steps.length; s++) {
+            int out = initialFactors.length + s;
+            if (b.needed[out]) {
+                if (trace != null) {
+                    trace.beginStep();
+                }
+                runStep(b, s, out, logSpace);
+                if (trace != null) {
+                    Step step = steps[s];
+                    trace.endStep(net, step.variable, step.inputs.length, step.size, (long) step.size * step.sumCard);
+                }
+                if (b.keys[s] != null) {
+                    boolean log = b.inLogSpace[out];
+                    cache.put(b.keys[s], log ? null : slots[out], log ? b.logSlots[out] : null, b.logScales[out]);
+                }
+            }
+        }
+    }
+
+    /**
+     * method to look up the steps of the plan in the factor cache, from the final step down
+     * a hit is copied into the slot of the step, and the steps and tables below it are not needed
+     * @param b buffers of the execution
+     * @param evidenceValues outcome indexes of the evidence variables, in the order of the plan
+     * @param logSpace true to execute in log space
+     * @param cache cache of the step outputs
+     * @param trace trace of the query, null to not record the hits
+     */
+    private void lookUp(Buffers b, int[] evidenceValues, boolean logSpace, FactorCache cache,
+                        InferenceMetrics.QueryTrace trace) {
+        Arrays.fill(b.needed, false);
+        b.needed[b.slots.length - 1] = true;
+        long minimumWork = cache.getMinimumWork();
+        for (int s = steps.length - 1; s >= 0; s--) {
+            Step step = steps[s];
+            int out = initialFactors.length + s;
+            b.keys[s] = null;
+            if (!b.needed[out]) {
+                continue;
+            }
+            if (step.work >= minimumWork && step.inputs.length > 0) {
+                int[] values = new int[step.evidencePositions.length];
+                for (int e = 0; e < values.length; e++) {
+                    values[e] = evidenceValues[step.evidencePositions[e]];
+                }
+                FactorCache.Key key = new FactorCache.Key(net, step.signature, step.signatureHash, values, logSpace);
+                FactorCache.Entry entry = cache.get(key);
+                if (entry != null) {
+                    b.needed[out] = false;
+                    b.logScales[out] = entry.logScale;
+                    b.inLogSpace[out] = entry.logValues != null;
+                    if (entry.logValues != null) {
+                        if (b.logSlots[out] == null) {
+                            b.logSlots[out] = new double[step.size];
+                        }
+                        System.arraycopy(entry.logValues, 0, b.logSlots[out], 0, step.size);
+                    } else {
+                        System.arraycopy(entry.values, 0, b.slots[out], 0, step.size);
+                    }
+                    if (trace != null) {
+                        trace.cachedStep(net, step.variable, step.size);
+                    }
+                    continue;
+                }
+                b.keys[s] = key;
+            }
+            for (int in : step.inputs) {
+                b.needed[in] = true;
+            }
+        }
+    }
+
+    /**
+     * method to execute one step of the plan
+     * @param b buffers of the execution
+     * @param s index of the step
+     * @param out slot of the output of the step
+     * @param logSpace true to execute in log space
+     */
+    private void runStep(Buffers b, int s, int out, boolean logSpace) {
+        double[][] slots = b.slots;
+        Step step = steps[s];
+        double[][] in = b.in[s];
+        if (in.length == 0 && step.scope.length == 0) {
+            //final join of no factors over no variables (only P(e) of no requisite evidence), the empty product
+            slots[out][0] = 1.0;
+            return;
+        }
+        if (logSpace) {
+            executeInLogSpace(b, s, out);
+            return;
+        }
+        for (int f = 0; f < in.length; f++) {
+            in[f] = slots[step.inputs[f]];
+        }
+        if (step.driver >= 0) {
+            Factor.sparseJoinSumKernel(step.driver, in, step.strides, step.sumStrides, step.sumCard, step.cards,
+                                       slots[out]);
+        } else {
+            Factor.joinSumKernel(in, step.strides, step.sumStrides, step.sumCard, step.cards, slots[out]);
+        }
+    }
+
+    /**
+     * method to execute one step of the plan in log space
+     * @param b buffers of the execution
+     * @param s index of the step
+     * @param out slot of the output of the step
+     */
+    private void executeInLogSpace(Buffers b, int s, int out) {
+        Step step = steps[s];
+        double[][] in = b.in[s];
+        boolean logInput = false;
+        double logScale = 0.0;
+        for (int f = 0; f < in.length; f++) {
+            in[f] = b.slots[step.inputs[f]];
+            logInput |= b.inLogSpace[step.inputs[f]];
+            logScale += b.logScales[step.inputs[f]];
+        }
+        if (!logInput) {
+            b.underflow[0] = false;
+            Factor.checkedJoinSumKernel(in, step.strides, step.sumStrides, step.sumCard, step.cards, b.slots[out],
+                                        b.underflow);
+            int exponent = b.underflow[0] ? Factor.RESCALE_FAILED : Factor.rescale(b.slots[out]);
+            if (exponent != Factor.RESCALE_FAILED) {
+                b.logScales[out] = logScale + exponent * LN2;
+                return;
+            }
+        }
+
+        // run the step again on the logs of the inputs
+        for (int f = 0; f < in.length; f++) {
+            in[f] = logValues(b, step.inputs[f]);
+        }
+        if (b.logSlots[out] == null) {
+            b.logSlots[out] = new double[step.size];
+        }
+        Factor.logJoinSumKernel(in, step.strides, step.sumStrides, step.sumCard, step.cards, b.logSlots[out]);
+        double shift = Factor.fromLog(b.logSlots[out], b.slots[out]);
+        b.inLogSpace[out] = Double.isNaN(shift);
+        b.logScales[out] = b.inLogSpace[out] ? logScale : logScale + shift;
+    }
+
+    /**
+     * method to get the log values of a slot
+     * @param b buffers of the execution
+     * @param slot slot of the factor
+     * @return log values, the linear values are converted into the log slot if needed
+     */
+    private double[] logValues(Buffers b, int slot) {
+        if (b.inLogSpace[slot]) {
+            return b.logSlots[slot];
+        }
+        if (slot < initialFactors.length && !initialFactors[slot].reduced) {
+            return net.logCpt(initialFactors[slot].variable);
+        }
+        double[] values = b.slots[slot];
+        if (b.logSlots[slot] == null) {
+            b.logSlots[slot] = new double[values.length];
+        }
+        double[] logs = b.logSlots[slot];
+        for (int i = 0; i < values.length; i++) {
+            logs[i] = Math.log(values[i]);
+        }
+        return logs;
+    }
+
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // getters methods
+
+    public CompiledNetwork getNetwork() {
+        return net;
+    }
+
+    public int getQueryVariable() {
+        return queryVariables.length == 0 ? -1 : queryVariables[0];
+    }
+
+    public int[] getQueryVariables() {
+        return queryVariables.clone();
+    }
+
+    public int[] getEvidenceVariables() {
+        return evidenceVariables.clone();
+    }
+
+    /**
+     * method to get the elimination order of the plan
+     * @return ids of the summed variables in the order of elimination
+     */
+    public int[] getEliminationOrder() {
+        int[] order = new int[steps.length - 1];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = steps[i].variable;
+        }
+        return order;
+    }
+
+    /**
+     * method to get the order of elimination with its induced width and predicted largest factor size
+     * @return ordering of the plan
+     */
+    public EliminationOrder getOrdering() {
+        return ordering;
+    }
+
+    /**
+     * Get the predicted cost of the plan, known before it is executed
+     * @return sizes of the step outputs, memory of the buffers and operations
+     */
+    public CostEstimate getCostEstimate() {
+        return cost;
+    }
+
+    /**
+     * method to get the number of probability tables used by the plan
+     * @return number of factors left after pruning
+     */
+    public int getFactorCount() {
+        return initialFactors.length;
+    }
+
+    /**
+     * method to get the size of the largest intermediate factor of the plan
+     * @return number of values in the largest step output
+     */
+    public int getLargestFactorSize() {
+        int largest = 0;
+        for (Step step : steps) {
+            largest = Math.max(largest, step.size);
+        }
+        return largest;
+    }
+}
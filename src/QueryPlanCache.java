@@ -0,0 +1,178 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that stores compiled query plans in a bounded LRU cache
+ * Plans are keyed by the compiled network, the query variables, the set of evidence variables, the order of
+ * elimination, the ordering strategy used when no order is given and whether the plan gives P(e).
+ * Lookups do not lock: the plans are kept in a concurrent map and every entry records when it was last used.
+ * A missing plan is compiled outside the map, so a slow compile does not hold up the lookups of other shapes, and
+ * only a thread that adds a plan beyond the capacity takes the eviction lock to remove the least recently used one.
+ * @author 220031271
+ */
+public class QueryPlanCache {
+
+    /**
+     * key of a cached plan, the network is compared by identity and the arrays are copied so that a caller cannot
+     * change a key that is in the map
+     */
+    private static class PlanKey {
+        private final CompiledNetwork net;
+        private final int[] queryVars;
+        private final int[] evidenceVars;
+        private final int[] order;
+        private final EliminationOrder.Strategy strategy;
+        private final boolean evidenceProbability;
+        private final int hash;
+
+        PlanKey(CompiledNetwork net, int[] queryVars, int[] evidenceVars, int[] order,
+                EliminationOrder.Strategy strategy, boolean evidenceProbability) {
+            this.net = net;
+            this.queryVars = queryVars.clone();
+            this.evidenceVars = evidenceVars.clone();
+            this.order = order == null ? null : order.clone();
+            this.strategy = strategy;
+            this.evidenceProbability = evidenceProbability;
+            this.hash = 2 * (31 * (31 * (31 * (31 * System.identityHashCode(net) + Arrays.hashCode(this.queryVars))
+                                         + Arrays.hashCode(this.evidenceVars)) + Arrays.hashCode(this.order))
+                             + strategy.hashCode()) + (evidenceProbability ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey k = (PlanKey) o;
+            return net == k.net && Arrays.equals(queryVars, k.queryVars) && Arrays.equals(evidenceVars, k.evidenceVars)
+                   && Arrays.equals(order, k.order) && strategy == k.strategy
+                   && evidenceProbability == k.evidenceProbability;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * cached plan with the time it was last used
+     */
+    private static class Entry {
+        final QueryPlan plan;
+        volatile long lastUsed;
+
+        Entry(QueryPlan plan, long lastUsed) {
+            this.plan = plan;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<PlanKey, Entry> plans = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();     //logical time of the uses
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Object evictionLock = new Object();
+
+    /**
+     * constructor
+     * @param capacity maximum number of plans kept in the cache
+     */
+    public QueryPlanCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * method to get the plan of a query shape, the plan is compiled if it is not in the cache
+     * @param net compiled network
+     * @param queryVar id of the query variable
+     * @param evidenceVars ids of the evidence variables, sorted
+     * @param order ids in the order of elimination, null if not given
+     * @param strategy heuristic used when no order is given
+     * @param timeBudgetMillis time budget of the randomized ordering strategy
+     * @return compiled plan
+     */
+    public QueryPlan getPlan(CompiledNetwork net, int queryVar, int[] evidenceVars, int[] order,
+                             EliminationOrder.Strategy strategy, long timeBudgetMillis) {
+        return getPlan(net, new int[] {queryVar}, evidenceVars, order, strategy, timeBudgetMillis, false);
+    }
+
+    /**
+     * method to get the plan of a joint query, the plan is compiled if it is not in the cache
+     * concurrent misses of the same shape may each compile the plan, the first one added to the cache is kept
+     * @param net compiled network
+     * @param queryVars ids of the query variables, in the order of the final factor
+     * @param evidenceVars ids of the evidence variables, sorted
+     * @param order ids in the order of elimination, null if not given
+     * @param strategy heuristic used when no order is given
+     * @param timeBudgetMillis time budget of the randomized ordering strategy
+     * @param evidenceProbability true for a plan whose final factor sums to P(e)
+     * @return compiled plan
+     */
+    public QueryPlan getPlan(CompiledNetwork net, int[] queryVars, int[] evidenceVars, int[] order,
+                             EliminationOrder.Strategy strategy, long timeBudgetMillis,
+                             boolean evidenceProbability) {
+        PlanKey key = new PlanKey(net, queryVars, evidenceVars, order, strategy, evidenceProbability);
+        Entry entry = plans.get(key);
+        if (entry != null) {
+            hits.increment();
+            entry.lastUsed = clock.incrementAndGet();
+            return entry.plan;
+        }
+
+        misses.increment();
+        QueryPlan plan = QueryPlan.compile(net, key.queryVars, key.evidenceVars, key.order, strategy,
+                                           timeBudgetMillis, evidenceProbability);
+        entry = plans.putIfAbsent(key, new Entry(plan, clock.incrementAndGet()));
+        if (entry == null) {
+            evictIfNeeded();
+            return plan;
+        }
+        // another thread added the plan while this one was compiling it
+        entry.lastUsed = clock.incrementAndGet();
+        return entry.plan;
+    }
+
+    /**
+     * method to remove the least recently used plans until the cache is within its capacity
+     */
+    private void evictIfNeeded() {
+        synchronized (evictionLock) {
+            while (plans.size() > capacity) {
+                Map.Entry<PlanKey, Entry> eldest = null;
+                for (Map.Entry<PlanKey, Entry> e : plans.entrySet()) {
+                    if (eldest == null || e.getValue().lastUsed < eldest.getValue().lastUsed) {
+                        eldest = e;
+                    }
+                }
+                if (eldest == null) {
+                    return;
+                }
+                plans.remove(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    /**
+     * method to remove all the plans
+     */
+    public void clear() {
+        plans.clear();
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
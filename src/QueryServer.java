@@ -0,0 +1,346 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Class that answers queries over HTTP on a local socket, so that the networks are parsed once and the plan and
+ * factor caches stay warm across the queries of many clients
+ *   GET  /networks                        names of the loaded networks with their no of variables, one per line
+ *   GET  /query/NAME?q=QUERY[&q=...]      one result line per q parameter
+ *   POST /query/NAME                      one query per line of the body, one result line per query
+ *   GET  /health                          ok, or stopping during a shutdown
+ * Queries have the batch format of A2main, Var:Val | E1:v1 E2:v2 [order], and a variable without a value gives
+ * its whole posterior. A query that cannot be answered gives an error line, as in the batch mode.
+ * Every admitted request runs on its own virtual thread when the JVM has them (JDK 21 and later), else on a pool
+ * with one platform thread per core. At most capacity requests are admitted at once, running or waiting for a
+ * thread; a request over the bound is answered with 503 and Retry-After, so a burst cannot queue an unbounded
+ * number of requests. The rejections are written by a single thread of their own, so a slow client cannot stall the
+ * thread that accepts the connections, and a rejection that finds capacity rejections already waiting for that
+ * thread is dropped without an answer. A shutdown stops admitting requests, waits for the admitted ones to be
+ * answered and then closes the socket.
+ * @author 220031271
+ */
+public class QueryServer {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();  //set while a rejection is written
+
+    private final HttpServer server;
+    private final Inference inference;
+    private final Map<String, BayesianNetwork> networks = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final ExecutorService rejections;  //single thread that answers the rejected requests
+    private final boolean virtualThreads;
+    private final int capacity;
+    private final Semaphore admission;
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean stopping;
+    private volatile boolean stopped;
+
+    /**
+     * constructor, the server does not accept requests until it is started
+     * @param port port on the loopback address, 0 for any free port
+     * @param inference inference object shared by all the requests
+     * @param capacity maximum no of requests admitted at once
+     * @throws IOException if the port cannot be bound
+     */
+    public QueryServer(int port, Inference inference, int capacity) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), inference, capacity);
+    }
+
+    /**
+     * constructor, the server does not accept requests until it is started
+     * @param address address to bind
+     * @param inference inference object shared by all the requests
+     * @param capacity maximum no of requests admitted at once
+     * @throws IOException if the address cannot be bound
+     */
+    public QueryServer(InetSocketAddress address, Inference inference, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        this.inference = inference;
+        this.capacity = capacity;
+        this.admission = new Semaphore(capacity);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.workers = virtual != null ? virtual
+                       : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                      daemonThreads("query-server"));
+        this.rejections = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+                                                 daemonThreads("query-server-reject"));
+        this.server = HttpServer.create(address, capacity);
+        server.createContext("/", this::handle);
+        server.setExecutor(this::admit);
+    }
+
+    /**
+     * method to get an executor that starts a virtual thread per task
+     * @return executor, null if the JVM has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // before JDK 21, or a preview JDK started without --enable-preview
+            return null;
+        }
+    }
+
+    /**
+     * method to get a factory of daemon threads, so that the pools do not keep the JVM alive
+     * @param name name of the threads
+     * @return thread factory
+     */
+    private static ThreadFactory daemonThreads(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * method to add a network that can be queried by its name, it is compiled now instead of by its first query
+     * @param name name of the network in the query paths
+     * @param bn Bayesian Network object
+     */
+    public void addNetwork(String name, BayesianNetwork bn) {
+        if (name.isEmpty() || name.contains("/")) {
+            throw new IllegalArgumentException("Invalid network name: " + name);
+        }
+        bn.getCompiled();
+        if (networks.putIfAbsent(name, bn) != null) {
+            throw new IllegalArgumentException("Network already loaded: " + name);
+        }
+    }
+
+    /**
+     * method to start accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * method to stop the server, the admitted requests are answered and the others are rejected meanwhile
+     * @param timeoutMillis time to wait for the admitted requests
+     * @return true if every admitted request was answered in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean shutdown(long timeoutMillis) throws InterruptedException {
+        if (stopped) {
+            return true;
+        }
+        stopping = true;
+        // every admitted request holds a permit until it is answered
+        boolean drained = admission.tryAcquire(capacity, timeoutMillis, TimeUnit.MILLISECONDS);
+        server.stop(0);
+        workers.shutdown();
+        rejections.shutdown();
+        stopped = true;
+        return drained;
+    }
+
+    /**
+     * method to hand a request accepted by the server to a worker thread if it can be admitted, else to the
+     * rejection thread
+     * @param exchange task that reads the request and calls the handler
+     */
+    private void admit(Runnable exchange) {
+        if (!stopping && admission.tryAcquire()) {
+            try {
+                workers.execute(() -> {
+                    try {
+                        exchange.run();
+                    } finally {
+                        admission.release();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                admission.release();
+            }
+        }
+        rejected.increment();
+        try {
+            rejections.execute(() -> {
+                REJECTED.set(Boolean.TRUE);
+                try {
+                    exchange.run();
+                } finally {
+                    REJECTED.remove();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the rejection thread is a full queue behind, or stopped: the request is dropped unanswered
+        }
+    }
+
+    /**
+     * method to answer one request
+     * @param exchange request and response
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (REJECTED.get() != null) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, stopping ? "Error: shutting down" : "Error: busy");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/health")) {
+                respond(exchange, 200, stopping ? "stopping" : "ok");
+            } else if (path.equals("/networks")) {
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, BayesianNetwork> e : new TreeMap<>(networks).entrySet()) {
+                    sb.append(e.getKey()).append(' ').append(e.getValue().getVariableCount()).append('\n');
+                }
+                respond(exchange, 200, sb.toString());
+            } else if (path.startsWith("/query/")) {
+                String name = path.substring("/query/".length());
+                BayesianNetwork bn = networks.get(name);
+                if (bn == null) {
+                    respond(exchange, 404, "Error: Unknown network " + name);
+                } else if (method.equals("GET")) {
+                    answer(exchange, bn, getParameters(exchange, "q"));
+                } else if (method.equals("POST")) {
+                    answer(exchange, bn, readLines(exchange));
+                } else {
+                    exchange.getResponseHeaders().set("Allow", "GET, POST");
+                    respond(exchange, 405, "Error: Unsupported method " + method);
+                }
+            } else {
+                respond(exchange, 404, "Error: Unknown path " + path);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * method to answer the queries of a request, in order
+     * @param exchange request and response
+     * @param bn queried network
+     * @param queries queries in the batch format, blank ones are skipped
+     * @throws IOException if the response cannot be written
+     */
+    private void answer(HttpExchange exchange, BayesianNetwork bn, ArrayList<String> queries) throws IOException {
+        DecimalFormat dd = new DecimalFormat("#0.00000");
+        StringBuilder sb = new StringBuilder();
+        for (String query : queries) {
+            query = query.trim();
+            if (query.isEmpty()) {
+                continue;
+            }
+            try {
+                sb.append(A2main.answerQuery(bn, inference, query, dd));
+            } catch (RuntimeException e) {
+                sb.append("Error: ").append(e.getMessage());
+            }
+            sb.append('\n');
+        }
+        if (sb.length() == 0) {
+            respond(exchange, 400, "Error: Please provide valid query: <Variable:Value>");
+            return;
+        }
+        answered.increment();
+        respond(exchange, 200, sb.toString());
+    }
+
+    private static ArrayList<String> getParameters(HttpExchange exchange, String name) {
+        ArrayList<String> values = new ArrayList<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return values;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8).equals(name)) {
+                values.add(URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+    private static ArrayList<String> readLines(HttpExchange exchange) throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = (body.endsWith("\n") ? body : body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // getters methods
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Check if the requests run on virtual threads
+     * @return true if each request has its own virtual thread, false if they share a pool of platform threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Get the no of requests admitted and not answered yet
+     * @return requests running or waiting for a thread
+     */
+    public int getAdmitted() {
+        return stopped ? 0 : capacity - admission.availablePermits();
+    }
+
+    public long getAnswered() {
+        return answered.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the likelihood weighting and Gibbs estimates against the exact posteriors, within a tolerance that
+ * shrinks with the number of samples
+ * @author 220031271
+ */
+public class ApproximateInferenceTest {
+
+    private static final long SAMPLES = 100000;
+
+    @Test
+    void estimatesMatchExactPosteriors() {
+        NetworkGenerator generator = new NetworkGenerator(6);
+        generator.setNodeCount(15);
+        generator.setTopology(NetworkGenerator.Topology.RANDOM);
+        generator.setCardinality(2, 3);
+        generator.setTreewidth(3);
+        BayesianNetwork bn = generator.generate();
+        int n = bn.getCompiled().getVariableCount();
+        int[] evidenceVars = {2, n - 1};
+        int[] evidenceValues = {1, 0};
+        Inference inference = new Inference();
+
+        for (ApproximateInference.Method method : ApproximateInference.Method.values()) {
+            // five standard deviations of a proportion, at most 0.5 / sqrt(samples), over an effective sample size
+            // of a quarter of the samples for the spread of the weights and a sixteenth for the correlation of a chain
+            double effective = method == ApproximateInference.Method.GIBBS ? SAMPLES / 16.0 : SAMPLES / 4.0;
+            double tolerance = 5 * 0.5 / Math.sqrt(effective);
+            for (int v = 0; v < n; v++) {
+                if (v == evidenceVars[0] || v == evidenceVars[1]) {
+                    continue;
+                }
+                ApproximateInference sampler = sampler(method);
+                ApproximateInference.Estimate estimate = sampler.estimate(bn, v, evidenceVars, evidenceValues);
+                assertEquals(SAMPLES, estimate.getSamples());
+                double[] exact = inference.findPosterior(bn, new int[] {v}, evidenceVars, evidenceValues, null)
+                                          .getDistribution();
+                for (int x = 0; x < exact.length; x++) {
+                    assertEquals(exact[x], estimate.getProbability(x), tolerance, method + " V" + v);
+                }
+
+                // the same seed on one thread draws the same samples
+                assertArrayEquals(estimate.getProbabilities(), sampler(method).estimate(bn, v, evidenceVars,
+                                                                                        evidenceValues)
+                                                                              .getProbabilities());
+            }
+        }
+    }
+
+    /**
+     * method to create a seeded single thread sampler that stops at the sample budget
+     * @param method sampling method
+     * @return approximate engine
+     */
+    private static ApproximateInference sampler(ApproximateInference.Method method) {
+        ApproximateInference sampler = new ApproximateInference();
+        sampler.setMethod(method);
+        sampler.setThreads(1);
+        sampler.setSeed(5);
+        sampler.setSampleBudget(SAMPLES);
+        sampler.setTimeBudget(60000);
+        return sampler;
+    }
+}
@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that an evidence session gives the posteriors and the probability of the evidence of a full computation
+ * after every step of a sequence of evidence that is set, changed and retracted
+ * @author 220031271
+ */
+public class EvidenceSessionTest {
+
+    @Test
+    void incrementalUpdatesMatchFullComputation() {
+        Random random = new Random(17);
+        NetworkGenerator.Topology[] topologies = NetworkGenerator.Topology.values();
+        for (int t = 0; t < 20; t++) {
+            NetworkGenerator generator = new NetworkGenerator(t);
+            generator.setNodeCount(5 + random.nextInt(20));
+            generator.setTopology(topologies[t % topologies.length]);
+            generator.setCardinality(2, 3);
+            generator.setTreewidth(2);
+            BayesianNetwork bn = generator.generate();
+            CompiledNetwork net = bn.getCompiled();
+            int n = net.getVariableCount();
+            EvidenceSession session = new JunctionTree(bn).newSession();
+            int[] evidence = new int[n];
+            Arrays.fill(evidence, -1);
+
+            for (int step = 0; step < 30; step++) {
+                int var = random.nextInt(n);
+                if (evidence[var] >= 0 && random.nextInt(3) == 0) {
+                    evidence[var] = -1;
+                    session.retractEvidence(var);
+                } else {
+                    // a new observation, or a changed one if the variable is already observed
+                    evidence[var] = random.nextInt(net.getCardinality(var));
+                    session.setEvidence(var, evidence[var]);
+                }
+                if (step % 10 == 9) {
+                    Arrays.fill(evidence, -1);
+                    session.clearEvidence();
+                }
+                checkSession(bn, session, evidence, random.nextInt(n));
+            }
+        }
+    }
+
+    /**
+     * method to check the session against elimination for the current evidence
+     * @param bn bayesian network object
+     * @param session evidence session
+     * @param evidence outcome index of each evidence variable, -1 if not observed
+     * @param queried variable whose posterior is checked first, so it is not always the root that is computed
+     */
+    private static void checkSession(BayesianNetwork bn, EvidenceSession session, int[] evidence, int queried) {
+        int n = evidence.length;
+        int count = 0;
+        for (int value : evidence) {
+            count += value >= 0 ? 1 : 0;
+        }
+        int[] evidenceVars = new int[count];
+        int[] evidenceValues = new int[count];
+        count = 0;
+        for (int v = 0; v < n; v++) {
+            if (evidence[v] >= 0) {
+                evidenceVars[count] = v;
+                evidenceValues[count++] = evidence[v];
+            }
+        }
+        Inference inference = new Inference();
+        for (int k = 0; k < n; k++) {
+            int v = (queried + k) % n;
+            assertEquals(evidence[v], session.getEvidence(v));
+            double[] expected;
+            if (evidence[v] >= 0) {
+                expected = new double[bn.getCompiled().getCardinality(v)];
+                expected[evidence[v]] = 1.0;
+            } else {
+                expected = inference.findPosterior(bn, new int[] {v}, evidenceVars, evidenceValues, null)
+                                    .getDistribution();
+            }
+            assertArrayEquals(expected, session.getPosterior(v), 1e-12);
+        }
+        double logEvidence = inference.findPosterior(bn, new int[0], evidenceVars, evidenceValues, null)
+                                      .getLogEvidenceProbability();
+        assertEquals(logEvidence, session.getLogEvidenceProbability(), 1e-9);
+    }
+}
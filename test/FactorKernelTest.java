@@ -0,0 +1,194 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the kernels split across the fork/join pool give the same bits as the sequential kernels
+ * Every kernel is run once with the parallel threshold above the size of the output, and once with a threshold of
+ * one cell, on tables large enough to be split into several tasks.
+ * @author 220031271
+ */
+public class FactorKernelTest {
+
+    private static final int VARIABLES = 16;
+    private static final int TABLES = 25;
+
+    private final int savedThreshold = Factor.getParallelThreshold();
+
+    @BeforeAll
+    static void checkPool() {
+        assertTrue(ForkJoinPool.getCommonPoolParallelism() >= 2,
+                   "the common pool needs two workers for the kernels to split their tables");
+    }
+
+    @AfterEach
+    void restoreThreshold() {
+        Factor.setParallelThreshold(savedThreshold);
+    }
+
+    @Test
+    void joinMatchesSequential() {
+        Random random = new Random(1);
+        int[] cards = cardinalities(random);
+        for (int t = 0; t < TABLES; t++) {
+            Factor a = randomFactor(random, cards, 6, false);
+            Factor b = randomFactor(random, cards, 6, false);
+            assertSameBits(() -> a.join(b, -1).getValues());
+        }
+    }
+
+    @Test
+    void sumAndMaxMatchSequential() {
+        Random random = new Random(2);
+        int[] cards = cardinalities(random);
+        for (int t = 0; t < TABLES; t++) {
+            Factor f = randomFactor(random, cards, 11, false);
+            int var = f.getScope()[random.nextInt(f.getScope().length)];
+            assertSameBits(() -> f.sumOut(var).getValues());
+            assertSameBits(() -> {
+                int[] argmax = new int[f.getValues().length / cards[var]];
+                double[] max = f.maxOut(var, argmax).getValues();
+                double[] both = Arrays.copyOf(max, max.length + argmax.length);
+                for (int i = 0; i < argmax.length; i++) {
+                    both[max.length + i] = argmax[i];
+                }
+                return both;
+            });
+        }
+    }
+
+    @Test
+    void logSpaceMatchesSequential() {
+        Random random = new Random(3);
+        int[] cards = cardinalities(random);
+        for (int t = 0; t < TABLES; t++) {
+            Factor a = randomFactor(random, cards, 6, true);
+            Factor b = randomFactor(random, cards, 6, true);
+            Factor joined = a.join(b);
+            int var = joined.getScope()[random.nextInt(joined.getScope().length)];
+            assertSameBits(() -> a.join(b).getValues());
+            assertSameBits(() -> joined.sumOut(var).getValues());
+            assertSameBits(() -> joined.maxOut(var).getValues());
+        }
+    }
+
+    @Test
+    void joinSumMatchesSequential() {
+        Random random = new Random(4);
+        int[] cards = cardinalities(random);
+        for (int t = 0; t < TABLES; t++) {
+            Factor[] inputs = new Factor[2 + random.nextInt(3)];
+            for (int f = 0; f < inputs.length; f++) {
+                inputs[f] = randomFactor(random, cards, 5, false);
+            }
+            Factor joined = inputs[0];
+            for (int f = 1; f < inputs.length; f++) {
+                joined = joined.join(inputs[f], -1);
+            }
+            int[] scope = joined.getScope();
+            int summed = scope[random.nextInt(scope.length)];
+            int[] outScope = Arrays.stream(scope).filter(v -> v != summed).toArray();
+            int[] outCards = Arrays.stream(outScope).map(v -> cards[v]).toArray();
+            double[][] values = new double[inputs.length][];
+            int[][] strides = new int[inputs.length][outScope.length];
+            int[] sumStrides = new int[inputs.length];
+            for (int f = 0; f < inputs.length; f++) {
+                values[f] = inputs[f].getValues();
+                for (int d = 0; d < outScope.length; d++) {
+                    strides[f][d] = strideOf(inputs[f], outScope[d]);
+                }
+                sumStrides[f] = strideOf(inputs[f], summed);
+            }
+            int size = Factor.tableSize(outCards);
+            double[][] logValues = Arrays.stream(values).map(Factor::toLog).toArray(double[][]::new);
+            assertSameBits(() -> {
+                double[] out = new double[size];
+                Factor.joinSumKernel(values, strides, sumStrides, cards[summed], outCards, out);
+                return out;
+            });
+            assertSameBits(() -> {
+                double[] out = new double[size];
+                Factor.checkedJoinSumKernel(values, strides, sumStrides, cards[summed], outCards, out,
+                                            new boolean[1]);
+                return out;
+            });
+            assertSameBits(() -> {
+                double[] out = new double[size];
+                Factor.logJoinSumKernel(logValues, strides, sumStrides, cards[summed], outCards, out);
+                return out;
+            });
+            assertSameBits(() -> {
+                double[] out = new double[size];
+                int[] argmax = new int[size];
+                Factor.joinMaxKernel(values, strides, sumStrides, cards[summed], outCards, out, argmax, false);
+                double[] both = Arrays.copyOf(out, 2 * size);
+                for (int i = 0; i < size; i++) {
+                    both[size + i] = argmax[i];
+                }
+                return both;
+            });
+        }
+    }
+
+    /**
+     * method to run a computation sequentially and in parallel and compare the bits of the results
+     * @param kernel computation that returns the output table
+     */
+    private static void assertSameBits(Supplier<double[]> kernel) {
+        Factor.setParallelThreshold(Integer.MAX_VALUE);
+        double[] sequential = kernel.get();
+        Factor.setParallelThreshold(1);
+        double[] parallel = kernel.get();
+        assertEquals(sequential.length, parallel.length);
+        assertArrayEquals(bits(sequential), bits(parallel));
+    }
+
+    private static long[] bits(double[] values) {
+        long[] bits = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = Double.doubleToRawLongBits(values[i]);
+        }
+        return bits;
+    }
+
+    private static int strideOf(Factor f, int var) {
+        int pos = f.indexOf(var);
+        return pos >= 0 ? f.getStrides()[pos] : 0;
+    }
+
+    private static int[] cardinalities(Random random) {
+        int[] cards = new int[VARIABLES];
+        for (int v = 0; v < VARIABLES; v++) {
+            cards[v] = 2 + random.nextInt(3);
+        }
+        return cards;
+    }
+
+    /**
+     * method to build a factor over random variables with random values, some of them zero
+     * @param random source of the variables and values
+     * @param cards cardinalities of all the variables
+     * @param width no of variables of the factor
+     * @param logSpace true for a factor that holds the logs of its values
+     * @return factor
+     */
+    private static Factor randomFactor(Random random, int[] cards, int width, boolean logSpace) {
+        int[] scope = random.ints(0, VARIABLES).distinct().limit(width).toArray();
+        int[] scopeCards = Arrays.stream(scope).map(v -> cards[v]).toArray();
+        double[] values = new double[Factor.tableSize(scopeCards)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(10) == 0 ? 0.0 : random.nextDouble();
+        }
+        Factor f = new Factor(scope, scopeCards, values);
+        return logSpace ? f.toLogSpace() : f;
+    }
+}
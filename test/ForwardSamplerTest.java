@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the frequencies of the outcomes in a seeded stream of forward samples match the exact marginals, and
+ * that a number of samples that is not positive is rejected before anything is written
+ * @author 220031271
+ */
+public class ForwardSamplerTest {
+
+    private static final int SAMPLES = 100000;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void frequenciesMatchExactMarginals() throws IOException {
+        NetworkGenerator generator = new NetworkGenerator(6);
+        generator.setNodeCount(15);
+        generator.setTopology(NetworkGenerator.Topology.RANDOM);
+        generator.setCardinality(2, 3);
+        generator.setTreewidth(3);
+        BayesianNetwork bn = generator.generate();
+        CompiledNetwork net = bn.getCompiled();
+        int n = net.getVariableCount();
+
+        ForwardSampler sampler = new ForwardSampler(bn);
+        sampler.setSeed(3);
+        sampler.setThreads(2);
+        sampler.setBatchSize(1000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sampler.sample(SAMPLES, out, ForwardSampler.Format.CSV);
+
+        long[][] counts = new long[n][];
+        for (int v = 0; v < n; v++) {
+            counts[v] = new long[net.getCardinality(v)];
+        }
+        BufferedReader reader = new BufferedReader(new StringReader(out.toString(StandardCharsets.UTF_8)));
+        String[] header = reader.readLine().split(",");
+        for (int v = 0; v < n; v++) {
+            assertEquals(net.getVariableName(v), header[v]);
+        }
+        int rows = 0;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            String[] values = line.split(",");
+            for (int v = 0; v < n; v++) {
+                counts[v][net.getOutcomeIndex(v, values[v])]++;
+            }
+            rows++;
+        }
+        assertEquals(SAMPLES, rows);
+
+        // each frequency is within five standard deviations of a binomial proportion over the samples
+        Inference inference = new Inference();
+        for (int v = 0; v < n; v++) {
+            double[] marginal = inference.findPosterior(bn, new int[] {v}, new int[0], new int[0], null)
+                                         .getDistribution();
+            for (int x = 0; x < marginal.length; x++) {
+                double tolerance = 5 * Math.sqrt(marginal[x] * (1 - marginal[x]) / SAMPLES) + 1e-9;
+                assertEquals(marginal[x], (double) counts[v][x] / SAMPLES, tolerance);
+            }
+        }
+    }
+
+    @Test
+    void countMustBePositive() {
+        NetworkGenerator generator = new NetworkGenerator(6);
+        generator.setNodeCount(5);
+        ForwardSampler sampler = new ForwardSampler(generator.generate());
+        File file = new File(directory, "samples.csv");
+        for (long count : new long[] {0, -1}) {
+            assertThrows(IllegalArgumentException.class, () -> sampler.sample(count, file, ForwardSampler.Format.CSV));
+            assertThrows(IllegalArgumentException.class,
+                         () -> sampler.sample(count, new ByteArrayOutputStream(), ForwardSampler.Format.BINARY));
+        }
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the adjacency lists of Graph give the results of the adjacency matrix it replaced, on random graphs
+ * with cycles and duplicate edges
+ * @author 220031271
+ */
+public class GraphTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void adjacencyListsMatchMatrix() {
+        Random random = new Random(1);
+        for (int t = 0; t < 2000; t++) {
+            int n = 1 + random.nextInt(40);
+            int m = random.nextInt(3 * n);
+            boolean acyclic = random.nextBoolean();
+            Graph graph = new Graph(n);
+            boolean[][] matrix = new boolean[n][n];
+            for (int e = 0; e < m; e++) {
+                int i = random.nextInt(n);
+                int j = random.nextInt(n);
+                if (acyclic && i >= j) {
+                    continue;
+                }
+                graph.addEdge(i, j);
+                matrix[i][j] = true;
+                if (e == m / 2) {
+                    // reads the packed lists halfway, the next edges are added to them
+                    graph.checkCycle();
+                }
+            }
+
+            ArrayList<Integer> sorted = topologicalSort(matrix);
+            assertEquals(sorted.size() != n, graph.checkCycle());
+            assertEquals(sorted, graph.topologicalSort());
+            assertArrayEquals(matrix, graph.getAdjMatrix());
+            int edges = 0;
+            for (int i = 0; i < n; i++) {
+                assertArrayEquals(children(matrix, i), graph.getChildren(i));
+                assertArrayEquals(parents(matrix, i), graph.getParents(i));
+                for (int j = 0; j < n; j++) {
+                    assertEquals(matrix[i][j], graph.hasEdge(i, j));
+                    edges += matrix[i][j] ? 1 : 0;
+                }
+            }
+            assertEquals(edges, graph.getEdgeCount());
+
+            Graph copy = new Graph(1);
+            copy.setAdjMatrix(matrix);
+            assertEquals(sorted, copy.topologicalSort());
+            int[][] parents = new int[n][];
+            for (int v = 0; v < n; v++) {
+                parents[v] = parents(matrix, v);
+            }
+            assertEquals(sorted, Graph.fromParents(parents).topologicalSort());
+        }
+    }
+
+    /**
+     * method to sort the vertices of a matrix by scanning its rows, as the matrix based Graph did
+     * @param matrix adjacency matrix, true from parent to child
+     * @return vertices in topological order, shorter than the graph if it has a cycle
+     */
+    private static ArrayList<Integer> topologicalSort(boolean[][] matrix) {
+        int n = matrix.length;
+        int[] in = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (matrix[i][j]) {
+                    in[j]++;
+                }
+            }
+        }
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (in[i] == 0) {
+                queue.offer(i);
+            }
+        }
+        ArrayList<Integer> sorted = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            sorted.add(node);
+            for (int i = 0; i < n; i++) {
+                if (matrix[node][i] && --in[i] == 0) {
+                    queue.offer(i);
+                }
+            }
+        }
+        return sorted;
+    }
+
+    private static int[] children(boolean[][] matrix, int v) {
+        return IntStream.range(0, matrix.length).filter(u -> matrix[v][u]).toArray();
+    }
+
+    private static int[] parents(boolean[][] matrix, int v) {
+        return IntStream.range(0, matrix.length).filter(u -> matrix[u][v]).toArray();
+    }
+}
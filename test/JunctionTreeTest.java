@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the Shafer-Shenoy posteriors of the junction tree against variable elimination, on polytrees and on loopy
+ * networks with and without evidence, and the shape of the clique tree built from the elimination order
+ * @author 220031271
+ */
+public class JunctionTreeTest {
+
+    @Test
+    void posteriorsMatchElimination() {
+        Random random = new Random(11);
+        EliminationOrder.Strategy[] strategies = EliminationOrder.Strategy.values();
+        NetworkGenerator.Topology[] topologies = NetworkGenerator.Topology.values();
+        for (int t = 0; t < 50; t++) {
+            NetworkGenerator generator = new NetworkGenerator(t);
+            generator.setNodeCount(2 + random.nextInt(25));
+            generator.setTopology(topologies[t % topologies.length]);
+            generator.setCardinality(2, 3);
+            generator.setTreewidth(1 + random.nextInt(3));
+            BayesianNetwork bn = generator.generate();
+            CompiledNetwork net = bn.getCompiled();
+            int n = net.getVariableCount();
+            JunctionTree tree = new JunctionTree(bn, strategies[t % strategies.length]);
+            checkTree(tree, n);
+
+            // no evidence, then a few observed variables
+            for (int count : new int[] {0, 1 + random.nextInt(Math.min(4, n))}) {
+                BitSet chosen = new BitSet(n);
+                while (chosen.cardinality() < count) {
+                    chosen.set(random.nextInt(n));
+                }
+                int[] evidenceVars = chosen.stream().toArray();
+                int[] evidenceValues = new int[evidenceVars.length];
+                for (int e = 0; e < evidenceVars.length; e++) {
+                    evidenceValues[e] = random.nextInt(net.getCardinality(evidenceVars[e]));
+                }
+
+                double[][] posteriors = tree.computePosteriors(evidenceVars, evidenceValues);
+                Inference inference = new Inference();
+                for (int v = 0; v < n; v++) {
+                    int e = Arrays.binarySearch(evidenceVars, v);
+                    double[] expected;
+                    if (e >= 0) {
+                        expected = new double[net.getCardinality(v)];
+                        expected[evidenceValues[e]] = 1.0;
+                    } else {
+                        expected = inference.findPosterior(bn, new int[] {v}, evidenceVars, evidenceValues, null)
+                                            .getDistribution();
+                    }
+                    assertArrayEquals(expected, posteriors[v], 1e-12);
+                }
+            }
+        }
+    }
+
+    /**
+     * method to check that the cliques form a tree with the running intersection property, that no clique is
+     * contained in a neighbour, and that every family is in a clique
+     * @param tree junction tree
+     * @param n no of variables
+     */
+    private static void checkTree(JunctionTree tree, int n) {
+        CompiledNetwork net = tree.getNetwork();
+        int c = tree.getCliqueCount();
+        BitSet[] cliques = new BitSet[c];
+        for (int i = 0; i < c; i++) {
+            cliques[i] = new BitSet(n);
+            for (int v : tree.getClique(i)) {
+                cliques[i].set(v);
+            }
+        }
+        assertEquals(-1, tree.getParent(0));
+        int[] containing = new int[n];
+        int[] sharedEdges = new int[n];
+        for (int i = 0; i < c; i++) {
+            for (int v = cliques[i].nextSetBit(0); v >= 0; v = cliques[i].nextSetBit(v + 1)) {
+                containing[v]++;
+            }
+            if (i == 0) {
+                continue;
+            }
+            int p = tree.getParent(i);
+            assertTrue(p >= 0 && p < i);
+            BitSet separator = (BitSet) cliques[i].clone();
+            separator.and(cliques[p]);
+            assertTrue(separator.cardinality() < cliques[i].cardinality());
+            assertTrue(separator.cardinality() < cliques[p].cardinality());
+            for (int v = separator.nextSetBit(0); v >= 0; v = separator.nextSetBit(v + 1)) {
+                sharedEdges[v]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            // the cliques that contain a variable are connected: one more clique than edges between them
+            assertEquals(containing[v] - 1, sharedEdges[v]);
+            boolean found = false;
+            for (int i = 0; i < c && !found; i++) {
+                found = cliques[i].get(v);
+                for (int p : net.parents(v)) {
+                    found &= cliques[i].get(p);
+                }
+            }
+            assertTrue(found);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the MPE and MAP assignments of max-product elimination against an enumeration of the joint distribution
+ * on small networks, and the MPE of a chain too long for its probability to be a double
+ * @author 220031271
+ */
+public class MaxProductEliminationTest {
+
+    @Test
+    void assignmentsMatchEnumeration() {
+        Random random = new Random(9);
+        EliminationOrder.Strategy[] strategies = EliminationOrder.Strategy.values();
+        for (int t = 0; t < 60; t++) {
+            NetworkGenerator generator = new NetworkGenerator(t);
+            generator.setNodeCount(3 + random.nextInt(6));
+            generator.setTopology(NetworkGenerator.Topology.values()[t % NetworkGenerator.Topology.values().length]);
+            generator.setCardinality(2, 3);
+            generator.setTreewidth(2);
+            BayesianNetwork bn = generator.generate();
+            CompiledNetwork net = bn.getCompiled();
+            int n = net.getVariableCount();
+            Inference inference = new Inference();
+            inference.setOrderingStrategy(strategies[t % strategies.length]);
+
+            // evidence and MAP variables are disjoint, an MPE asks for every variable
+            BitSet evidence = new BitSet(n);
+            int count = random.nextInt(Math.min(3, n));
+            while (evidence.cardinality() < count) {
+                evidence.set(random.nextInt(n));
+            }
+            int[] evidenceVars = evidence.stream().toArray();
+            int[] evidenceValues = new int[evidenceVars.length];
+            for (int e = 0; e < evidenceVars.length; e++) {
+                evidenceValues[e] = random.nextInt(net.getCardinality(evidenceVars[e]));
+            }
+            BitSet map = new BitSet(n);
+            for (int v = 0; v < n; v++) {
+                if (!evidence.get(v) && random.nextBoolean()) {
+                    map.set(v);
+                }
+            }
+            if (map.isEmpty()) {
+                map.set(evidence.nextClearBit(0));
+            }
+            int[] mapVars = map.stream().toArray();
+            int[] allVars = new int[n];
+            for (int v = 0; v < n; v++) {
+                allVars[v] = v;
+            }
+
+            MaxProductElimination.Assignment mpe = inference.findMaximumAPosteriori(bn, allVars, evidenceVars,
+                                                                                     evidenceValues, null);
+            checkAssignment(net, allVars, evidenceVars, evidenceValues, mpe);
+            for (int e = 0; e < evidenceVars.length; e++) {
+                assertEquals(evidenceValues[e], mpe.getValue(evidenceVars[e]));
+            }
+            MaxProductElimination.Assignment mapAssignment = inference.findMaximumAPosteriori(bn, mapVars,
+                                                                                               evidenceVars,
+                                                                                               evidenceValues, null);
+            checkAssignment(net, mapVars, evidenceVars, evidenceValues, mapAssignment);
+        }
+    }
+
+    @Test
+    void longChainDoesNotUnderflow() {
+        NetworkGenerator generator = new NetworkGenerator(4);
+        generator.setNodeCount(3000);
+        generator.setTopology(NetworkGenerator.Topology.CHAIN);
+        generator.setCardinality(2, 3);
+        BayesianNetwork bn = generator.generate();
+        CompiledNetwork net = bn.getCompiled();
+        int n = net.getVariableCount();
+
+        // Viterbi over the logs, V(i-1) -> Vi
+        double[] best = new double[net.getCardinality(0)];
+        int[][] back = new int[n][];
+        double[] cpt = net.cpt(0);
+        for (int x = 0; x < best.length; x++) {
+            best[x] = Math.log(cpt[x]);
+        }
+        for (int v = 1; v < n; v++) {
+            assertArrayEquals(new int[] {v - 1}, net.parents(v));
+            cpt = net.cpt(v);
+            int card = net.getCardinality(v);
+            double[] next = new double[card];
+            back[v] = new int[card];
+            for (int x = 0; x < card; x++) {
+                next[x] = Double.NEGATIVE_INFINITY;
+                for (int p = 0; p < best.length; p++) {
+                    double score = best[p] + Math.log(cpt[p * card + x]);
+                    if (score > next[x]) {
+                        next[x] = score;
+                        back[v][x] = p;
+                    }
+                }
+            }
+            best = next;
+        }
+        int last = 0;
+        for (int x = 1; x < best.length; x++) {
+            if (best[x] > best[last]) {
+                last = x;
+            }
+        }
+
+        int[] allVars = new int[n];
+        for (int v = 0; v < n; v++) {
+            allVars[v] = v;
+        }
+        MaxProductElimination.Assignment mpe = new Inference().findMaximumAPosteriori(bn, allVars, new int[0],
+                                                                                       new int[0], null);
+        assertEquals(0.0, mpe.getProbability());
+        assertEquals(best[last], mpe.getLogProbability(), 1e-9 * Math.abs(best[last]));
+        int value = last;
+        for (int v = n - 1; v >= 0; v--) {
+            assertEquals(value, mpe.getValue(v));
+            value = v > 0 ? back[v][value] : value;
+        }
+    }
+
+    /**
+     * method to check an assignment against the enumeration of the joint distribution
+     * the assignment must have the highest posterior, and its probability must be that posterior
+     * @param net compiled network
+     * @param mapVars ids of the MAP variables, sorted
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @param assignment assignment to check
+     */
+    private static void checkAssignment(CompiledNetwork net, int[] mapVars, int[] evidenceVars, int[] evidenceValues,
+                                        MaxProductElimination.Assignment assignment) {
+        int n = net.getVariableCount();
+        Factor joint = Factor.fromVariable(net, 0);
+        for (int v = 1; v < n; v++) {
+            joint = joint.join(Factor.fromVariable(net, v));
+        }
+        BitSet kept = new BitSet(n);
+        for (int var : mapVars) {
+            kept.set(var);
+        }
+        for (int e = 0; e < evidenceVars.length; e++) {
+            joint = joint.assignValue(evidenceVars[e], evidenceValues[e]);
+            kept.clear(evidenceVars[e]);
+        }
+        for (int v = 0; v < n; v++) {
+            if (!kept.get(v) && joint.contains(v)) {
+                joint = joint.sumOut(v);
+            }
+        }
+        joint.normalise();
+
+        double[] posterior = joint.getValues();
+        double max = 0;
+        for (double p : posterior) {
+            max = Math.max(max, p);
+        }
+        int index = 0;
+        for (int d = 0; d < joint.getScope().length; d++) {
+            index += assignment.getValue(joint.getScope()[d]) * joint.getStrides()[d];
+        }
+        assertArrayEquals(mapVars, assignment.getVariables());
+        assertEquals(max, posterior[index], 1e-12);
+        assertEquals(max, assignment.getProbability(), 1e-12);
+    }
+}
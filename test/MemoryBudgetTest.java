@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the memory budget of the exact queries: the other ordering strategies are tried when the plan of the
+ * ordering strategy does not fit, and the queries that run at once share the budget and give it back when they
+ * end, also when they throw
+ * @author 220031271
+ */
+public class MemoryBudgetTest {
+
+    private static final int BUDGET_KIB = 4;   //fits the weighted min fill plan and not the reverse topological one
+
+    /**
+     * method to generate a polytree whose reverse topological plan is over the budget and whose weighted min fill
+     * plan fits in it
+     * @return Bayesian Network object
+     */
+    private static BayesianNetwork network() {
+        NetworkGenerator generator = new NetworkGenerator(2);
+        generator.setNodeCount(30);
+        generator.setTopology(NetworkGenerator.Topology.POLYTREE);
+        generator.setCardinality(2, 3);
+        return generator.generate();
+    }
+
+    @Test
+    void otherOrderingsFitTinyBudget() {
+        BayesianNetwork bn = network();
+        int n = bn.getCompiled().getVariableCount();
+        int[] evidenceVars = {n - 1};
+        int[] evidenceValues = {1};
+        Inference reference = new Inference();
+        Inference inference = new Inference();
+        inference.setMemoryBudget(BUDGET_KIB << 10);
+        assertTrue(inference.estimateCost(bn, new int[] {0}, evidenceVars, null).getBytes(false) > BUDGET_KIB << 10);
+
+        for (int value = 0; value < bn.getCompiled().getCardinality(0); value++) {
+            assertEquals(reference.findProbability(bn, 0, value, evidenceVars, evidenceValues, null),
+                         inference.findProbability(bn, 0, value, evidenceVars, evidenceValues, null), 1e-12);
+        }
+        assertEquals(BUDGET_KIB, inference.getAvailableMemoryBudget());
+
+        // no plan fits in less than a KiB, the query fails unless an approximate engine answers it
+        inference.setMemoryBudget(100);
+        assertThrows(MemoryBudgetExceededException.class,
+                     () -> inference.findProbability(bn, 0, 0, evidenceVars, evidenceValues, null));
+        ApproximateInference fallback = new ApproximateInference();
+        fallback.setSampleBudget(20000);
+        fallback.setSeed(1);
+        inference.setApproximateFallback(fallback);
+        double estimate = inference.findProbability(bn, 0, 0, evidenceVars, evidenceValues, null);
+        assertEquals(reference.findProbability(bn, 0, 0, evidenceVars, evidenceValues, null), estimate, 0.05);
+    }
+
+    @Test
+    void concurrentQueriesReleaseBudget() throws Exception {
+        BayesianNetwork bn = network();
+        CompiledNetwork net = bn.getCompiled();
+        int n = net.getVariableCount();
+        Inference reference = new Inference();
+        Inference inference = new Inference();
+        inference.setMemoryBudget(BUDGET_KIB << 10);
+        double[][] expected = new double[n][];
+        for (int v = 0; v < n - 1; v++) {
+            expected[v] = reference.findPosterior(bn, new int[] {v}, new int[] {n - 1}, new int[] {0}, null)
+                                   .getDistribution();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        int v = (thread * 7 + i) % (n - 1);
+                        int[] evidenceVars = {n - 1};
+                        int[] evidenceValues = {0};
+                        if (i % 3 == 0) {
+                            // an outcome out of range throws once the plan holds its part of the budget
+                            assertThrows(ArrayIndexOutOfBoundsException.class,
+                                         () -> inference.findProbability(bn, v, net.getCardinality(v),
+                                                                         evidenceVars, evidenceValues, null));
+                        } else if (i % 3 == 1) {
+                            assertEquals(expected[v][0], inference.findProbability(bn, v, 0, evidenceVars,
+                                                                                   evidenceValues, null), 1e-12);
+                        } else {
+                            double[] posterior = inference.findPosterior(bn, new int[] {v}, evidenceVars,
+                                                                         evidenceValues, null).getDistribution();
+                            for (int x = 0; x < posterior.length; x++) {
+                                assertEquals(expected[v][x], posterior[x], 1e-12);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(BUDGET_KIB, inference.getAvailableMemoryBudget());
+    }
+}
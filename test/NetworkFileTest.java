@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a network file maps back to the network it was compiled from, and that the loader rejects corrupt
+ * and stale files
+ * @author 220031271
+ */
+public class NetworkFileTest {
+
+    @TempDir
+    File directory;
+
+    /**
+     * method to write a generated network as XMLBIF and compile it into a network file
+     * @param xml XMLBIF file to write
+     * @param compiled network file to write
+     * @return network parsed from the XMLBIF file
+     * @throws IOException if a file cannot be written
+     */
+    private static BayesianNetwork compile(File xml, File compiled) throws IOException {
+        NetworkGenerator generator = new NetworkGenerator(8);
+        generator.setNodeCount(25);
+        generator.setTopology(NetworkGenerator.Topology.RANDOM);
+        generator.setCardinality(2, 4);
+        generator.setTreewidth(3);
+        generator.writeXmlBif(xml);
+        BayesianNetwork bn = BNParser.readBNFromFile(xml);
+        NetworkFile.write(bn.getCompiled(), xml, compiled);
+        return bn;
+    }
+
+    @Test
+    void roundTripGivesSamePosteriors() throws IOException {
+        File xml = new File(directory, "network.xml");
+        File compiled = new File(directory, "network.bnc");
+        BayesianNetwork parsed = compile(xml, compiled);
+        assertTrue(NetworkFile.isNetworkFile(compiled));
+        assertFalse(NetworkFile.isNetworkFile(xml));
+        BayesianNetwork mapped = new BayesianNetwork(NetworkFile.load(compiled));
+
+        CompiledNetwork expected = parsed.getCompiled();
+        CompiledNetwork actual = mapped.getCompiled();
+        int n = expected.getVariableCount();
+        assertEquals(n, actual.getVariableCount());
+        for (int v = 0; v < n; v++) {
+            assertEquals(expected.getVariableName(v), actual.getVariableName(v));
+            assertEquals(expected.getOutcomes(v), actual.getOutcomes(v));
+            assertArrayEquals(expected.getParentIds(v), actual.getParentIds(v));
+        }
+        int[] evidenceVars = {3, n - 1};
+        int[] evidenceValues = {1, 0};
+        Inference inference = new Inference();
+        for (int v = 0; v < n; v++) {
+            if (v == evidenceVars[0] || v == evidenceVars[1]) {
+                continue;
+            }
+            Posterior before = inference.findPosterior(parsed, new int[] {v}, evidenceVars, evidenceValues, null);
+            Posterior after = inference.findPosterior(mapped, new int[] {v}, evidenceVars, evidenceValues, null);
+            assertArrayEquals(before.getDistribution(), after.getDistribution());
+            assertEquals(before.getLogEvidenceProbability(), after.getLogEvidenceProbability());
+        }
+    }
+
+    @Test
+    void flippedByteFailsChecksum() throws IOException {
+        File xml = new File(directory, "network.xml");
+        File compiled = new File(directory, "network.bnc");
+        compile(xml, compiled);
+        long length = compiled.length();
+
+        // the last byte is in the probability tables
+        flip(compiled, length - 1);
+        IOException e = assertThrows(IOException.class, () -> NetworkFile.load(compiled));
+        assertTrue(e.getMessage().contains("probability table checksum mismatch"), e.getMessage());
+        NetworkFile.load(compiled, false);
+        flip(compiled, length - 1);
+        NetworkFile.load(compiled);
+
+        // the metadata follows the header, and the header checksum covers the section offsets
+        flip(compiled, 100);
+        e = assertThrows(IOException.class, () -> NetworkFile.load(compiled));
+        assertTrue(e.getMessage().contains("metadata checksum mismatch"), e.getMessage());
+        flip(compiled, 100);
+        flip(compiled, 40);
+        e = assertThrows(IOException.class, () -> NetworkFile.load(compiled));
+        assertTrue(e.getMessage().contains("header checksum mismatch"), e.getMessage());
+    }
+
+    @Test
+    void changedSourceIsStale() throws IOException {
+        File xml = new File(directory, "network.xml");
+        File compiled = new File(directory, "network.bnc");
+        compile(xml, compiled);
+        NetworkFile.load(compiled);
+
+        assertTrue(xml.setLastModified(xml.lastModified() + 10000));
+        IOException e = assertThrows(IOException.class, () -> NetworkFile.load(compiled));
+        assertTrue(e.getMessage().startsWith("Stale network file"), e.getMessage());
+
+        // a network file whose source is gone is still loaded
+        assertTrue(xml.delete());
+        NetworkFile.load(compiled);
+    }
+
+    /**
+     * method to invert the bits of one byte of a file
+     * @param file file to change
+     * @param position position of the byte
+     * @throws IOException if the file cannot be written
+     */
+    private static void flip(File file, long position) throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.seek(position);
+            int value = access.read();
+            access.seek(position);
+            access.write(value ^ 0xff);
+        }
+    }
+}
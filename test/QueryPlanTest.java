@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a plan executed by many threads at once, sharing its pool of buffers, gives the results of a
+ * sequential execution, and that the factor cache only reuses a factor for the same evidence values
+ * @author 220031271
+ */
+public class QueryPlanTest {
+
+    @Test
+    void concurrentExecutionsMatchSequential() throws Exception {
+        NetworkGenerator generator = new NetworkGenerator(11);
+        generator.setNodeCount(49);
+        generator.setTopology(NetworkGenerator.Topology.GRID);
+        generator.setCardinality(2, 3);
+        CompiledNetwork net = generator.generate().getCompiled();
+        int[] evidenceVars = {3, 17, 30};
+        int queryVar = 48;
+        QueryPlan plan = QueryPlan.compile(net, queryVar, evidenceVars, null,
+                                           EliminationOrder.Strategy.WEIGHTED_MIN_FILL, 100);
+
+        // every assignment of the evidence, answered sequentially in linear and in log space
+        List<int[]> assignments = new ArrayList<>();
+        int[] values = new int[evidenceVars.length];
+        while (values != null) {
+            assignments.add(values.clone());
+            values = next(values, net, evidenceVars);
+        }
+        double[][] expected = new double[assignments.size()][2];
+        for (int a = 0; a < assignments.size(); a++) {
+            expected[a][0] = plan.execute(1, assignments.get(a), false, null);
+            expected[a][1] = plan.execute(1, assignments.get(a), true, null);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                long seed = t;
+                results.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 500; i++) {
+                        int a = random.nextInt(assignments.size());
+                        int log = random.nextInt(2);
+                        assertEquals(expected[a][log], plan.execute(1, assignments.get(a), log == 1, null));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void cachedFactorsFollowEvidenceValues() {
+        NetworkGenerator generator = new NetworkGenerator(12);
+        generator.setNodeCount(36);
+        generator.setTopology(NetworkGenerator.Topology.GRID);
+        generator.setCardinality(2, 3);
+        CompiledNetwork net = generator.generate().getCompiled();
+        int[] evidenceVars = {2, 14, 21};
+        int queryVar = 35;
+        QueryPlan plan = QueryPlan.compile(net, queryVar, evidenceVars, null, EliminationOrder.Strategy.MIN_FILL, 100);
+        FactorCache cache = new FactorCache(1 << 20, 0);
+        int[] first = {0, 1, 0};
+        int[] second = {1, 1, 0};    //only the value of the first evidence variable changes
+
+        // the first execution fills the cache, the next ones reuse it
+        plan.execute(0, first, false, cache);
+        assertTrue(cache.size() > 0);
+        assertEquals(0, cache.getHits());
+        assertCachedMatchesUncached(plan, first, cache);
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+        assertCachedMatchesUncached(plan, first, cache);
+        assertTrue(cache.getHits() > hits);
+        assertEquals(misses, cache.getMisses());
+
+        // a plan of the same shape compiled again has the same step signatures
+        QueryPlan again = QueryPlan.compile(net, queryVar, evidenceVars, null, EliminationOrder.Strategy.MIN_FILL, 100);
+        hits = cache.getHits();
+        assertCachedMatchesUncached(again, first, cache);
+        assertTrue(cache.getHits() > hits);
+
+        // the steps below the changed evidence variable miss, and no stale factor is returned
+        assertNotEquals(plan.execute(0, first, false, null), plan.execute(0, second, false, null));
+        misses = cache.getMisses();
+        assertCachedMatchesUncached(plan, second, cache);
+        assertTrue(cache.getMisses() > misses);
+        assertCachedMatchesUncached(plan, first, cache);
+        assertCachedMatchesUncached(plan, second, cache);
+    }
+
+    /**
+     * method to check that a plan gives the same result for every query value with and without a cache
+     * @param plan query plan
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @param cache factor cache
+     */
+    private static void assertCachedMatchesUncached(QueryPlan plan, int[] evidenceValues, FactorCache cache) {
+        for (int value = 0; value < plan.getNetwork().getCardinality(plan.getQueryVariable()); value++) {
+            for (boolean logSpace : new boolean[] {false, true}) {
+                assertEquals(plan.execute(value, evidenceValues, logSpace, null),
+                             plan.execute(value, evidenceValues, logSpace, cache));
+            }
+        }
+    }
+
+    /**
+     * method to move to the next assignment of the evidence variables, like an odometer
+     * @return the next assignment, null after the last one
+     */
+    private static int[] next(int[] values, CompiledNetwork net, int[] vars) {
+        for (int d = values.length - 1; d >= 0; d--) {
+            if (++values[d] < net.getCardinality(vars[d])) {
+                return values;
+            }
+            values[d] = 0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the query server on a free port: a query is answered, a request over the capacity gets a 503, and a
+ * shutdown waits for the admitted request before it closes the socket
+ * @author 220031271
+ */
+public class QueryServerTest {
+
+    @Test
+    void answersRejectsAndDrains() throws Exception {
+        NetworkGenerator generator = new NetworkGenerator(2);
+        generator.setNodeCount(20);
+        generator.setTopology(NetworkGenerator.Topology.POLYTREE);
+        generator.setCardinality(2, 3);
+        BayesianNetwork bn = generator.generate();
+        String query = "V7 | V2:" + bn.getCompiled().getOutcomes(2).get(0);
+        String expected = A2main.answerQuery(bn, new Inference(), query, new DecimalFormat("#0.00000")) + "\n";
+
+        QueryServer server = new QueryServer(0, new Inference(), 1);
+        server.addNetwork("net", bn);
+        server.start();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        String base = "http://127.0.0.1:" + server.getPort();
+        ExecutorService stopper = Executors.newSingleThreadExecutor();
+        try {
+            HttpResponse<String> answer = client.send(HttpRequest.newBuilder(URI.create(base + "/query/net?q="
+                    + query.replace(" ", "%20").replace("|", "%7C"))).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, answer.statusCode());
+            assertEquals(expected, answer.body());
+
+            // a POST whose body is held back keeps the only admission until the rest of the body is sent
+            byte[] body = (query + "\n").getBytes(StandardCharsets.UTF_8);
+            Socket held = new Socket("127.0.0.1", server.getPort());
+            OutputStream out = held.getOutputStream();
+            out.write(("POST /query/net HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\nContent-Length: "
+                       + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(body, 0, 1);
+            out.flush();
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (server.getAdmitted() < 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, server.getAdmitted());
+
+            HttpResponse<String> busy = client.send(HttpRequest.newBuilder(URI.create(base + "/health")).build(),
+                                                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, busy.statusCode());
+            assertEquals("1", busy.headers().firstValue("Retry-After").orElse(""));
+            assertEquals(1, server.getRejected());
+
+            // the shutdown waits for the held request, which is still answered
+            Future<Boolean> drained = stopper.submit(() -> server.shutdown(10_000));
+            out.write(body, 1, body.length - 1);
+            out.flush();
+            String last = new String(held.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            held.close();
+            assertTrue(last.startsWith("HTTP/1.1 200"), last);
+            assertTrue(last.endsWith("\r\n\r\n" + expected), last);
+            assertTrue(drained.get());
+            assertEquals(0, server.getAdmitted());
+            assertEquals(2, server.getAnswered());
+            assertThrows(IOException.class, () -> client.send(
+                    HttpRequest.newBuilder(URI.create(base + "/health")).build(), HttpResponse.BodyHandlers.ofString()));
+        } finally {
+            server.shutdown(0);
+            stopper.shutdown();
+        }
+    }
+}
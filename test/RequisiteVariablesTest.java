@@ -0,0 +1,139 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the queries answered with only the requisite probability tables (Bayes-ball) give the posteriors of
+ * an elimination over every table of the network, and that a query variable cannot also be evidence
+ * @author 220031271
+ */
+public class RequisiteVariablesTest {
+
+    @Test
+    void prunedPosteriorsMatchFullJoint() {
+        Random random = new Random(5);
+        for (int t = 0; t < 40; t++) {
+            NetworkGenerator generator = new NetworkGenerator(t);
+            generator.setNodeCount(4 + random.nextInt(7));
+            generator.setTopology(NetworkGenerator.Topology.values()[t % NetworkGenerator.Topology.values().length]);
+            generator.setCardinality(2, 3);
+            generator.setTreewidth(2);
+            BayesianNetwork bn = generator.generate();
+            CompiledNetwork net = bn.getCompiled();
+            int n = net.getVariableCount();
+            Inference inference = new Inference();
+            for (int q = 0; q < 10; q++) {
+                int query = random.nextInt(n);
+                // distinct evidence variables other than the query, the tables are positive so P(e) > 0
+                BitSet chosen = new BitSet(n);
+                int count = random.nextInt(Math.min(4, n));
+                while (chosen.cardinality() < count) {
+                    int var = random.nextInt(n);
+                    if (var != query) {
+                        chosen.set(var);
+                    }
+                }
+                int[] evidenceVars = chosen.stream().toArray();
+                int[] evidenceValues = new int[evidenceVars.length];
+                for (int e = 0; e < evidenceVars.length; e++) {
+                    evidenceValues[e] = random.nextInt(net.getCardinality(evidenceVars[e]));
+                }
+
+                double[] expected = fullJointPosterior(net, query, evidenceVars, evidenceValues);
+                for (int value = 0; value < expected.length; value++) {
+                    assertEquals(expected[value], inference.findProbability(bn, query, value, evidenceVars,
+                                                                            evidenceValues, null), 1e-12);
+                }
+            }
+        }
+    }
+
+    @Test
+    void observedParentSeparatesChain() {
+        NetworkGenerator generator = new NetworkGenerator(3);
+        generator.setNodeCount(4);
+        generator.setTopology(NetworkGenerator.Topology.CHAIN);
+        generator.setCardinality(2, 2);
+        CompiledNetwork net = generator.generate().getCompiled();
+
+        // V0 -> V1 -> V2 -> V3: given V1, only the table of V2 is requisite for V2, V3 is barren
+        BitSet expected = new BitSet();
+        expected.set(2);
+        assertEquals(expected, Inference.requisiteVariables(net, new int[] {2}, new int[] {1}));
+
+        // given V3, every ancestor of the evidence is requisite for V0
+        expected = new BitSet();
+        expected.set(0, 4);
+        assertEquals(expected, Inference.requisiteVariables(net, new int[] {0}, new int[] {3}));
+    }
+
+    @Test
+    void observedQueries() {
+        for (int t = 0; t < 20; t++) {
+            NetworkGenerator generator = new NetworkGenerator(t);
+            generator.setNodeCount(6);
+            generator.setTopology(NetworkGenerator.Topology.values()[t % NetworkGenerator.Topology.values().length]);
+            generator.setCardinality(2, 3);
+            generator.setTreewidth(2);
+            BayesianNetwork bn = generator.generate();
+            CompiledNetwork net = bn.getCompiled();
+            Inference inference = new Inference();
+            for (int query = 0; query < net.getVariableCount(); query++) {
+                // a query that is also evidence has no requisite table, it is rejected and not given the empty product
+                int observed = query;
+                assertThrows(IllegalArgumentException.class, () -> inference.findProbability(bn, observed, 0,
+                        new int[] {observed}, new int[] {0}, null));
+                assertThrows(IllegalArgumentException.class, () -> inference.findPosterior(bn, new int[] {observed},
+                        new int[] {observed}, new int[] {0}, null));
+
+                // with every parent observed, only the table of the query is requisite
+                int[] parents = net.parents(query);
+                int[] values = new int[parents.length];
+                for (int p = 0; p < parents.length; p++) {
+                    values[p] = (query + p) % net.getCardinality(parents[p]);
+                }
+                double[] expected = fullJointPosterior(net, query, parents, values);
+                for (int value = 0; value < expected.length; value++) {
+                    assertEquals(expected[value], inference.findProbability(bn, query, value, parents, values, null),
+                                 1e-12);
+                }
+                assertArrayEquals(expected, inference.findPosterior(bn, new int[] {query}, parents, values, null)
+                                                     .getDistribution(), 1e-12);
+            }
+        }
+    }
+
+    /**
+     * method to compute a posterior by joining every table of the network, without any pruning
+     * @param net compiled network
+     * @param query id of the query variable
+     * @param evidenceVars ids of the evidence variables
+     * @param evidenceValues outcome indexes of the evidence variables
+     * @return normalised posterior of the query variable
+     */
+    private static double[] fullJointPosterior(CompiledNetwork net, int query, int[] evidenceVars,
+                                               int[] evidenceValues) {
+        int n = net.getVariableCount();
+        Factor joint = Factor.fromVariable(net, 0);
+        for (int v = 1; v < n; v++) {
+            joint = joint.join(Factor.fromVariable(net, v));
+        }
+        BitSet evidence = new BitSet(n);
+        for (int e = 0; e < evidenceVars.length; e++) {
+            joint = joint.assignValue(evidenceVars[e], evidenceValues[e]);
+            evidence.set(evidenceVars[e]);
+        }
+        for (int v = 0; v < n; v++) {
+            if (v != query && !evidence.get(v)) {
+                joint = joint.sumOut(v);
+            }
+        }
+        joint.normalise();
+        return joint.getValues();
+    }
+}